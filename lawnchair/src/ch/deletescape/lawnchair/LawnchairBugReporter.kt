@@ -30,9 +30,11 @@ import ch.deletescape.lawnchair.bugreport.BugReportFileManager
 import ch.deletescape.lawnchair.util.extensions.e
 import com.android.launcher3.BuildConfig
 import com.android.launcher3.R
+import com.android.launcher3.util.StartupMetrics
 import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.PrintStream
+import java.io.PrintWriter
 import java.nio.charset.StandardCharsets
 import java.text.SimpleDateFormat
 import java.util.*
@@ -128,6 +130,17 @@ class LawnchairBugReporter(private val context: Context, private val crashHandle
             stream.println("version.release: ${Build.VERSION.RELEASE}")
             stream.println("version.sdk_int: ${Build.VERSION.SDK_INT}")
             stream.println()
+            stream.println("--------- startup metrics")
+            try {
+                PrintWriter(stream).apply {
+                    StartupMetrics.dump(context, "", this)
+                    flush()
+                }
+            } catch (t: Throwable) {
+                // Don't let the metrics get in the way of the report
+                stream.println("unavailable: $t")
+            }
+            stream.println()
             stream.println("error: $error")
             if (throwable != null) {
                 stream.println()
@@ -110,6 +110,7 @@ class LawnchairPreferences(val context: Context) : SharedPreferences.OnSharedPre
     var enableBlur by BooleanPref("pref_enableBlur", lawnchairConfig.defaultEnableBlur, updateBlur)
     val enableVibrancy = true
     val blurRadius by FloatPref("pref_blurRadius", lawnchairConfig.defaultBlurStrength, updateBlur)
+    val blurOnCpu by BooleanPref("pref_blurOnCpu", false, updateBlur)
 
     // Theme
     private var iconPack by StringPref("pref_icon_pack", "", reloadIconPacks)
@@ -22,15 +22,14 @@ import static java.lang.Math.min;
 import static java.lang.Math.round;
 
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.graphics.Color;
+import android.graphics.PixelFormat;
 import android.graphics.RectF;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.support.annotation.NonNull;
 import android.support.v4.graphics.ColorUtils;
 import android.util.Log;
-import android.util.SparseIntArray;
 import ch.deletescape.lawnchair.LawnchairPreferences;
 import ch.deletescape.lawnchair.iconpack.AdaptiveIconCompat;
 import ch.deletescape.lawnchair.iconpack.LawnchairIconProvider;
@@ -39,14 +38,12 @@ import com.android.launcher3.Utilities;
 import com.android.launcher3.graphics.ColorExtractor;
 import com.android.launcher3.graphics.FixedScaleDrawable;
 import com.android.launcher3.graphics.IconNormalizer;
+import com.android.launcher3.graphics.IconPixelAnalyzer;
 import com.android.launcher3.graphics.LauncherIcons;
 
 // TODO: Make this thing async somehow (maybe using some drawable wrappers?)
 public class AdaptiveIconGenerator {
 
-    // Average number of derived colors (based on averages with ~100 icons and performance testing)
-    private static final int NUMBER_OF_COLORS_GUESSTIMATION = 45;
-
     // Found after some experimenting, might be improved with some more testing
     private static final float FULL_BLEED_ICON_SCALE = 1.44f;
     // Found after some experimenting, might be improved with some more testing
@@ -112,151 +109,133 @@ public class AdaptiveIconGenerator {
                 return;
             }
 
-            LauncherIcons li = LauncherIcons.obtain(context);
-            IconNormalizer normalizer = li.getNormalizer();
-            li.recycle();
-
-            boolean[] outShape = new boolean[1];
-            RectF bounds = new RectF();
-
-            initTmpIfNeeded();
-            scale = normalizer.getScale(extractee, bounds, tmp.getIconMask(), outShape, MIN_VISIBLE_ALPHA);
-            matchesMaskShape = outShape[0];
-
-            if (extractee instanceof ColorDrawable) {
-                isFullBleed = true;
-                fullBleedChecked = true;
-            }
-
-            width = extractee.getIntrinsicWidth();
-            height = extractee.getIntrinsicHeight();
-            aWidth = width * (1 - (bounds.left + bounds.right));
-            aHeight = height * (1 - (bounds.top + bounds.bottom));
-
-            // Check if the icon is squareish
-            final float ratio = aHeight / aWidth;
-            boolean isSquareish = 0.999 < ratio && ratio < 1.0001;
-            boolean almostSquarish = isSquareish || (0.97 < ratio && ratio < 1.005);
-            if (!isSquareish) {
-                isFullBleed = false;
-                fullBleedChecked = true;
+            try (LauncherIcons li = LauncherIcons.obtain(context)) {
+                loop(li.getPixelAnalyzer(), li.getNormalizer(), extractee);
             }
+            return;
+        }
+        onExitLoop();
+    }
 
-            final Bitmap bitmap = Utilities.drawableToBitmap(extractee);
-            if (bitmap == null) {
-                onExitLoop();
-                return;
-            }
+    /**
+     * Analyzes {@param extractee}, drawing it only once for the normalizer and the colors.
+     */
+    private void loop(IconPixelAnalyzer analyzer, IconNormalizer normalizer, Drawable extractee) {
+        boolean[] outShape = new boolean[1];
+        RectF bounds = new RectF();
 
-            if (!bitmap.hasAlpha()) {
-                isFullBleed = true;
-                fullBleedChecked = true;
-            }
+        initTmpIfNeeded();
+        analyzer.analyze(extractee, MIN_VISIBLE_ALPHA);
+        scale = normalizer.getScale(analyzer, bounds, tmp.getIconMask(), outShape, MIN_VISIBLE_ALPHA);
+        matchesMaskShape = outShape[0];
 
-            final int size = height * width;
-            SparseIntArray rgbScoreHistogram = new SparseIntArray(NUMBER_OF_COLORS_GUESSTIMATION);
-            final int[] pixels = new int[size];
-            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-
-            /*
-             *   Calculate the number of padding pixels around the actual icon (i)
-             *   +----------------+
-             *   |      top       |
-             *   +---+--------+---+
-             *   |   |        |   |
-             *   | l |    i   | r |
-             *   |   |        |   |
-             *   +---+--------+---+
-             *   |     bottom     |
-             *   +----------------+
-             */
-            float adjHeight = height - bounds.top - bounds.bottom;
-            float l = bounds.left * width * adjHeight;
-            float top = bounds.top * height * width;
-            float r = bounds.right * width * adjHeight;
-            float bottom = bounds.bottom * height * width;
-            int addPixels = Math.round(l + top + r + bottom);
-
-            // Any icon with less than 10% transparent pixels (padding excluded) is considered "full-bleed-ish"
-            final int maxTransparent = (int) (round(size * .10) + addPixels);
-            // Any icon with less than 27% transparent pixels (padding excluded) doesn't need a color mix-in
-            final int noMixinScore = (int) (round(size * .27) + addPixels);
-
-            int highScore = 0;
-            int bestRGB = 0;
-            int transparentScore = 0;
-            for (int pixel : pixels) {
-                int alpha = 0xFF & (pixel >> 24);
-                if (alpha < MIN_VISIBLE_ALPHA) {
-                    // Drop mostly-transparent pixels.
-                    transparentScore++;
-                    if (transparentScore > maxTransparent) {
-                        isFullBleed = false;
-                        fullBleedChecked = true;
-                        if (!extractColor) {
-                            break;
-                        }
-                    }
-                    continue;
-                }
-                // Reduce color complexity.
-                int rgb = ColorExtractor.posterize(pixel);
-                if (rgb < 0) {
-                    // Defensively avoid array bounds violations.
-                    continue;
-                }
-                int currentScore = rgbScoreHistogram.get(rgb) + 1;
-                rgbScoreHistogram.append(rgb, currentScore);
-                if (currentScore > highScore) {
-                    highScore = currentScore;
-                    bestRGB = rgb;
-                }
-            }
+        if (extractee instanceof ColorDrawable) {
+            isFullBleed = true;
+            fullBleedChecked = true;
+        }
 
-            // add back the alpha channel
-            bestRGB |= 0xff << 24;
+        width = extractee.getIntrinsicWidth();
+        height = extractee.getIntrinsicHeight();
+        aWidth = width * (1 - (bounds.left + bounds.right));
+        aHeight = height * (1 - (bounds.top + bounds.bottom));
+
+        // Check if the icon is squareish
+        final float ratio = aHeight / aWidth;
+        boolean isSquareish = 0.999 < ratio && ratio < 1.0001;
+        boolean almostSquarish = isSquareish || (0.97 < ratio && ratio < 1.005);
+        if (!isSquareish) {
+            isFullBleed = false;
+            fullBleedChecked = true;
+        }
 
-            // not yet checked = not set to false = has to be full bleed, isBackgroundWhite = true = is adaptive
-            isFullBleed |= !fullBleedChecked && !isBackgroundWhite;
+        if (width <= 0 || height <= 0) {
+            onExitLoop();
+            return;
+        }
 
-            // return early if a mix-in isnt needed
-            noMixinNeeded = !isFullBleed && !isBackgroundWhite && almostSquarish && transparentScore <= noMixinScore;
-            if (isFullBleed || noMixinNeeded) {
-                backgroundColor = bestRGB;
-                onExitLoop();
-                return;
-            }
+        // Opaque icons are full-bleed whatever their shape
+        if (extractee.getOpacity() == PixelFormat.OPAQUE) {
+            isFullBleed = true;
+            fullBleedChecked = true;
+        }
 
-            if (!extractColor) {
-                backgroundColor = Color.WHITE;
-                onExitLoop();
-                return;
-            }
+        // The analyzed pixels, which are downsampled for large icons
+        final int analyzedWidth = analyzer.getWidth();
+        final int analyzedHeight = analyzer.getHeight();
+        final int size = analyzedHeight * analyzedWidth;
+
+        /*
+         *   Calculate the number of padding pixels around the actual icon (i)
+         *   +----------------+
+         *   |      top       |
+         *   +---+--------+---+
+         *   |   |        |   |
+         *   | l |    i   | r |
+         *   |   |        |   |
+         *   +---+--------+---+
+         *   |     bottom     |
+         *   +----------------+
+         */
+        float adjHeight = analyzedHeight - bounds.top - bounds.bottom;
+        float l = bounds.left * analyzedWidth * adjHeight;
+        float top = bounds.top * analyzedHeight * analyzedWidth;
+        float r = bounds.right * analyzedWidth * adjHeight;
+        float bottom = bounds.bottom * analyzedHeight * analyzedWidth;
+        int addPixels = Math.round(l + top + r + bottom);
+
+        // Any icon with less than 10% transparent pixels (padding excluded) is considered "full-bleed-ish"
+        final int maxTransparent = (int) (round(size * .10) + addPixels);
+        // Any icon with less than 27% transparent pixels (padding excluded) doesn't need a color mix-in
+        final int noMixinScore = (int) (round(size * .27) + addPixels);
+
+        final int transparentScore = analyzer.getTransparentCount();
+        if (transparentScore > maxTransparent) {
+            isFullBleed = false;
+            fullBleedChecked = true;
+        }
+        final int highScore = analyzer.getHighScore();
+        final int bestRGB = analyzer.getBestColor();
+
+        // not yet checked = not set to false = has to be full bleed, isBackgroundWhite = true = is adaptive
+        isFullBleed |= !fullBleedChecked && !isBackgroundWhite;
+
+        // return early if a mix-in isnt needed
+        noMixinNeeded = !isFullBleed && !isBackgroundWhite && almostSquarish && transparentScore <= noMixinScore;
+        if (isFullBleed || noMixinNeeded) {
+            backgroundColor = bestRGB;
+            onExitLoop();
+            return;
+        }
 
-            // "single color"
-            final int numColors = rgbScoreHistogram.size();
-            boolean singleColor = numColors <= SINGLE_COLOR_LIMIT;
-
-            // Convert to HSL to get the lightness and adjust the color
-            final float[] hsl = new float[3];
-            ColorUtils.colorToHSL(bestRGB, hsl);
-            float lightness = hsl[2];
-
-            boolean light = lightness > .5;
-            // Apply dark background to mostly white icons
-            boolean veryLight = lightness > .75 && singleColor;
-            // Apply light background to mostly dark icons
-            boolean veryDark = lightness < .35 && singleColor;
-
-            // Adjust color to reach suitable contrast depending on the relationship between the colors
-            final int opaqueSize = size - transparentScore;
-            final float pxPerColor = opaqueSize / (float) numColors;
-            float mixRatio = min(max(pxPerColor / highScore, .15f), .7f);
-
-            // Vary color mix-in based on lightness and amount of colors
-            int fill = (light && !veryLight) || veryDark ? 0xFFFFFFFF : 0xFF333333;
-            backgroundColor = ColorUtils.blendARGB(bestRGB, fill, mixRatio);
+        if (!extractColor) {
+            backgroundColor = Color.WHITE;
+            onExitLoop();
+            return;
         }
+
+        // "single color"
+        final int numColors = analyzer.getColorCount();
+        boolean singleColor = numColors <= SINGLE_COLOR_LIMIT;
+
+        // Convert to HSL to get the lightness and adjust the color
+        final float[] hsl = new float[3];
+        ColorUtils.colorToHSL(bestRGB, hsl);
+        float lightness = hsl[2];
+
+        boolean light = lightness > .5;
+        // Apply dark background to mostly white icons
+        boolean veryLight = lightness > .75 && singleColor;
+        // Apply light background to mostly dark icons
+        boolean veryDark = lightness < .35 && singleColor;
+
+        // Adjust color to reach suitable contrast depending on the relationship between the colors
+        final int opaqueSize = size - transparentScore;
+        final float pxPerColor = opaqueSize / (float) numColors;
+        float mixRatio = min(max(pxPerColor / highScore, .15f), .7f);
+
+        // Vary color mix-in based on lightness and amount of colors
+        int fill = (light && !veryLight) || veryDark ? 0xFFFFFFFF : 0xFF333333;
+        backgroundColor = ColorUtils.blendARGB(bestRGB, fill, mixRatio);
         onExitLoop();
     }
 
@@ -0,0 +1,135 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.deletescape.lawnchair.allapps
+
+import com.android.launcher3.AppInfo
+import me.xdrop.fuzzywuzzy.ToStringFunction
+import me.xdrop.fuzzywuzzy.algorithms.DefaultStringFunction
+import java.util.*
+
+/**
+ * Fuzzy matcher for app titles, ranking apps exactly like scoring every title with
+ * [WinklerWeightedRatio] and sorting by score and title, but without scoring most titles.
+ *
+ * Every title is processed once and reduced to a bit mask of the characters it contains. A title
+ * without any character in common with the query can't score above 50 (only the spaces between
+ * words can match), so it is rejected before scoring. The best results are kept in a bounded
+ * heap instead of sorting all of them.
+ *
+ * This class is not thread safe.
+ */
+class FuzzyAppMatcher(private val minScore: Int, private val maxResults: Int) {
+
+    private val ratio = WinklerWeightedRatio()
+    private var entries = IdentityHashMap<AppInfo, Entry>()
+    private var orderedEntries = emptyArray<Entry>()
+
+    /**
+     * Updates the matcher to contain exactly [apps], in that order. Only apps which were added
+     * or whose title changed since the last call are processed again.
+     */
+    fun setApps(apps: List<AppInfo>) {
+        if (apps.size == orderedEntries.size
+                && apps.indices.all { i -> orderedEntries[i].let { it.info === apps[i] && it.title === apps[i].title } }) {
+            return
+        }
+        val oldEntries = entries
+        entries = IdentityHashMap(apps.size)
+        orderedEntries = Array(apps.size) { i ->
+            val info = apps[i]
+            val entry = oldEntries[info]?.takeIf { it.title === info.title } ?: Entry(info, i)
+            entry.index = i
+            entries[info] = entry
+            entry
+        }
+    }
+
+    /**
+     * Returns the best matches for [query], sorted by descending score, then by title and then by
+     * the order of the apps.
+     */
+    fun query(query: String): List<AppInfo> {
+        val processedQuery = PROCESSOR.apply(query)
+        if (processedQuery.isEmpty()) return emptyList()
+        val queryMask = getCharMask(processedQuery)
+
+        val heap = PriorityQueue<Entry>(Math.min(maxResults, orderedEntries.size) + 1, WORST_FIRST)
+        for (entry in orderedEntries) {
+            if (entry.charMask and queryMask == 0L) continue
+            entry.score = ratio.apply(processedQuery, entry.processedTitle, NO_PROCESS)
+            if (entry.score < minScore) continue
+            if (heap.size < maxResults) {
+                heap.add(entry)
+            } else if (WORST_FIRST.compare(entry, heap.peek()) > 0) {
+                heap.poll()
+                heap.add(entry)
+            }
+        }
+
+        val results = arrayOfNulls<AppInfo>(heap.size)
+        for (i in results.indices.reversed()) {
+            results[i] = heap.poll().info
+        }
+        @Suppress("UNCHECKED_CAST")
+        return (results as Array<AppInfo>).asList()
+    }
+
+    private class Entry(val info: AppInfo, var index: Int) {
+
+        // Reference to the processed title, used to detect label changes
+        val title: CharSequence? = info.title
+        val sortTitle = info.title.toString()
+        val processedTitle: String = PROCESSOR.apply(sortTitle)
+        val charMask = getCharMask(processedTitle)
+        var score = 0
+    }
+
+    companion object {
+
+        private val PROCESSOR = DefaultStringFunction()
+        // Both strings are processed beforehand, which is idempotent
+        private val NO_PROCESS = ToStringFunction<String> { it }
+
+        private val WORST_FIRST = Comparator<Entry> { a, b ->
+            when {
+                a.score != b.score -> a.score.compareTo(b.score)
+                a.sortTitle != b.sortTitle -> b.sortTitle.compareTo(a.sortTitle)
+                else -> b.index.compareTo(a.index)
+            }
+        }
+
+        /**
+         * Returns a mask with one bit per letter and digit, other characters share the remaining
+         * bits. Spaces are ignored.
+         */
+        private fun getCharMask(s: String): Long {
+            var mask = 0L
+            for (c in s) {
+                mask = mask or when (c) {
+                    ' ' -> 0L
+                    in 'a'..'z' -> 1L shl (c - 'a')
+                    in '0'..'9' -> 1L shl (26 + (c - '0'))
+                    else -> 1L shl (36 + c.toInt() % 28)
+                }
+            }
+            return mask
+        }
+    }
+}
@@ -19,84 +19,80 @@
 
 package ch.deletescape.lawnchair.allapps
 
-import android.content.ComponentName
 import android.content.Context
-import android.os.Handler
-import ch.deletescape.lawnchair.LawnchairAppFilter
 import ch.deletescape.lawnchair.globalsearch.SearchProviderController
 import ch.deletescape.lawnchair.globalsearch.providers.web.WebSearchProvider
 import ch.deletescape.lawnchair.lawnchairPrefs
-import com.android.launcher3.AppFilter
 import com.android.launcher3.AppInfo
-import com.android.launcher3.LauncherAppState
 import com.android.launcher3.allapps.search.AllAppsSearchBarController
+import com.android.launcher3.allapps.search.AppSearchSession
 import com.android.launcher3.allapps.search.SearchAlgorithm
-import com.android.launcher3.compat.LauncherAppsCompat
-import com.android.launcher3.compat.UserManagerCompat
-import me.xdrop.fuzzywuzzy.FuzzySearch
-import me.xdrop.fuzzywuzzy.ToStringFunction
+import com.android.launcher3.allapps.search.SearchWorker
+import com.android.launcher3.util.ComponentKey
 
 class FuzzyAppSearchAlgorithm(private val context: Context, private val apps: List<AppInfo>) :
         SearchAlgorithm {
 
-    private var resultHandler: Handler = Handler()
-    private var baseFilter: AppFilter = LawnchairAppFilter(context)
+    private val searchWorker = SearchWorker()
+    // Copy of apps handed to the search thread, dropped on the UI thread when the apps change
+    private var appsSnapshot: List<AppInfo>? = null
+
+    // Only accessed on the search thread.
+    // Fuzzy scores don't narrow down monotonically, so only exact queries are reused
+    private val session = AppSearchSession(false)
+    private var sessionApps: List<AppInfo>? = null
+    private val matcher = FuzzyAppMatcher(MIN_SCORE, MAX_RESULTS)
 
     override fun doSearch(query: String, callback: AllAppsSearchBarController.Callbacks) {
-        val res = query(context, query, apps, baseFilter).map { it.toComponentKey() }
-        val suggestions = getSuggestions(query)
-        resultHandler.post {
-            callback.onSearchResult(query, ArrayList(res), suggestions)
+        val snapshot = appsSnapshot ?: ArrayList(apps).also { appsSnapshot = it }
+        val suggestionProvider = SearchProviderController
+                .getInstance(context).searchProvider as? WebSearchProvider
+        val suggestionSource = suggestionProvider?.let { provider ->
+            SearchWorker.SuggestionSource { q, signal -> provider.getSuggestions(q, signal) }
         }
+        searchWorker.doSearch(query, SearchWorker.AppSearch { getAppResults(it, snapshot) },
+                              suggestionSource, callback)
+    }
+
+    private fun getAppResults(query: String, defaultApps: List<AppInfo>): ArrayList<ComponentKey> {
+        val apps = getApps(context, defaultApps)
+        if (apps !== sessionApps) {
+            session.invalidate()
+            sessionApps = apps
+            matcher.setApps(apps)
+        }
+        val matches = session.getCachedResult(query)
+                ?: matcher.query(query).also { session.putResult(query, it) }
+        return matches.mapTo(ArrayList()) { it.toComponentKey() }
     }
 
     override fun cancel(interruptActiveRequests: Boolean) {
         if (interruptActiveRequests) {
-            resultHandler.removeCallbacksAndMessages(null)
+            searchWorker.cancel()
         }
     }
 
-    private fun getSuggestions(query: String): List<String> {
-        val provider = SearchProviderController
-                .getInstance(context).searchProvider
-        return (provider as? WebSearchProvider)?.getSuggestions(query) ?: emptyList()
+    override fun invalidate() {
+        appsSnapshot = null
     }
 
     companion object {
         const val MIN_SCORE = 65
+        const val MAX_RESULTS = 100
 
         @JvmStatic
-        fun getApps(context: Context, defaultApps: List<AppInfo>,
-                    filter: AppFilter): List<AppInfo> {
+        fun getApps(context: Context, defaultApps: List<AppInfo>): List<AppInfo> {
             if (!context.lawnchairPrefs.searchHiddenApps) {
                 return defaultApps
             }
-            val iconCache = LauncherAppState.getInstance(context).iconCache
-            val lac = LauncherAppsCompat.getInstance(context)
-            return UserManagerCompat.getInstance(context).userProfiles.flatMap { user ->
-                val duplicatePreventionCache = mutableListOf<ComponentName>()
-                lac.getActivityList(null, user).filter { info ->
-                    filter.shouldShowApp(info.componentName, user) &&
-                    !duplicatePreventionCache.contains(info.componentName)
-                }.map { info ->
-                    duplicatePreventionCache.add(info.componentName)
-                    AppInfo(context, info, user).apply {
-                        iconCache.getTitleAndIcon(this, false)
-                    }
-                }
-            }
+            return SearchableApps.getInstance(context).getApps()
         }
 
         @JvmStatic
-        fun query(context: Context, query: String, defaultApps: List<AppInfo>,
-                  filter: AppFilter): List<AppInfo> {
-            return FuzzySearch.extractAll(query, getApps(context, defaultApps, filter),
-                                          ToStringFunction<AppInfo> { item ->
-                                              item?.title.toString()
-                                          }, WinklerWeightedRatio(), MIN_SCORE)
-                    .sortedBy { it.referent.title.toString() }
-                    .sortedByDescending { it.score }
-                    .map { it.referent }
+        fun query(context: Context, query: String, defaultApps: List<AppInfo>): List<AppInfo> {
+            return FuzzyAppMatcher(MIN_SCORE, MAX_RESULTS)
+                    .apply { setApps(getApps(context, defaultApps)) }
+                    .query(query)
         }
     }
-}
\ No newline at end of file
+}
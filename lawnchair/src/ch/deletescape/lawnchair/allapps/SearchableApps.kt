@@ -0,0 +1,160 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.deletescape.lawnchair.allapps
+
+import android.content.Context
+import android.os.UserHandle
+import ch.deletescape.lawnchair.LawnchairAppFilter
+import ch.deletescape.lawnchair.util.LawnchairSingletonHolder
+import com.android.launcher3.AppInfo
+import com.android.launcher3.LauncherAppState
+import com.android.launcher3.LauncherModel
+import com.android.launcher3.compat.LauncherAppsCompat
+import com.android.launcher3.compat.UserManagerCompat
+import com.android.launcher3.shortcuts.ShortcutInfoCompat
+import com.android.launcher3.util.ComponentKey
+import com.android.launcher3.util.LooperExecutor
+
+/**
+ * All the apps which can be found through search when hidden apps are searchable, including
+ * the ones hidden from the drawer. The list is loaded once and kept in sync with package
+ * changes on the model thread, so that searching never goes through PackageManager or the icon
+ * cache. Everything else which changes titles or icons, like renaming apps, changing the icon
+ * pack, the locale or the profiles, reloads the model, which makes the list load again.
+ */
+class SearchableApps(private val context: Context) : LauncherAppsCompat.OnAppsChangedCallbackCompat {
+
+    private val launcherApps = LauncherAppsCompat.getInstance(context)
+    private val userManager = UserManagerCompat.getInstance(context)
+    private val filter = LawnchairAppFilter(context)
+    private val executor = LooperExecutor(LauncherModel.getWorkerLooper())
+
+    private val appsByKey = LinkedHashMap<ComponentKey, AppInfo>()
+    @Volatile
+    private var loaded = false
+    @Volatile
+    private var snapshot: List<AppInfo> = emptyList()
+
+    init {
+        launcherApps.addOnAppsChangedCallback(this)
+    }
+
+    /**
+     * Returns the searchable apps, loading them first if needed. A new list is returned every
+     * time the apps change, the returned list itself is never modified.
+     */
+    fun getApps(): List<AppInfo> {
+        if (!loaded) {
+            synchronized(this) {
+                if (!loaded) {
+                    userManager.userProfiles.forEach { addPackage(null, it) }
+                    snapshot = ArrayList(appsByKey.values)
+                    loaded = true
+                }
+            }
+        }
+        return snapshot
+    }
+
+    /**
+     * Drops the loaded apps, they are loaded again when they are searched next.
+     */
+    fun invalidate() {
+        synchronized(this) {
+            loaded = false
+            appsByKey.clear()
+            snapshot = emptyList()
+        }
+    }
+
+    private fun addPackage(packageName: String?, user: UserHandle) {
+        val iconCache = LauncherAppState.getInstance(context).iconCache
+        val quietModeEnabled = userManager.isQuietModeEnabled(user)
+        launcherApps.getActivityList(packageName, user).forEach { info ->
+            val key = ComponentKey(info.componentName, user)
+            if (filter.shouldShowApp(info.componentName, user) && !appsByKey.containsKey(key)) {
+                appsByKey[key] = AppInfo(info, user, quietModeEnabled).apply {
+                    iconCache.getTitleAndIcon(this, false)
+                }
+            }
+        }
+    }
+
+    private fun removePackage(packageName: String, user: UserHandle) {
+        appsByKey.keys.removeAll { it.componentName.packageName == packageName && it.user == user }
+    }
+
+    private fun updatePackages(packageNames: Array<out String>, user: UserHandle) {
+        executor.execute {
+            synchronized(this) {
+                // Apps which aren't loaded yet will be up to date once they are
+                if (!loaded) return@execute
+                packageNames.forEach {
+                    removePackage(it, user)
+                    addPackage(it, user)
+                }
+                snapshot = ArrayList(appsByKey.values)
+            }
+        }
+    }
+
+    override fun onPackageRemoved(packageName: String, user: UserHandle) {
+        updatePackages(arrayOf(packageName), user)
+    }
+
+    override fun onPackageAdded(packageName: String, user: UserHandle) {
+        updatePackages(arrayOf(packageName), user)
+    }
+
+    override fun onPackageChanged(packageName: String, user: UserHandle) {
+        updatePackages(arrayOf(packageName), user)
+    }
+
+    override fun onPackagesAvailable(packageNames: Array<out String>, user: UserHandle, replacing: Boolean) {
+        updatePackages(packageNames, user)
+    }
+
+    override fun onPackagesUnavailable(packageNames: Array<out String>, user: UserHandle, replacing: Boolean) {
+        updatePackages(packageNames, user)
+    }
+
+    override fun onPackagesSuspended(packageNames: Array<out String>, user: UserHandle) {
+        updatePackages(packageNames, user)
+    }
+
+    override fun onPackagesUnsuspended(packageNames: Array<out String>, user: UserHandle) {
+        updatePackages(packageNames, user)
+    }
+
+    override fun onShortcutsChanged(packageName: String?, shortcuts: MutableList<ShortcutInfoCompat>?, user: UserHandle?) {
+
+    }
+
+    companion object : LawnchairSingletonHolder<SearchableApps>(::SearchableApps) {
+
+        /**
+         * Invalidates the instance if there is one, without creating it.
+         */
+        @JvmStatic
+        fun invalidateInstance() {
+            dangerousGetInstance()?.invalidate()
+        }
+    }
+}
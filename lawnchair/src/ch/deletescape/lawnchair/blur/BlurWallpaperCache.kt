@@ -0,0 +1,80 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.deletescape.lawnchair.blur
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import ch.deletescape.lawnchair.util.extensions.e
+import com.android.launcher3.Utilities
+import java.io.File
+import java.io.FileOutputStream
+
+/**
+ * Keeps the last blurred wallpaper on disk, so that the blur doesn't have to be recomputed when
+ * the launcher process restarts. Only one wallpaper is kept, together with the key describing
+ * what it was created from. Any change of the key invalidates it.
+ */
+class BlurWallpaperCache(context: Context) {
+
+    private val devicePrefs = Utilities.getDevicePrefs(context)
+    private val file = File(context.cacheDir, FILE_NAME)
+    private val tempFile = File(context.cacheDir, "$FILE_NAME.tmp")
+
+    /**
+     * Returns the cached wallpaper for [key]. It is always decoded into a new bitmap, the current
+     * one may still be drawn or saved.
+     */
+    fun load(key: String): Bitmap? {
+        if (devicePrefs.getString(PREF_KEY, null) != key || !file.exists()) return null
+        val options = BitmapFactory.Options().apply {
+            inMutable = true
+            inPreferredConfig = Bitmap.Config.ARGB_8888
+        }
+        return BitmapFactory.decodeFile(file.path, options)
+    }
+
+    /**
+     * Replaces the cached wallpaper. Must be called on a background thread.
+     */
+    fun save(key: String, wallpaper: Bitmap) {
+        invalidate()
+        try {
+            FileOutputStream(tempFile).use { wallpaper.compress(Bitmap.CompressFormat.PNG, 100, it) }
+            if (tempFile.renameTo(file)) {
+                devicePrefs.edit().putString(PREF_KEY, key).apply()
+            }
+        } catch (ex: Exception) {
+            e("Failed to save blurred wallpaper", ex)
+            tempFile.delete()
+        }
+    }
+
+    fun invalidate() {
+        devicePrefs.edit().remove(PREF_KEY).apply()
+        file.delete()
+    }
+
+    companion object {
+
+        private const val FILE_NAME = "blurred_wallpaper.png"
+        private const val PREF_KEY = "pref_blurredWallpaperKey"
+    }
+}
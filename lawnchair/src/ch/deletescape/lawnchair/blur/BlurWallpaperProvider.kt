@@ -39,7 +39,9 @@ class BlurWallpaperProvider(val context: Context) {
     var wallpaper: Bitmap? = null
         private set(value) {
             if (field != value) {
-                field?.recycle()
+                synchronized(blurCache) {
+                    field?.recycle()
+                }
                 field = value
             }
         }
@@ -72,10 +74,10 @@ class BlurWallpaperProvider(val context: Context) {
 
     private val mUpdateRunnable = Runnable { updateWallpaper() }
 
-    private val wallpaperFilter = BlurWallpaperFilter(context)
-    private var applyTask: WallpaperFilter.ApplyTask? = null
-
-    private var updatePending = false
+    private var wallpaperFilter = createFilter()
+    private val filterRunner = WallpaperFilterRunner(::updateWallpaper)
+    private val blurCache = BlurWallpaperCache(context)
+    private var wallpaperKey: String? = null
 
     init {
         isEnabled = getEnabledStatus()
@@ -84,13 +86,14 @@ class BlurWallpaperProvider(val context: Context) {
         updateAsync()
     }
 
+    private fun createFilter(): WallpaperFilter {
+        return if (prefs.blurOnCpu) CpuBlurWallpaperFilter() else BlurWallpaperFilter(context)
+    }
+
     private fun getEnabledStatus() = mWallpaperManager.wallpaperInfo == null && prefs.enableBlur
 
     private fun updateWallpaper() {
-        if (applyTask != null) {
-            updatePending = true
-            return
-        }
+        if (!filterRunner.requestUpdate()) return
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1 && !context.hasStoragePermission){
             prefs.enableBlur = false
             return
@@ -105,12 +108,22 @@ class BlurWallpaperProvider(val context: Context) {
 
         if (!isEnabled) {
             wallpaper = null
+            wallpaperKey = null
             placeholder = null
             return
         }
 
+        if (prefs.blurOnCpu != wallpaperFilter is CpuBlurWallpaperFilter) {
+            wallpaperFilter = createFilter()
+        }
         wallpaperFilter.applyPrefs(prefs)
 
+        updateDisplayMetrics()
+        val key = getCacheKey()
+        if (key != null && loadCachedWallpaper(key)) {
+            return
+        }
+
         var wallpaper = try {
             Utilities.drawableToBitmap(mWallpaperManager.drawable, true) as Bitmap
         } catch (e: Exception) {
@@ -133,13 +146,19 @@ class BlurWallpaperProvider(val context: Context) {
         mWallpaperWidth = wallpaper.width
 
         placeholder = createPlaceholder(wallpaper.width, wallpaper.height)
-        wallpaper = applyVibrancy(wallpaper)
+        if (prefs.enableVibrancy && !wallpaperFilter.appliesVibrancy) {
+            wallpaper = applyVibrancy(wallpaper)
+        }
         Log.d("BWP", "starting blur")
 
-        applyTask = wallpaperFilter.apply(wallpaper).setCallback { result, error ->
+        filterRunner.apply(wallpaperFilter, wallpaper) { result, error ->
             if (error == null) {
                 this@BlurWallpaperProvider.wallpaper = result
+                wallpaperKey = key
                 Log.d("BWP", "blur done")
+                if (key != null && result != null) {
+                    saveToCache(key, result)
+                }
                 runOnMainThread(::notifyWallpaperChanged)
                 wallpaper.recycle()
             } else {
@@ -152,10 +171,52 @@ class BlurWallpaperProvider(val context: Context) {
                 }
                 wallpaper.recycle()
             }
-            applyTask = null
-            if (updatePending) {
-                updatePending = false
-                updateWallpaper()
+        }
+    }
+
+    /**
+     * Returns the key identifying the blurred wallpaper for the current wallpaper, display size
+     * and blur settings, or null if the wallpaper can't be identified.
+     */
+    private fun getCacheKey(): String? {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return null
+        val wallpaperId = mWallpaperManager.getWallpaperId(WallpaperManager.FLAG_SYSTEM)
+        if (wallpaperId < 0) return null
+        return "$wallpaperId:${mDisplayMetrics.widthPixels}x${mDisplayMetrics.heightPixels}:" +
+                "${prefs.blurRadius}:${prefs.enableVibrancy}:${wallpaperFilter.javaClass.simpleName}"
+    }
+
+    private fun loadCachedWallpaper(key: String): Boolean {
+        if (key == wallpaperKey && wallpaper != null) return true
+        val cached = try {
+            // Don't read the file while it is being replaced
+            synchronized(blurCache) { blurCache.load(key) }
+        } catch (e: Throwable) {
+            Log.e("BWP", "failed to load cached blur", e)
+            null
+        } ?: return false
+
+        mWallpaperWidth = cached.width
+        wallpaperYOffset = if (cached.height > mDisplayHeight) {
+            (cached.height - mDisplayHeight) * 0.5f
+        } else {
+            0f
+        }
+        placeholder = createPlaceholder(cached.width, cached.height)
+        wallpaper = cached
+        wallpaperKey = key
+        Log.d("BWP", "loaded cached blur")
+        runOnMainThread(::notifyWallpaperChanged)
+        return true
+    }
+
+    private fun saveToCache(key: String, blurred: Bitmap) {
+        Utilities.THREAD_POOL_EXECUTOR.execute {
+            // Recycling the wallpaper waits until it has been written
+            synchronized(blurCache) {
+                if (!blurred.isRecycled) {
+                    blurCache.save(key, blurred)
+                }
             }
         }
     }
@@ -164,14 +225,15 @@ class BlurWallpaperProvider(val context: Context) {
         mListeners.forEach(Listener::onWallpaperChanged)
     }
 
-    private fun scaleToScreenSize(bitmap: Bitmap): Bitmap {
+    private fun updateDisplayMetrics() {
         val wm = context.getSystemService(Context.WINDOW_SERVICE) as WindowManager
-        val display = wm.defaultDisplay
-        display.getRealMetrics(mDisplayMetrics)
+        wm.defaultDisplay.getRealMetrics(mDisplayMetrics)
+        mDisplayHeight = mDisplayMetrics.heightPixels
+    }
 
+    private fun scaleToScreenSize(bitmap: Bitmap): Bitmap {
         val width = mDisplayMetrics.widthPixels
         val height = mDisplayMetrics.heightPixels
-        mDisplayHeight = height
 
         val widthFactor = width.toFloat() / bitmap.width
         val heightFactor = height.toFloat() / bitmap.height
@@ -218,7 +280,7 @@ class BlurWallpaperProvider(val context: Context) {
         canvas.setBitmap(bitmap)
 
         val colorMatrix = ColorMatrix()
-        colorMatrix.setSaturation(1.25f)
+        colorMatrix.setSaturation(VIBRANCY_SATURATION)
         val filter = ColorMatrixColorFilter(colorMatrix)
         mVibrancyPaint.colorFilter = filter
         canvas.drawBitmap(wallpaper, 0f, 0f, mVibrancyPaint)
@@ -289,6 +351,7 @@ class BlurWallpaperProvider(val context: Context) {
         const val BLUR_FOLDER = 2
         const val BLUR_ALLAPPS = 4
         const val DOWNSAMPLE_FACTOR = 8
+        const val VIBRANCY_SATURATION = 1.25f
 
         var isEnabled: Boolean = false
         private var sEnabledFlag: Int = 0
@@ -0,0 +1,90 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.deletescape.lawnchair.blur
+
+import android.graphics.Bitmap
+import android.os.Process
+import ch.deletescape.lawnchair.LawnchairPreferences
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Blurs the wallpaper on the CPU, for devices on which the OpenGL blur of [BlurWallpaperFilter]
+ * doesn't work. The wallpaper is downsampled first, and vibrancy is applied while blurring.
+ */
+class CpuBlurWallpaperFilter : WallpaperFilter {
+
+    private var blurRadius = 25
+    private var saturation = 1f
+
+    override val appliesVibrancy = true
+
+    override fun applyPrefs(prefs: LawnchairPreferences) {
+        blurRadius = prefs.blurRadius.toInt() / BlurWallpaperProvider.DOWNSAMPLE_FACTOR
+        blurRadius = Math.max(1, Math.min(blurRadius, 25))
+        saturation = if (prefs.enableVibrancy) BlurWallpaperProvider.VIBRANCY_SATURATION else 1f
+    }
+
+    override fun apply(wallpaper: Bitmap): WallpaperFilter.ApplyTask {
+        return WallpaperFilter.ApplyTask.create { emitter ->
+            try {
+                emitter.onSuccess(blur(wallpaper))
+            } catch (t: Throwable) {
+                emitter.onError(t)
+            }
+        }
+    }
+
+    private fun blur(wallpaper: Bitmap): Bitmap {
+        val width = Math.max(1, wallpaper.width / BlurWallpaperProvider.DOWNSAMPLE_FACTOR)
+        val height = Math.max(1, wallpaper.height / BlurWallpaperProvider.DOWNSAMPLE_FACTOR)
+        val scaled = Bitmap.createScaledBitmap(wallpaper, width, height, true)
+        val small = if (scaled != wallpaper && scaled.isMutable && scaled.config == Bitmap.Config.ARGB_8888) scaled else
+            scaled.copy(Bitmap.Config.ARGB_8888, true).also { if (scaled != wallpaper) scaled.recycle() }
+
+        val pixels = IntArray(width * height)
+        small.getPixels(pixels, 0, width, 0, 0, width, height)
+        stackBlur.blur(pixels, width, height, blurRadius, saturation)
+        small.setPixels(pixels, 0, width, 0, 0, width, height)
+
+        val result = Bitmap.createScaledBitmap(small, wallpaper.width, wallpaper.height, true)
+        if (result != small) {
+            small.recycle()
+        }
+        return result
+    }
+
+    companion object {
+
+        private val threadCount = Math.max(1, Runtime.getRuntime().availableProcessors())
+
+        private val stackBlur by lazy {
+            val count = AtomicInteger()
+            val factory = ThreadFactory { r ->
+                Thread({
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+                    r.run()
+                }, "wallpaper-blur-${count.incrementAndGet()}").apply { isDaemon = true }
+            }
+            StackBlur(Executors.newFixedThreadPool(threadCount, factory), threadCount)
+        }
+    }
+}
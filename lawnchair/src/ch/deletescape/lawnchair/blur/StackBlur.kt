@@ -0,0 +1,168 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.deletescape.lawnchair.blur
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+
+/**
+ * Separable stack blur over packed ARGB pixels, striped across [threadCount] threads.
+ *
+ * The horizontal pass splits the rows between the threads, the vertical pass the columns. An
+ * optional saturation is applied while writing the result of the vertical pass, so that no
+ * separate pass over the pixels is needed. This only works on plain int arrays and can be used
+ * without a device.
+ */
+class StackBlur(private val executor: Executor, private val threadCount: Int) {
+
+    /**
+     * Blurs [pixels] in place. A [saturation] of 1 leaves the colors untouched, values above 1
+     * work like [android.graphics.ColorMatrix.setSaturation].
+     */
+    fun blur(pixels: IntArray, width: Int, height: Int, radius: Int, saturation: Float = 1f) {
+        if (width <= 0 || height <= 0) return
+        val temp = IntArray(pixels.size)
+        val matrix = if (saturation != 1f) createSaturationMatrix(saturation) else null
+        runStriped(height) { start, end ->
+            val stack = IntArray(2 * radius + 1)
+            for (y in start until end) {
+                blurLine(pixels, y * width, 1, temp, y * width, 1, width, radius, stack, null)
+            }
+        }
+        runStriped(width) { start, end ->
+            val stack = IntArray(2 * radius + 1)
+            for (x in start until end) {
+                blurLine(temp, x, width, pixels, x, width, height, radius, stack, matrix)
+            }
+        }
+    }
+
+    private inline fun runStriped(count: Int, crossinline block: (Int, Int) -> Unit) {
+        val stripes = Math.max(1, Math.min(threadCount, count / MIN_STRIPE_SIZE))
+        if (stripes == 1) {
+            block(0, count)
+            return
+        }
+        val latch = CountDownLatch(stripes)
+        var error: Throwable? = null
+        for (i in 0 until stripes) {
+            val start = count * i / stripes
+            val end = count * (i + 1) / stripes
+            executor.execute {
+                try {
+                    block(start, end)
+                } catch (t: Throwable) {
+                    error = t
+                } finally {
+                    latch.countDown()
+                }
+            }
+        }
+        latch.await()
+        error?.let { throw it }
+    }
+
+    companion object {
+
+        private const val MIN_STRIPE_SIZE = 16
+
+        /**
+         * Stack blurs one row or column of [length] pixels, clamping at the edges.
+         */
+        private fun blurLine(src: IntArray, srcOffset: Int, srcStride: Int,
+                             dst: IntArray, dstOffset: Int, dstStride: Int,
+                             length: Int, radius: Int, stack: IntArray, matrix: FloatArray?) {
+            val div = 2 * radius + 1
+            val weightSum = (radius + 1) * (radius + 1)
+            val last = length - 1
+
+            var sumA = 0; var sumR = 0; var sumG = 0; var sumB = 0
+            var inA = 0; var inR = 0; var inG = 0; var inB = 0
+            var outA = 0; var outR = 0; var outG = 0; var outB = 0
+
+            for (i in -radius..radius) {
+                val p = src[srcOffset + Math.min(last, Math.max(i, 0)) * srcStride]
+                stack[i + radius] = p
+                val weight = radius + 1 - Math.abs(i)
+                val a = p ushr 24; val r = (p shr 16) and 0xff; val g = (p shr 8) and 0xff; val b = p and 0xff
+                sumA += a * weight; sumR += r * weight; sumG += g * weight; sumB += b * weight
+                if (i > 0) {
+                    inA += a; inR += r; inG += g; inB += b
+                } else {
+                    outA += a; outR += r; outG += g; outB += b
+                }
+            }
+
+            var stackPointer = radius
+            var dstIndex = dstOffset
+            for (x in 0 until length) {
+                val a = sumA / weightSum
+                val r = sumR / weightSum
+                val g = sumG / weightSum
+                val b = sumB / weightSum
+                dst[dstIndex] = if (matrix != null) saturate(a, r, g, b, matrix) else
+                    (a shl 24) or (r shl 16) or (g shl 8) or b
+                dstIndex += dstStride
+
+                sumA -= outA; sumR -= outR; sumG -= outG; sumB -= outB
+
+                // Replace the oldest entry with the next incoming pixel
+                val stackStart = (stackPointer + radius + 1) % div
+                var p = stack[stackStart]
+                outA -= p ushr 24; outR -= (p shr 16) and 0xff; outG -= (p shr 8) and 0xff; outB -= p and 0xff
+
+                p = src[srcOffset + Math.min(last, x + radius + 1) * srcStride]
+                stack[stackStart] = p
+                inA += p ushr 24; inR += (p shr 16) and 0xff; inG += (p shr 8) and 0xff; inB += p and 0xff
+                sumA += inA; sumR += inR; sumG += inG; sumB += inB
+
+                // Move the center of the stack forward
+                stackPointer = (stackPointer + 1) % div
+                p = stack[stackPointer]
+                val pA = p ushr 24; val pR = (p shr 16) and 0xff; val pG = (p shr 8) and 0xff; val pB = p and 0xff
+                outA += pA; outR += pR; outG += pG; outB += pB
+                inA -= pA; inR -= pR; inG -= pG; inB -= pB
+            }
+        }
+
+        private fun saturate(a: Int, r: Int, g: Int, b: Int, m: FloatArray): Int {
+            val nr = clamp(m[0] * r + m[1] * g + m[2] * b)
+            val ng = clamp(m[3] * r + m[4] * g + m[5] * b)
+            val nb = clamp(m[6] * r + m[7] * g + m[8] * b)
+            return (a shl 24) or (nr shl 16) or (ng shl 8) or nb
+        }
+
+        private fun clamp(value: Float) = Math.min(255, Math.max(0, (value + 0.5f).toInt()))
+
+        /**
+         * Returns the 3x3 part of the matrix created by [android.graphics.ColorMatrix.setSaturation].
+         */
+        private fun createSaturationMatrix(saturation: Float): FloatArray {
+            val inv = 1 - saturation
+            val r = 0.213f * inv
+            val g = 0.715f * inv
+            val b = 0.072f * inv
+            return floatArrayOf(
+                    r + saturation, g, b,
+                    r, g + saturation, b,
+                    r, g, b + saturation)
+        }
+    }
+}
@@ -22,6 +22,12 @@ import ch.deletescape.lawnchair.LawnchairPreferences
 
 interface WallpaperFilter {
 
+    /**
+     * Whether [apply] already increases the saturation, so that the wallpaper doesn't have to
+     * be made vibrant beforehand.
+     */
+    val appliesVibrancy: Boolean get() = false
+
     fun applyPrefs(prefs: LawnchairPreferences)
 
     fun apply(wallpaper: Bitmap): ApplyTask
@@ -0,0 +1,62 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.deletescape.lawnchair.blur
+
+import android.graphics.Bitmap
+
+/**
+ * Applies one [WallpaperFilter] at a time. Updates requested while a filter runs are merged into
+ * one, which calls [update] again once the filter is done. Filters may also complete
+ * synchronously, before [WallpaperFilter.ApplyTask.setCallback] returns.
+ */
+class WallpaperFilterRunner(private val update: () -> Unit) {
+
+    private var task: WallpaperFilter.ApplyTask? = null
+    private var updatePending = false
+
+    val isRunning get() = task != null
+
+    /**
+     * Returns whether the update can run now. Otherwise it runs once the current filter is done.
+     */
+    fun requestUpdate(): Boolean {
+        if (task != null) {
+            updatePending = true
+            return false
+        }
+        return true
+    }
+
+    fun apply(filter: WallpaperFilter, wallpaper: Bitmap, callback: (Bitmap?, Throwable?) -> Unit) {
+        val newTask = filter.apply(wallpaper)
+        // Set before the callback, which clears it, as it may run right away
+        task = newTask
+        newTask.setCallback { result, error ->
+            callback(result, error)
+            if (task === newTask) {
+                task = null
+            }
+            if (updatePending) {
+                updatePending = false
+                update()
+            }
+        }
+    }
+}
@@ -21,19 +21,16 @@ package ch.deletescape.lawnchair.globalsearch.providers.web
 
 import android.content.Context
 import android.content.Intent
+import android.os.CancellationSignal
 import ch.deletescape.lawnchair.globalsearch.SearchProvider
 import ch.deletescape.lawnchair.toArrayList
-import ch.deletescape.lawnchair.util.extensions.e
-import ch.deletescape.lawnchair.util.okhttp.OkHttpClientBuilder
 import com.android.launcher3.LauncherAppState
 import com.android.launcher3.LauncherState
 import com.android.launcher3.Utilities
-import okhttp3.Request
 import org.json.JSONArray
-import java.lang.Exception
 
 abstract class WebSearchProvider(context: Context) : SearchProvider(context) {
-    protected val client = OkHttpClientBuilder().build(context)
+    protected val client get() = WebSuggestionManager.getInstance(context).client
 
     override val supportsVoiceSearch = false
     override val supportsAssistant = false
@@ -54,18 +51,25 @@ abstract class WebSearchProvider(context: Context) : SearchProvider(context) {
         }
     }
 
-    open fun getSuggestions(query: String): List<String> {
-        if (suggestionsUrl == null) return emptyList()
-        try {
-            val response = client.newCall(Request.Builder().url(suggestionsUrl!!.format(query)).build()).execute()
-            return JSONArray(response.body?.string())
-                    .getJSONArray(1)
-                    .toArrayList<String>()
-                    .take(MAX_SUGGESTIONS)
-        } catch (ex: Exception) {
-            e(ex.message ?: "", ex)
-        }
-        return emptyList()
+    /**
+     * Fetches the suggestions for [query], blocking until they are available. The request is
+     * aborted once [cancellationSignal] is cancelled.
+     */
+    @JvmOverloads
+    open fun getSuggestions(query: String, cancellationSignal: CancellationSignal? = null): List<String> {
+        val url = suggestionsUrl ?: return emptyList()
+        return WebSuggestionManager.getInstance(context)
+                .getSuggestions(this, url, query, cancellationSignal)
+    }
+
+    /**
+     * Parses the response of the suggestions API. Called on a network thread.
+     */
+    open fun parseSuggestions(body: String): List<String> {
+        return JSONArray(body)
+                .getJSONArray(1)
+                .toArrayList<String>()
+                .take(MAX_SUGGESTIONS)
     }
 
     open fun openResults(query: String) {
@@ -0,0 +1,203 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.deletescape.lawnchair.globalsearch.providers.web
+
+import android.content.Context
+import android.os.CancellationSignal
+import android.os.SystemClock
+import android.util.LruCache
+import ch.deletescape.lawnchair.util.LawnchairSingletonHolder
+import ch.deletescape.lawnchair.util.extensions.d
+import ch.deletescape.lawnchair.util.extensions.e
+import ch.deletescape.lawnchair.util.okhttp.OkHttpClientBuilder
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import java.io.IOException
+import java.io.PrintWriter
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Loads search suggestions for all [WebSearchProvider]s through one shared [OkHttpClient].
+ *
+ * Suggestions are cached per provider, suggestions URL and normalized query, so retyping or
+ * deleting characters doesn't hit the network again, while the server still gets the query as
+ * typed. Identical requests which are in flight at the same time share one call, and cancellable
+ * requests are delayed by a short debounce window, so that a query which is superseded while
+ * typing is never sent.
+ */
+class WebSuggestionManager(context: Context) {
+
+    val client: OkHttpClient = OkHttpClientBuilder().build(context)
+
+    private val cache = LruCache<String, List<String>>(MAX_CACHED_QUERIES)
+    // All the fields below, and the waiters of every pending request, are guarded by this map
+    private val pendingRequests = HashMap<String, PendingRequest>()
+    private val latencies = TreeMap<String, LatencyStats>()
+
+    /**
+     * Returns the suggestions of [provider] for [query], blocking until they are available.
+     * Returns an empty list if the request fails or [cancellationSignal] is cancelled.
+     */
+    fun getSuggestions(provider: WebSearchProvider, suggestionsUrl: String, query: String,
+                       cancellationSignal: CancellationSignal?): List<String> {
+        val normalizedQuery = normalize(query)
+        if (normalizedQuery.isEmpty()) return emptyList()
+        // The URL also changes with the locale or endpoint of the provider
+        val key = "${provider::class.java.name}/$suggestionsUrl/$normalizedQuery"
+        cache.get(key)?.let { return it }
+
+        if (cancellationSignal != null && !debounce(cancellationSignal)) return emptyList()
+
+        val waiter = CountDownLatch(1)
+        val request = synchronized(pendingRequests) {
+            // The request might have completed while debouncing
+            cache.get(key)?.let { return it }
+            pendingRequests.getOrPut(key) {
+                PendingRequest(key, provider, suggestionsUrl.format(query))
+            }.also { it.waiters.add(waiter) }
+        }
+        cancellationSignal?.setOnCancelListener { request.removeWaiter(waiter) }
+        waiter.await()
+        return if (cancellationSignal?.isCanceled == true) emptyList() else request.result
+    }
+
+    /**
+     * Drops all cached suggestions, requests which are in flight still complete.
+     */
+    fun clearCache() {
+        cache.evictAll()
+    }
+
+    /**
+     * Waits for the debounce window, returns false if [cancellationSignal] was cancelled meanwhile.
+     */
+    private fun debounce(cancellationSignal: CancellationSignal): Boolean {
+        val latch = CountDownLatch(1)
+        cancellationSignal.setOnCancelListener { latch.countDown() }
+        latch.await(DEBOUNCE_MS, TimeUnit.MILLISECONDS)
+        cancellationSignal.setOnCancelListener(null)
+        return !cancellationSignal.isCanceled
+    }
+
+    private fun recordLatency(provider: WebSearchProvider, latency: Long) {
+        val name = provider::class.java.simpleName
+        synchronized(pendingRequests) {
+            latencies.getOrPut(name) { LatencyStats() }.add(latency)
+        }
+        d("$name: suggestions loaded in ${latency}ms")
+    }
+
+    fun dump(prefix: String, writer: PrintWriter) {
+        writer.println("${prefix}WebSuggestionManager: cached=${cache.size()} hits=${cache.hitCount()} misses=${cache.missCount()}")
+        synchronized(pendingRequests) {
+            latencies.forEach { (name, stats) -> writer.println("$prefix  $name: $stats") }
+        }
+    }
+
+    private inner class PendingRequest(private val key: String,
+                                       private val provider: WebSearchProvider,
+                                       url: String) : Callback {
+
+        private val startTime = SystemClock.elapsedRealtime()
+        private val call = client.newCall(Request.Builder().url(url).build())
+        val waiters = ArrayList<CountDownLatch>()
+        var result: List<String> = emptyList()
+            private set
+
+        init {
+            call.enqueue(this)
+        }
+
+        fun removeWaiter(waiter: CountDownLatch) {
+            synchronized(pendingRequests) {
+                waiters.remove(waiter)
+                if (waiters.isEmpty() && pendingRequests[key] === this) {
+                    pendingRequests.remove(key)
+                    call.cancel()
+                }
+            }
+            waiter.countDown()
+        }
+
+        override fun onResponse(call: Call, response: Response) {
+            val suggestions = try {
+                response.use { it.body?.string() }?.let(provider::parseSuggestions)
+            } catch (ex: Exception) {
+                e(ex.message ?: "", ex)
+                null
+            }
+            if (suggestions != null) {
+                cache.put(key, suggestions)
+                recordLatency(provider, SystemClock.elapsedRealtime() - startTime)
+            }
+            finish(suggestions ?: emptyList())
+        }
+
+        override fun onFailure(call: Call, ex: IOException) {
+            if (!call.isCanceled()) {
+                e(ex.message ?: "", ex)
+            }
+            finish(emptyList())
+        }
+
+        private fun finish(suggestions: List<String>) {
+            val toRelease = synchronized(pendingRequests) {
+                if (pendingRequests[key] === this) {
+                    pendingRequests.remove(key)
+                }
+                result = suggestions
+                ArrayList(waiters).also { waiters.clear() }
+            }
+            toRelease.forEach { it.countDown() }
+        }
+    }
+
+    private class LatencyStats {
+
+        private var count = 0
+        private var total = 0L
+        private var max = 0L
+        private var last = 0L
+
+        fun add(latency: Long) {
+            count++
+            total += latency
+            max = Math.max(max, latency)
+            last = latency
+        }
+
+        override fun toString() = "count=$count avg=${total / Math.max(count, 1)}ms max=${max}ms last=${last}ms"
+    }
+
+    companion object : LawnchairSingletonHolder<WebSuggestionManager>(::WebSuggestionManager) {
+
+        private const val MAX_CACHED_QUERIES = 100
+        private const val DEBOUNCE_MS = 150L
+
+        private val WHITESPACE = Regex("\\s+")
+
+        private fun normalize(query: String) = query.trim().replace(WHITESPACE, " ").toLowerCase()
+    }
+}
@@ -22,7 +22,7 @@ import com.android.launcher3.Launcher
 import com.android.launcher3.R
 import com.android.launcher3.folder.FolderIcon
 
-class DrawerFolderItem(private val info: DrawerFolderInfo, private val index: Int) {
+class DrawerFolderItem(private val info: DrawerFolderInfo, val index: Int) {
 
     private var icon: FolderIcon? = null
 
@@ -82,6 +82,14 @@ abstract class IconPack(val context: Context, val packPackageName: String) {
 
     abstract fun getIcon(shortcutInfo: ShortcutInfoCompat, iconDpi: Int): Drawable?
 
+    /**
+     * Returns a key for the icon [getIcon] returns for [launcherActivityInfo], so that its
+     * rendered bitmap can be reused. [NOT_CACHEABLE] means that the icon can't be reused, null
+     * that this pack doesn't return an icon.
+     */
+    open fun getRenderKey(launcherActivityInfo: LauncherActivityInfo, iconDpi: Int,
+                          customIconEntry: IconPackManager.CustomIconEntry?): String? = NOT_CACHEABLE
+
     abstract fun newIcon(icon: Bitmap, itemInfo: ItemInfo,
                          customIconEntry: IconPackManager.CustomIconEntry?,
                          drawableFactory: LawnchairDrawableFactory): FastBitmapDrawable?
@@ -125,6 +133,11 @@ abstract class IconPack(val context: Context, val packPackageName: String) {
 
     class CategoryTitle(val title: String) : PackEntry()
 
+    companion object {
+
+        const val NOT_CACHEABLE = ""
+    }
+
     abstract class Entry : PackEntry() {
 
         abstract val displayName: String
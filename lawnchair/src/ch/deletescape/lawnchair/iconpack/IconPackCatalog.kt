@@ -0,0 +1,291 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.deletescape.lawnchair.iconpack
+
+import android.content.Context
+import android.content.pm.PackageManager
+import android.util.AtomicFile
+import ch.deletescape.lawnchair.util.extensions.e
+import com.android.launcher3.Utilities
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileNotFoundException
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Compact binary index of what [IconPackImpl] parses from the appfilter and drawable XML of a
+ * pack, so that the XML only has to be parsed again when the pack is updated.
+ *
+ * The file is memory mapped. Components are kept in a table sorted by the hash of their
+ * flattened name, which is only probed when a component is looked up. Everything else is small
+ * and read when the catalog is opened.
+ */
+class IconPackCatalog private constructor(private val buffer: ByteBuffer) {
+
+    val iconScale: Float
+    val onlyMaskLegacy: Boolean
+    val iconBacks = ArrayList<String>()
+    val iconMasks = ArrayList<String>()
+    val iconUpons = ArrayList<String>()
+    val calendars = LinkedHashMap<String, String>()
+    val clocks = HashMap<Int, IntArray>()
+    val dynamicDrawables = HashMap<Int, String>()
+
+    private val componentCount: Int
+    private val componentTable: Int
+    private val stringPool: Int
+
+    init {
+        val buf = buffer.duplicate()
+        buf.position(HEADER_SIZE)
+        iconScale = buf.float
+        onlyMaskLegacy = buf.get() != 0.toByte()
+        readStrings(buf, iconBacks)
+        readStrings(buf, iconMasks)
+        readStrings(buf, iconUpons)
+        repeat(buf.int) {
+            val component = readString(buf)
+            calendars[component] = readString(buf)
+        }
+        repeat(buf.int) {
+            val drawableId = buf.int
+            clocks[drawableId] = IntArray(CLOCK_VALUES) { buf.int }
+        }
+        repeat(buf.int) {
+            val drawableId = buf.int
+            dynamicDrawables[drawableId] = readString(buf)
+        }
+        componentCount = buf.int
+        componentTable = buf.position()
+        stringPool = componentTable + componentCount * ENTRY_SIZE
+    }
+
+    /**
+     * Drawable names of all components, in no particular order.
+     */
+    val componentDrawables get() = (0 until componentCount).map { stringAt(buffer.getInt(entryAt(it) + 8)) }
+
+    /**
+     * Returns the drawable name for the flattened [component], or null if the pack has none.
+     */
+    fun getComponentDrawable(component: String): String? {
+        val hash = component.hashCode()
+        // Find the first entry with the hash, collisions are next to it
+        var low = 0
+        var high = componentCount - 1
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (buffer.getInt(entryAt(mid)) < hash) low = mid + 1 else high = mid
+        }
+        var i = low
+        while (i < componentCount && buffer.getInt(entryAt(i)) == hash) {
+            if (stringAt(buffer.getInt(entryAt(i) + 4)) == component) {
+                return stringAt(buffer.getInt(entryAt(i) + 8))
+            }
+            i++
+        }
+        return null
+    }
+
+    private fun entryAt(index: Int) = componentTable + index * ENTRY_SIZE
+
+    private fun stringAt(offset: Int): String {
+        val buf = buffer.duplicate()
+        buf.position(stringPool + offset)
+        return readString(buf)
+    }
+
+    class Builder {
+
+        var iconScale = 1f
+        var onlyMaskLegacy = false
+        val iconBacks = ArrayList<String>()
+        val iconMasks = ArrayList<String>()
+        val iconUpons = ArrayList<String>()
+        val calendars = LinkedHashMap<String, String>()
+        val clocks = LinkedHashMap<Int, IntArray>()
+        val dynamicDrawables = LinkedHashMap<Int, String>()
+        // Flattened component to drawable name
+        val components = HashMap<String, String>()
+
+        fun toByteArray(versionCode: Long, lastUpdateTime: Long): ByteArray {
+            val bytes = ByteArrayOutputStream()
+            val out = DataOutputStream(bytes)
+            out.writeInt(FORMAT_VERSION)
+            // Total size, filled in below
+            out.writeInt(0)
+            out.writeLong(versionCode)
+            out.writeLong(lastUpdateTime)
+
+            out.writeFloat(iconScale)
+            out.writeBoolean(onlyMaskLegacy)
+            writeStrings(out, iconBacks)
+            writeStrings(out, iconMasks)
+            writeStrings(out, iconUpons)
+            out.writeInt(calendars.size)
+            calendars.forEach { (component, prefix) ->
+                writeString(out, component)
+                writeString(out, prefix)
+            }
+            out.writeInt(clocks.size)
+            clocks.forEach { (drawableId, values) ->
+                out.writeInt(drawableId)
+                values.forEach { out.writeInt(it) }
+            }
+            out.writeInt(dynamicDrawables.size)
+            dynamicDrawables.forEach { (drawableId, xml) ->
+                out.writeInt(drawableId)
+                writeString(out, xml)
+            }
+
+            // Many components share a drawable, so every string is only added to the pool once
+            val poolBytes = ByteArrayOutputStream()
+            val pool = DataOutputStream(poolBytes)
+            val poolOffsets = HashMap<String, Int>()
+            val addToPool = { value: String ->
+                poolOffsets.getOrPut(value) {
+                    pool.flush()
+                    val offset = poolBytes.size()
+                    writeString(pool, value)
+                    offset
+                }
+            }
+            val sorted = components.entries.sortedBy { it.key.hashCode() }
+            out.writeInt(sorted.size)
+            sorted.forEach {
+                out.writeInt(it.key.hashCode())
+                out.writeInt(addToPool(it.key))
+                out.writeInt(addToPool(it.value))
+            }
+            pool.flush()
+            poolBytes.writeTo(out)
+            out.flush()
+
+            val result = bytes.toByteArray()
+            ByteBuffer.wrap(result).putInt(4, result.size)
+            return result
+        }
+
+        private fun writeStrings(out: DataOutputStream, values: List<String>) {
+            out.writeInt(values.size)
+            values.forEach { writeString(out, it) }
+        }
+
+        private fun writeString(out: DataOutputStream, value: String) {
+            val bytes = value.toByteArray(Charsets.UTF_8)
+            out.writeShort(bytes.size)
+            out.write(bytes)
+        }
+    }
+
+    companion object {
+
+        private const val FORMAT_VERSION = 1
+        private const val HEADER_SIZE = 24
+        // Hash, component offset and drawable offset
+        private const val ENTRY_SIZE = 12
+        private const val CLOCK_VALUES = 6
+        private const val DIR_NAME = "icon_packs"
+
+        /**
+         * Opens the catalog saved for [packageName], or returns null if there is none for the
+         * installed version of the pack.
+         */
+        fun load(context: Context, packageName: String): IconPackCatalog? {
+            val version = getPackageVersion(context, packageName) ?: return null
+            val file = getFile(context, packageName)
+            return try {
+                // Restores the previous file if the last write didn't complete
+                file.openRead().close()
+                val buffer = RandomAccessFile(file.baseFile, "r").use {
+                    it.channel.map(FileChannel.MapMode.READ_ONLY, 0, it.length())
+                }
+                if (buffer.capacity() < HEADER_SIZE
+                        || buffer.getInt(0) != FORMAT_VERSION
+                        || buffer.getInt(4) != buffer.capacity()
+                        || buffer.getLong(8) != version.first
+                        || buffer.getLong(16) != version.second) {
+                    null
+                } else {
+                    IconPackCatalog(buffer)
+                }
+            } catch (ex: FileNotFoundException) {
+                null
+            } catch (ex: Exception) {
+                e("Failed to load catalog of $packageName", ex)
+                null
+            }
+        }
+
+        /**
+         * Saves the catalog built by [builder] for the installed version of [packageName].
+         */
+        fun create(context: Context, packageName: String, builder: Builder): IconPackCatalog {
+            val version = getPackageVersion(context, packageName)
+            val bytes = builder.toByteArray(version?.first ?: -1, version?.second ?: -1)
+            if (version != null) {
+                val file = getFile(context, packageName)
+                var out: FileOutputStream? = null
+                try {
+                    out = file.startWrite()
+                    out.write(bytes)
+                    file.finishWrite(out)
+                } catch (ex: IOException) {
+                    e("Failed to save catalog of $packageName", ex)
+                    if (out != null) file.failWrite(out)
+                }
+            }
+            return IconPackCatalog(ByteBuffer.wrap(bytes))
+        }
+
+        private fun getFile(context: Context, packageName: String): AtomicFile {
+            val dir = File(context.cacheDir, DIR_NAME).apply { mkdirs() }
+            return AtomicFile(File(dir, "$packageName.bin"))
+        }
+
+        @Suppress("DEPRECATION")
+        private fun getPackageVersion(context: Context, packageName: String): Pair<Long, Long>? {
+            return try {
+                val info = context.packageManager.getPackageInfo(packageName, 0)
+                val versionCode = if (Utilities.ATLEAST_P) info.longVersionCode else info.versionCode.toLong()
+                Pair(versionCode, info.lastUpdateTime)
+            } catch (ex: PackageManager.NameNotFoundException) {
+                null
+            }
+        }
+
+        private fun readStrings(buf: ByteBuffer, values: MutableList<String>) {
+            repeat(buf.int) {
+                values.add(readString(buf))
+            }
+        }
+
+        private fun readString(buf: ByteBuffer): String {
+            val bytes = ByteArray(buf.short.toInt() and 0xffff)
+            buf.get(bytes)
+            return String(bytes, Charsets.UTF_8)
+        }
+    }
+}
@@ -31,6 +31,7 @@ import android.text.TextUtils
 import android.util.Xml
 import android.widget.Toast
 import ch.deletescape.lawnchair.adaptive.AdaptiveIconGenerator
+import ch.deletescape.lawnchair.adaptive.IconShapeManager
 import ch.deletescape.lawnchair.get
 import ch.deletescape.lawnchair.toTitleCase
 import ch.deletescape.lawnchair.util.extensions.d
@@ -52,7 +53,9 @@ import kotlin.collections.ArrayList
 
 class IconPackImpl(context: Context, packPackageName: String) : IconPack(context, packPackageName) {
 
-    private val packComponents: MutableMap<ComponentName, Entry> = HashMap()
+    // Entries looked up in the catalog so far, including misses
+    private val packComponents = HashMap<ComponentName, Entry?>()
+    @Volatile private var catalog: IconPackCatalog? = null
     private val packCalendars: MutableMap<ComponentName, String> = HashMap()
     private val packClocks: MutableMap<Int, CustomClock.Metadata> = HashMap()
     private val packDynamicDrawables: MutableMap<Int, DynamicDrawable.Metadata> = HashMap()
@@ -60,7 +63,8 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
     private val defaultPack = DefaultPack(context)
     private val packResources = context.packageManager.getResourcesForApplication(packPackageName)
     private val prefs by lazy { Utilities.getLawnchairPrefs(context) }
-    override val entries get() = packComponents.values.toList()
+    private val packVersion by lazy { context.packageManager.getPackageInfo(packPackageName, 0).lastUpdateTime }
+    override val entries get() = catalog?.componentDrawables?.map { Entry(it) } ?: emptyList()
 
     init {
         if (prefs.showDebugInfo) {
@@ -86,8 +90,39 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
     }
 
     override fun loadPack() {
+        val startTime = System.currentTimeMillis()
+        var catalog = IconPackCatalog.load(context, packPackageName)
+        if (catalog != null) {
+            d("loaded catalog of pack $packPackageName in ${System.currentTimeMillis() - startTime}ms")
+        } else {
+            catalog = parsePack() ?: return
+            d("completed parsing pack $packPackageName in ${System.currentTimeMillis() - startTime}ms")
+        }
+
+        catalog.calendars.forEach { (component, prefix) ->
+            ComponentName.unflattenFromString(component)?.let { packCalendars[it] = prefix }
+        }
+        catalog.clocks.forEach { (drawableId, values) ->
+            packClocks[drawableId] = CustomClock.Metadata(values[0], values[1], values[2],
+                    values[3], values[4], values[5])
+        }
+        catalog.dynamicDrawables.forEach { (drawableId, xml) ->
+            packDynamicDrawables[drawableId] = DynamicDrawable.Metadata(xml, packPackageName)
+        }
+        packMask.iconScale = catalog.iconScale
+        packMask.onlyMaskLegacy = catalog.onlyMaskLegacy
+        catalog.iconBacks.mapTo(packMask.iconBackEntries) { Entry(it) }
+        catalog.iconMasks.mapTo(packMask.iconMaskEntries) { Entry(it) }
+        catalog.iconUpons.mapTo(packMask.iconUponEntries) { Entry(it) }
+        this.catalog = catalog
+    }
+
+    /**
+     * Parses the appfilter and drawable XML of the pack and saves the result as its catalog.
+     */
+    private fun parsePack(): IconPackCatalog? {
         try {
-            val startTime = System.currentTimeMillis()
+            val builder = IconPackCatalog.Builder()
             val res = packResources
             val compStart = "ComponentInfo{"
             val compStartlength = compStart.length
@@ -110,9 +145,9 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
                                 val parsed = ComponentName.unflattenFromString(componentName)
                                 if (parsed != null) {
                                     if (isCalendar) {
-                                        packCalendars[parsed] = drawableName
+                                        builder.calendars[parsed.flattenToString()] = drawableName
                                     } else {
-                                        packComponents[parsed] = Entry(drawableName)
+                                        builder.components[parsed.flattenToString()] = drawableName
                                     }
                                 }
                             }
@@ -122,7 +157,7 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
                             if (drawableName != null) {
                                 val drawableId = getDrawableId(drawableName)
                                 if (parseXml is XmlResourceParser && drawableId != 0) {
-                                    packClocks[drawableId] = CustomClock.Metadata(
+                                    builder.clocks[drawableId] = intArrayOf(
                                             parseXml.getAttributeIntValue(null, "hourLayerIndex", -1),
                                             parseXml.getAttributeIntValue(null, "minuteLayerIndex", -1),
                                             parseXml.getAttributeIntValue(null, "secondLayerIndex", -1),
@@ -135,25 +170,25 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
                         name == "scale" -> {
                             val scale = parseXml["factor"]!!.toFloat()
                             if (scale > 0x7f070000) {
-                                packMask.iconScale = packResources.getDimension(scale.toInt())
+                                builder.iconScale = packResources.getDimension(scale.toInt())
                             } else {
-                                packMask.iconScale = scale
+                                builder.iconScale = scale
                             }
                         }
                         name == "iconback" -> {
                             // TODO: handle packs with multiple masks
-                            addImgsTo(parseXml, packMask.iconBackEntries)
+                            addImgsTo(parseXml, builder.iconBacks)
                         }
                         name == "iconmask" -> {
-                            addImgsTo(parseXml, packMask.iconMaskEntries)
+                            addImgsTo(parseXml, builder.iconMasks)
                         }
                         name == "iconupon" -> {
-                            addImgsTo(parseXml, packMask.iconUponEntries)
+                            addImgsTo(parseXml, builder.iconUpons)
                         }
                         name == "config" -> {
                             val onlyMaskLegacy = parseXml["onlyMaskLegacy"]
                             if (!TextUtils.isEmpty(onlyMaskLegacy)) {
-                                packMask.onlyMaskLegacy = onlyMaskLegacy!!.toBoolean()
+                                builder.onlyMaskLegacy = onlyMaskLegacy!!.toBoolean()
                             }
                         }
                     }
@@ -171,18 +206,14 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
                                 val drawableId = res.getIdentifier(dynamicDrawable, "drawable",
                                         packPackageName)
                                 if (drawableId != 0) {
-                                    packDynamicDrawables[drawableId] = DynamicDrawable.Metadata(
-                                            parseDrawableXml["xml"]!!,
-                                            packPackageName)
+                                    builder.dynamicDrawables[drawableId] = parseDrawableXml["xml"]!!
                                 }
                             }
                         }
                     }
                 }
             }
-            val endTime = System.currentTimeMillis()
-            d("completed parsing pack $packPackageName in ${endTime - startTime}ms")
-            return
+            return IconPackCatalog.create(context, packPackageName, builder)
         } catch (e: PackageManager.NameNotFoundException) {
             e.printStackTrace()
         } catch (e: XmlPullParserException) {
@@ -193,25 +224,36 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
             e.printStackTrace()
         }
         Toast.makeText(context, "Failed to parse AppFilter", Toast.LENGTH_SHORT).show()
+        return null
     }
 
-    private fun addImgsTo(parseXml: XmlPullParser, collection: MutableCollection<Entry>) {
+    private fun addImgsTo(parseXml: XmlPullParser, collection: MutableCollection<String>) {
         for (i in (0 until parseXml.attributeCount)) {
             if (parseXml.getAttributeName(i).startsWith("img")) {
                 val drawableName = parseXml.getAttributeValue(i)
                 if (!TextUtils.isEmpty(drawableName)) {
-                    collection.add(Entry(drawableName))
+                    collection.add(drawableName)
                 }
             }
         }
     }
 
     override fun getEntryForComponent(key: ComponentKey): Entry? {
-        val entry = packComponents[key.componentName]
+        val entry = getComponentEntry(key.componentName)
         if (entry?.isAvailable != true) return null
         return entry
     }
 
+    private fun getComponentEntry(component: ComponentName): Entry? {
+        val catalog = catalog ?: return null
+        synchronized(packComponents) {
+            if (packComponents.containsKey(component)) return packComponents[component]
+            val entry = catalog.getComponentDrawable(component.flattenToString())?.let { Entry(it) }
+            packComponents[component] = entry
+            return entry
+        }
+    }
+
     override fun getMaskEntryForComponent(key: ComponentKey): IconPack.Entry? {
         if (!supportsMasking()) return null
         return MaskEntry(key)
@@ -246,12 +288,7 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
         ensureInitialLoadComplete()
 
         val component = launcherActivityInfo.componentName
-        val drawableId = when {
-            customIconEntry?.icon != null -> getDrawableId(customIconEntry.icon)
-            packCalendars.containsKey(component) -> getDrawableId(packCalendars[component] + Calendar.getInstance().get(Calendar.DAY_OF_MONTH))
-            packComponents.containsKey(component) -> packComponents[component]!!.drawableId
-            else -> 0
-        }
+        val drawableId = resolveDrawableId(component, customIconEntry)
 
         if (drawableId != 0) {
             try {
@@ -288,6 +325,36 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
         return null
     }
 
+    override fun getRenderKey(launcherActivityInfo: LauncherActivityInfo, iconDpi: Int,
+                              customIconEntry: IconPackManager.CustomIconEntry?): String? {
+        ensureInitialLoadComplete()
+
+        val drawableId = resolveDrawableId(launcherActivityInfo.componentName, customIconEntry)
+        if (drawableId != 0) {
+            // Clocks and dynamic drawables change over time
+            if (packClocks.containsKey(drawableId) || packDynamicDrawables.containsKey(drawableId)) {
+                return NOT_CACHEABLE
+            }
+            val shape = IconShapeManager.getInstance(context).iconShape
+            return "$packPackageName/$packVersion/$drawableId/$iconDpi/$shape/" +
+                    "${prefs.adaptifyIconPacks}/${prefs.enableLegacyTreatment}/" +
+                    "${prefs.colorizedLegacyTreatment}/${prefs.enableWhiteOnlyTreatment}"
+        }
+
+        val isCustomPack = customIconEntry?.packPackageName == packPackageName && customIconEntry.icon == null
+        if ((prefs.iconPackMasking || isCustomPack) && packMask.hasMask) {
+            return NOT_CACHEABLE
+        }
+        return null
+    }
+
+    private fun resolveDrawableId(component: ComponentName,
+                                  customIconEntry: IconPackManager.CustomIconEntry?) = when {
+        customIconEntry?.icon != null -> getDrawableId(customIconEntry.icon)
+        packCalendars.containsKey(component) -> getDrawableId(packCalendars[component] + Calendar.getInstance().get(Calendar.DAY_OF_MONTH))
+        else -> getComponentEntry(component)?.drawableId ?: 0
+    }
+
     override fun getIcon(shortcutInfo: ShortcutInfoCompat, iconDpi: Int): Drawable? {
         ensureInitialLoadComplete()
 
@@ -315,8 +382,7 @@ class IconPackImpl(context: Context, packPackageName: String) : IconPack(context
             val component = itemInfo.targetComponent
             val drawableId = when {
                 customIconEntry?.icon != null -> getDrawableId(customIconEntry.icon)
-                packComponents.containsKey(component) -> packComponents[component]!!.drawableId
-                else -> 0
+                else -> component?.let { getComponentEntry(it) }?.drawableId ?: 0
             }
             if (packClocks.containsKey(drawableId)) {
                 val drawable = AdaptiveIconCompat.wrap(packResources.getDrawable(drawableId))
@@ -119,6 +119,29 @@ class IconPackManager(private val context: Context) {
         return defaultPack.getIcon(launcherActivityInfo, iconDpi, flattenDrawable, null, iconProvider)
     }
 
+    /**
+     * Returns a key for the icon [getIcon] returns, or null if it can't be reused.
+     */
+    fun getRenderKey(launcherActivityInfo: LauncherActivityInfo, iconDpi: Int,
+                     itemInfo: ItemInfo?): String? {
+        val customEntry = CustomInfoProvider.forItem<ItemInfo>(context, itemInfo)?.getIcon(itemInfo!!)
+                ?: appInfoProvider.getCustomIconEntry(launcherActivityInfo)
+        val customPack = customEntry?.run {
+            getIconPackInternal(packPackageName)
+        }
+        if (customPack != null) {
+            customPack.getRenderKey(launcherActivityInfo, iconDpi, customEntry)?.let {
+                return if (it != IconPack.NOT_CACHEABLE) it else null
+            }
+        }
+        packList.iterator().forEach { pack ->
+            pack.getRenderKey(launcherActivityInfo, iconDpi, null)?.let {
+                return if (it != IconPack.NOT_CACHEABLE) it else null
+            }
+        }
+        return null
+    }
+
     fun getIcon(shortcutInfo: ShortcutInfoCompat, iconDpi: Int): Drawable? {
         packList.iterator().forEach { pack ->
             pack.getIcon(shortcutInfo, iconDpi)?.let { return it }
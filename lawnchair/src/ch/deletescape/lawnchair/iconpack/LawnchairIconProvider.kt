@@ -39,6 +39,10 @@ class LawnchairIconProvider(context: Context) : DynamicIconProvider(context) {
         return iconPackManager.getIcon(launcherActivityInfo, iconDpi, flattenDrawable, itemInfo, this).assertNotAdaptiveIconDrawable(launcherActivityInfo)
     }
 
+    fun getRenderKey(launcherActivityInfo: LauncherActivityInfo, iconDpi: Int): String? {
+        return iconPackManager.getRenderKey(launcherActivityInfo, iconDpi, null)
+    }
+
     fun getIcon(shortcutInfo: ShortcutInfoCompat, iconDpi: Int): Drawable? {
         return iconPackManager.getIcon(shortcutInfo, iconDpi).assertNotAdaptiveIconDrawable(shortcutInfo)
     }
@@ -0,0 +1,290 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ch.deletescape.lawnchair.predictions
+
+import android.content.ContentValues
+import android.content.Context
+import android.content.SharedPreferences
+import android.database.sqlite.SQLiteDatabase
+import android.os.Handler
+import ch.deletescape.lawnchair.util.LawnchairSingletonHolder
+import ch.deletescape.lawnchair.util.extensions.e
+import com.android.launcher3.LauncherModel
+import com.android.launcher3.Utilities
+import com.android.launcher3.util.NoLocaleSQLiteHelper
+import java.util.*
+
+/**
+ * Stores the launch events used by [LawnchairEventPredictor] in a database.
+ *
+ * Every [EventLog] keeps its events and their counts in memory, so recording and ranking don't
+ * touch the disk. Changes are queued and written in a single transaction on a background thread.
+ */
+class LaunchEventStore(private val context: Context) : NoLocaleSQLiteHelper(context, DB_NAME, DB_VERSION) {
+
+    private val handler = Handler(LauncherModel.getUiWorkerLooper())
+    private val pendingWrites = ArrayList<(SQLiteDatabase) -> Unit>()
+    private val flushRunnable = Runnable(::flush)
+
+    override fun onCreate(db: SQLiteDatabase) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS $TABLE_EVENTS (" +
+                "$COLUMN_ID INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "$COLUMN_LOG TEXT NOT NULL, " +
+                "$COLUMN_VALUE TEXT NOT NULL)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS ${TABLE_EVENTS}_log ON $TABLE_EVENTS ($COLUMN_LOG)")
+    }
+
+    override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        db.execSQL("DROP TABLE IF EXISTS $TABLE_EVENTS")
+        onCreate(db)
+    }
+
+    override fun onDowngrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        onUpgrade(db, oldVersion, newVersion)
+    }
+
+    private fun enqueueWrite(write: (SQLiteDatabase) -> Unit) {
+        synchronized(pendingWrites) {
+            pendingWrites.add(write)
+            if (pendingWrites.size == 1) {
+                handler.postDelayed(flushRunnable, FLUSH_DELAY)
+            }
+        }
+    }
+
+    private fun flush() {
+        val writes = synchronized(pendingWrites) {
+            ArrayList(pendingWrites).also { pendingWrites.clear() }
+        }
+        if (writes.isEmpty()) return
+        try {
+            val db = writableDatabase
+            db.beginTransaction()
+            try {
+                writes.forEach { it(db) }
+                db.setTransactionSuccessful()
+            } finally {
+                db.endTransaction()
+            }
+        } catch (ex: Exception) {
+            e("Failed to write launch events", ex)
+        }
+    }
+
+    /**
+     * A log of the most recent [maxSize] events, ranked by how often each value occurs.
+     * The events of [legacyKey] in the device prefs are migrated on first load.
+     */
+    inner class EventLog(private val name: String, private val maxSize: Int, private val legacyKey: String) {
+
+        // Most recent event first
+        private val events = ArrayDeque<String>()
+        private val stats = HashMap<String, Stats>()
+        private var sequence = 0L
+        private var loaded = false
+
+        /**
+         * Returns the distinct values, most frequent first. Ties are broken by the most recent
+         * launch.
+         */
+        @JvmOverloads
+        @Synchronized
+        fun getRanked(limit: Int = Int.MAX_VALUE): List<String> {
+            ensureLoaded()
+            if (limit <= 0) return emptyList()
+            val heap = PriorityQueue<Map.Entry<String, Stats>>(
+                    Math.min(limit, stats.size) + 1, WORST_FIRST)
+            for (entry in stats.entries) {
+                heap.add(entry)
+                if (heap.size > limit) {
+                    heap.poll()
+                }
+            }
+            val ranked = ArrayList<String>(heap.size)
+            while (heap.isNotEmpty()) {
+                ranked.add(heap.poll().key)
+            }
+            ranked.reverse()
+            return ranked
+        }
+
+        @Synchronized
+        fun add(value: String) {
+            ensureLoaded()
+            events.addFirst(value)
+            stats.getOrPut(value) { Stats() }.apply {
+                count++
+                lastSeen = ++sequence
+            }
+            if (events.size > maxSize) {
+                decrement(events.removeLast())
+            }
+            enqueueWrite { db ->
+                db.insert(TABLE_EVENTS, null, ContentValues(2).apply {
+                    put(COLUMN_LOG, name)
+                    put(COLUMN_VALUE, value)
+                })
+                trim(db)
+            }
+        }
+
+        @Synchronized
+        fun clear() {
+            loaded = true
+            events.clear()
+            stats.clear()
+            enqueueWrite { db -> db.delete(TABLE_EVENTS, "$COLUMN_LOG = ?", arrayOf(name)) }
+        }
+
+        /**
+         * Removes all events whose value matches [filter]. [filter] is called once per distinct
+         * value.
+         */
+        @Synchronized
+        fun removeAll(filter: (String) -> Boolean): Boolean {
+            ensureLoaded()
+            // The filter may replace values, so iterate over a copy
+            val removed = ArrayList(stats.keys).filterTo(HashSet(), filter)
+            if (removed.isEmpty()) return false
+            events.removeAll { it in removed }
+            stats.keys.removeAll(removed)
+            enqueueWrite { db ->
+                removed.forEach {
+                    db.delete(TABLE_EVENTS, "$COLUMN_LOG = ? AND $COLUMN_VALUE = ?", arrayOf(name, it))
+                }
+            }
+            return true
+        }
+
+        @Synchronized
+        fun replace(value: String, replacement: String) {
+            ensureLoaded()
+            val replaced = stats.remove(value) ?: return
+            val target = stats[replacement]
+            if (target == null) {
+                stats[replacement] = replaced
+            } else {
+                target.count += replaced.count
+                target.lastSeen = Math.max(target.lastSeen, replaced.lastSeen)
+            }
+            val updated = events.map { if (it == value) replacement else it }
+            events.clear()
+            events.addAll(updated)
+            enqueueWrite { db ->
+                db.update(TABLE_EVENTS, ContentValues(1).apply { put(COLUMN_VALUE, replacement) },
+                        "$COLUMN_LOG = ? AND $COLUMN_VALUE = ?", arrayOf(name, value))
+            }
+        }
+
+        @Synchronized
+        fun contains(value: String): Boolean {
+            ensureLoaded()
+            return stats.containsKey(value)
+        }
+
+        /**
+         * Loads the events from disk, unless they have already been loaded.
+         */
+        @Synchronized
+        fun ensureLoaded() {
+            if (loaded) return
+            loaded = true
+            val loadedEvents = try {
+                readableDatabase.query(TABLE_EVENTS, arrayOf(COLUMN_VALUE), "$COLUMN_LOG = ?",
+                        arrayOf(name), null, null, "$COLUMN_ID DESC", maxSize.toString()).use { c ->
+                    val list = ArrayList<String>(c.count)
+                    while (c.moveToNext()) {
+                        list.add(c.getString(0))
+                    }
+                    list
+                }
+            } catch (ex: Exception) {
+                e("Failed to load launch events", ex)
+                ArrayList<String>()
+            }
+            if (loadedEvents.isEmpty()) {
+                loadedEvents.addAll(migrateLegacyEvents())
+            }
+            // Replay from the oldest event so that the recency order is restored
+            for (i in loadedEvents.indices.reversed()) {
+                val value = loadedEvents[i]
+                events.addFirst(value)
+                stats.getOrPut(value) { Stats() }.apply {
+                    count++
+                    lastSeen = ++sequence
+                }
+            }
+        }
+
+        private fun migrateLegacyEvents(): List<String> {
+            val devicePrefs: SharedPreferences = Utilities.getDevicePrefs(context)
+            val legacy = devicePrefs.getString(legacyKey, null) ?: return emptyList()
+            val migrated = legacy.split(LEGACY_DELIMITER).filter { it.isNotEmpty() }.take(maxSize)
+            enqueueWrite { db ->
+                for (i in migrated.indices.reversed()) {
+                    db.insert(TABLE_EVENTS, null, ContentValues(2).apply {
+                        put(COLUMN_LOG, name)
+                        put(COLUMN_VALUE, migrated[i])
+                    })
+                }
+            }
+            devicePrefs.edit().remove(legacyKey).apply()
+            return migrated
+        }
+
+        private fun decrement(value: String) {
+            val valueStats = stats[value] ?: return
+            if (--valueStats.count <= 0) {
+                stats.remove(value)
+            }
+        }
+
+        private fun trim(db: SQLiteDatabase) {
+            db.execSQL("DELETE FROM $TABLE_EVENTS WHERE $COLUMN_LOG = ? AND $COLUMN_ID NOT IN " +
+                    "(SELECT $COLUMN_ID FROM $TABLE_EVENTS WHERE $COLUMN_LOG = ? " +
+                    "ORDER BY $COLUMN_ID DESC LIMIT $maxSize)", arrayOf(name, name))
+        }
+    }
+
+    private class Stats {
+
+        var count = 0
+        var lastSeen = 0L
+    }
+
+    companion object : LawnchairSingletonHolder<LaunchEventStore>(::LaunchEventStore) {
+
+        private const val DB_NAME = "launch_events.db"
+        private const val DB_VERSION = 1
+
+        private const val TABLE_EVENTS = "events"
+        private const val COLUMN_ID = "_id"
+        private const val COLUMN_LOG = "log"
+        private const val COLUMN_VALUE = "value"
+
+        private const val LEGACY_DELIMITER = ";"
+        private const val FLUSH_DELAY = 1000L
+
+        private val WORST_FIRST = Comparator<Map.Entry<String, Stats>> { a, b ->
+            val result = a.value.count.compareTo(b.value.count)
+            if (result != 0) result else a.value.lastSeen.compareTo(b.value.lastSeen)
+        }
+    }
+}
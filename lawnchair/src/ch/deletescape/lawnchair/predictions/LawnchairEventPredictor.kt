@@ -63,10 +63,10 @@ open class LawnchairEventPredictor(private val context: Context): CustomAppPredi
     private val handlerThread by lazy { HandlerThread("event-predictor").apply { start() }}
     private val handler by lazy { Handler(handlerThread.looper) }
 
-    private val devicePrefs = Utilities.getDevicePrefs(context)
-    private val appsList = CountRankedArrayPreference(devicePrefs, "recent_app_launches", 250)
-    private val phonesList = CountRankedArrayPreference(devicePrefs, "plugged_app_launches", 20)
-    private val actionList = CountRankedArrayPreference(devicePrefs, "recent_shortcut_launches", 100)
+    private val eventStore = LaunchEventStore.getInstance(context)
+    private val appsList = eventStore.EventLog("apps", 250, "recent_app_launches")
+    private val phonesList = eventStore.EventLog("headphone_apps", 20, "plugged_app_launches")
+    private val actionList = eventStore.EventLog("shortcuts", 100, "recent_shortcut_launches")
     open val isActionsEnabled get() = !(PackageManagerHelper.isAppEnabled(context.packageManager, ACTIONS_PACKAGE, 0) && ActionsController.get(context).actions.size > 0) && prefs.showActions
 
     private var actionsCache = listOf<String>()
@@ -93,6 +93,10 @@ open class LawnchairEventPredictor(private val context: Context): CustomAppPredi
      * TODO: Is two minutes appropriate or do we want to increase this?
      */
     private val phonesJustConnected get() = phonesConnectedAt > 0 && SystemClock.uptimeMillis() in phonesConnectedAt until phonesConnectedAt + DURATION_RECENTLY
+    /**
+     * Falls back to the audio manager until the first headphone state change has been received
+     */
+    override fun isHeadsetConnected() = if (phonesConnectedAt >= 0) phonesConnectedAt > 0 else super.isHeadsetConnected()
     /**
      * Whether or not the current app launch is relevant for headphone suggestions or not
      */
@@ -132,6 +136,11 @@ open class LawnchairEventPredictor(private val context: Context): CustomAppPredi
         if (isPredictorEnabled && !Sesame.isAvailable(context)) {
             setupBroadcastReceiver()
         }
+        runOnUiWorkerThread {
+            appsList.ensureLoaded()
+            phonesList.ensureLoaded()
+            actionList.ensureLoaded()
+        }
     }
 
     private fun setupBroadcastReceiver() {
@@ -215,7 +224,7 @@ open class LawnchairEventPredictor(private val context: Context): CustomAppPredi
 
                     val badge = info.shortcutInfo.getBadgePackage(context)
                     actionList.add(actionToString(info.shortcutInfo.id, badge, badge))
-                    val new = actionList.getRanked().take(ActionsController.MAX_ITEMS)
+                    val new = actionList.getRanked(ActionsController.MAX_ITEMS)
                     if (new != actionsCache) {
                         actionsCache = new
                         runOnMainThread {
@@ -254,8 +263,8 @@ open class LawnchairEventPredictor(private val context: Context): CustomAppPredi
         } else if (isPredictorEnabled) {
             clearRemovedComponents()
             val user = Process.myUserHandle()
-            val appList = if (phonesJustConnected) phonesList.getRanked().take(MAX_HEADPHONE_SUGGESTIONS).toMutableList() else mutableListOf()
-            appList.addAll(appsList.getRanked().filterNot { appList.contains(it) }.take(MAX_PREDICTIONS - appList.size))
+            val appList = if (phonesJustConnected) phonesList.getRanked(MAX_HEADPHONE_SUGGESTIONS).toMutableList() else mutableListOf()
+            appList.addAll(appsList.getRanked(MAX_PREDICTIONS + appList.size).filterNot { appList.contains(it) }.take(MAX_PREDICTIONS - appList.size))
             val fullList = appList.map { getComponentFromString(it) }
                     .filterNot { isHiddenApp(context, it.componentKey) }.toMutableList()
             if (fullList.size < MAX_PREDICTIONS) {
@@ -349,8 +358,7 @@ open class LawnchairEventPredictor(private val context: Context): CustomAppPredi
                     return@runOnUiWorkerThread
                 }
             }
-            callback(getFilteredActionList(ArrayList(actionList.getRanked()
-                                                             .take(ActionsController.MAX_ITEMS)
+            callback(getFilteredActionList(ArrayList(actionList.getRanked(ActionsController.MAX_ITEMS)
                                                              .mapIndexedNotNull { index, s ->
                                                                  actionFromString(s, index.toLong())
                                                              })))
@@ -390,39 +398,6 @@ open class LawnchairEventPredictor(private val context: Context): CustomAppPredi
         return super.isPredictorEnabled() && Utilities.getReflectionPrefs(context).getLong("reflection_most_recent_usage", 0L) == 0L
     }
 
-    /**
-     * A ranked list with roll over to get/store currently relevant events and rank them by occurence
-     */
-    inner class CountRankedArrayPreference(private val prefs: SharedPreferences, private val key: String, private val maxSize: Int = -1, private val delimiter: String = ";") {
-        private var list = load()
-
-        fun getRanked() : Set<String> = list.distinct().sortedBy { value -> list.count { it == value } }.reversed().toSet()
-
-        fun add(string: String) {
-            list.add(0, string)
-            if (maxSize >= 0 && list.size > maxSize) {
-                list = list.drop(maxSize).toMutableList()
-            }
-            save()
-        }
-
-        fun clear() {
-            list.clear()
-            prefs.edit().remove(key).apply()
-        }
-        fun removeAll(filter: (String) -> Boolean) = list.removeAll(filter)
-        fun replace(filter: String, replacement: String) {
-            list = list.map { if (it == filter) replacement else it }.toMutableList()
-        }
-        fun contains(element: String) = list.contains(element)
-
-        private fun load() = (prefs.getString(key, "")?: "").split(delimiter).toMutableList()
-        private fun save() {
-            val strValue = list.joinToString(delimiter)
-            prefs.edit().putString(key, strValue).apply()
-        }
-    }
-
     private fun actionToString(id: String, publisher: String, badge: String) = JSONObject().apply {
         put(KEY_ID, id)
         put(KEY_PUBLISHER, publisher)
@@ -84,6 +84,21 @@ public class AllAppsList {
         added.add(info);
     }
 
+    /**
+     * Same as {@link #add(AppInfo, LauncherActivityInfo)} for {@param info} which already has
+     * its title and icon.
+     */
+    public void addLoaded(AppInfo info) {
+        if (!mAppFilter.shouldShowApp(info.componentName, info.user)) {
+            return;
+        }
+        if (findAppInfo(info.componentName, info.user) != null) {
+            return;
+        }
+        data.add(info);
+        added.add(info);
+    }
+
     public void addPromiseApp(Context context,
                               PackageInstallerCompat.PackageInstallInfo installInfo) {
         ApplicationInfo applicationInfo = LauncherAppsCompat.getInstance(context)
@@ -0,0 +1,271 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.android.launcher3.graphics.BitmapRenderer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Blob format of the icons stored in the icon database, replacing PNG.
+ *
+ * A blob is a 16 byte header followed by the raw pixels as returned by
+ * {@link Bitmap#copyPixelsToBuffer}, so encoding and decoding are mostly memory copies instead
+ * of a PNG round-trip. ARGB_8888 pixels are run-length encoded per pixel, which is cheap and
+ * removes most of the fully transparent area around icons.
+ *
+ * Header, in native byte order (the database never leaves the device):
+ *   int magic, byte version, byte config, byte compression, byte flags, int width, int height
+ *
+ * Runs are stored as a sequence of int tokens. A positive token n is followed by n literal
+ * pixels, a negative token -n by one pixel repeated n times.
+ *
+ * Blobs without the header are decoded as regular images.
+ */
+class IconBlobFormat {
+
+    private static final int MAGIC = 0x4c434942; // "LCIB"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private static final int CONFIG_ARGB_8888 = 1;
+    private static final int CONFIG_RGB_565 = 2;
+    private static final int CONFIG_ALPHA_8 = 3;
+
+    private static final int COMPRESSION_NONE = 0;
+    private static final int COMPRESSION_RUNS = 1;
+
+    private static final int FLAG_HAS_ALPHA = 1;
+
+    // A run token and its pixel take as much space as two literal pixels, and can split the
+    // literals around it.
+    private static final int MIN_RUN = 3;
+
+    /**
+     * Pixel buffer and software bitmap reused by decodes on the same thread. All the icons in the
+     * database have the same size, so these are allocated once per thread.
+     */
+    private static final ThreadLocal<Scratch> sScratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    static byte[] encode(Bitmap bitmap) {
+        if (bitmap == null) {
+            return null;
+        }
+        if (getConfigId(bitmap.getConfig()) == 0) {
+            // Hardware or unknown config, pixels can't be copied out directly
+            bitmap = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+        }
+        int config = getConfigId(bitmap.getConfig());
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int flags = bitmap.hasAlpha() ? FLAG_HAS_ALPHA : 0;
+
+        if (config == CONFIG_ARGB_8888) {
+            int[] pixels = new int[width * height];
+            bitmap.copyPixelsToBuffer(IntBuffer.wrap(pixels));
+            // The worst case is a single literal token covering all pixels
+            int[] tokens = new int[pixels.length + 1];
+            int tokenCount = compressRuns(pixels, tokens);
+
+            ByteBuffer out = allocate(HEADER_SIZE + tokenCount * 4);
+            writeHeader(out, config, COMPRESSION_RUNS, flags, width, height);
+            out.asIntBuffer().put(tokens, 0, tokenCount);
+            return out.array();
+        } else {
+            ByteBuffer out = allocate(HEADER_SIZE + bitmap.getRowBytes() * height);
+            writeHeader(out, config, COMPRESSION_NONE, flags, width, height);
+            bitmap.copyPixelsToBuffer(out);
+            return out.array();
+        }
+    }
+
+    /**
+     * Decodes {@param data}, which may also be a regular image. Of {@param options}, only the
+     * preferred config is used for blobs: HARDWARE, or RGB_565 for opaque ARGB_8888 blobs like
+     * BitmapFactory does. Regular images use all of them.
+     */
+    static Bitmap decode(byte[] data, BitmapFactory.Options options) {
+        if (data == null) {
+            return null;
+        }
+        ByteBuffer in = ByteBuffer.wrap(data).order(ByteOrder.nativeOrder());
+        if (data.length < HEADER_SIZE || in.getInt() != MAGIC || in.get() != VERSION) {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        Bitmap.Config config = getConfig(in.get());
+        int compression = in.get();
+        int flags = in.get();
+        int width = in.getInt();
+        int height = in.getInt();
+
+        boolean toHardware = isHardware(options);
+        boolean toRgb565 = !toHardware && options != null
+                && options.inPreferredConfig == Bitmap.Config.RGB_565
+                && config == Bitmap.Config.ARGB_8888 && (flags & FLAG_HAS_ALPHA) == 0;
+        Scratch scratch = sScratch.get();
+        Bitmap bitmap = toHardware || toRgb565 ? scratch.getBitmap(width, height, config)
+                : Bitmap.createBitmap(width, height, config);
+        if (compression == COMPRESSION_RUNS) {
+            int[] pixels = scratch.getPixels(width * height);
+            expandRuns(in.asIntBuffer(), pixels, width * height);
+            bitmap.copyPixelsFromBuffer(IntBuffer.wrap(pixels, 0, width * height));
+        } else {
+            bitmap.copyPixelsFromBuffer(in);
+        }
+        bitmap.setHasAlpha((flags & FLAG_HAS_ALPHA) != 0);
+        if (toHardware) {
+            return bitmap.copy(Bitmap.Config.HARDWARE, false);
+        }
+        // Half the memory, mostly for the low res icons
+        return toRgb565 ? bitmap.copy(Bitmap.Config.RGB_565, false) : bitmap;
+    }
+
+    private static boolean isHardware(BitmapFactory.Options options) {
+        return BitmapRenderer.USE_HARDWARE_BITMAP && options != null
+                && options.inPreferredConfig == Bitmap.Config.HARDWARE;
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+    }
+
+    private static void writeHeader(ByteBuffer out, int config, int compression, int flags,
+            int width, int height) {
+        out.putInt(MAGIC)
+                .put((byte) VERSION)
+                .put((byte) config)
+                .put((byte) compression)
+                .put((byte) flags)
+                .putInt(width)
+                .putInt(height);
+    }
+
+    /**
+     * @return the number of tokens written to {@param tokens}
+     */
+    static int compressRuns(int[] pixels, int[] tokens) {
+        int count = pixels.length;
+        int tokenCount = 0;
+        int literalStart = 0;
+        int i = 0;
+        while (i < count) {
+            int pixel = pixels[i];
+            int run = 1;
+            while (i + run < count && pixels[i + run] == pixel) {
+                run++;
+            }
+            if (run >= MIN_RUN) {
+                tokenCount = writeLiterals(pixels, literalStart, i, tokens, tokenCount);
+                tokens[tokenCount++] = -run;
+                tokens[tokenCount++] = pixel;
+                literalStart = i + run;
+            }
+            i += run;
+        }
+        return writeLiterals(pixels, literalStart, count, tokens, tokenCount);
+    }
+
+    private static int writeLiterals(int[] pixels, int start, int end, int[] tokens,
+            int tokenCount) {
+        if (end > start) {
+            tokens[tokenCount++] = end - start;
+            System.arraycopy(pixels, start, tokens, tokenCount, end - start);
+            tokenCount += end - start;
+        }
+        return tokenCount;
+    }
+
+    static void expandRuns(IntBuffer tokens, int[] pixels, int count) {
+        int i = 0;
+        while (i < count) {
+            int token = tokens.get();
+            if (token > 0) {
+                tokens.get(pixels, i, token);
+                i += token;
+            } else if (token < 0) {
+                int end = i - token;
+                if (end > count) {
+                    throw new IllegalArgumentException("Run exceeds the icon size");
+                }
+                int pixel = tokens.get();
+                while (i < end) {
+                    pixels[i++] = pixel;
+                }
+            } else {
+                throw new IllegalArgumentException("Empty token");
+            }
+        }
+    }
+
+    private static int getConfigId(Bitmap.Config config) {
+        if (config == Bitmap.Config.ARGB_8888) {
+            return CONFIG_ARGB_8888;
+        } else if (config == Bitmap.Config.RGB_565) {
+            return CONFIG_RGB_565;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return CONFIG_ALPHA_8;
+        }
+        return 0;
+    }
+
+    private static Bitmap.Config getConfig(int id) {
+        switch (id) {
+            case CONFIG_ARGB_8888:
+                return Bitmap.Config.ARGB_8888;
+            case CONFIG_RGB_565:
+                return Bitmap.Config.RGB_565;
+            case CONFIG_ALPHA_8:
+                return Bitmap.Config.ALPHA_8;
+            default:
+                throw new IllegalArgumentException("Unknown config " + id);
+        }
+    }
+
+    private static class Scratch {
+
+        private int[] mPixels;
+        private Bitmap mBitmap;
+
+        int[] getPixels(int count) {
+            if (mPixels == null || mPixels.length < count) {
+                mPixels = new int[count];
+            }
+            return mPixels;
+        }
+
+        Bitmap getBitmap(int width, int height, Bitmap.Config config) {
+            if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() != height
+                    || mBitmap.getConfig() != config) {
+                mBitmap = Bitmap.createBitmap(width, height, config);
+            }
+            return mBitmap;
+        }
+    }
+}
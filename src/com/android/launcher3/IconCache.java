@@ -16,6 +16,7 @@
 
 package com.android.launcher3;
 
+import android.app.ActivityManager;
 import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
@@ -38,12 +39,14 @@ import android.support.annotation.NonNull;
 import android.support.v4.graphics.ColorUtils;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
 import ch.deletescape.lawnchair.iconpack.LawnchairIconProvider;
 import ch.deletescape.lawnchair.override.AppInfoProvider;
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.graphics.BitmapInfo;
 import com.android.launcher3.graphics.BitmapRenderer;
+import com.android.launcher3.graphics.IconRenderExecutor;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.model.PackageItemInfo;
 import com.android.launcher3.util.ComponentKey;
@@ -51,14 +54,20 @@ import com.android.launcher3.util.InstantAppResolver;
 import com.android.launcher3.util.Preconditions;
 import com.android.launcher3.util.Provider;
 import com.android.launcher3.util.SQLiteCacheHelper;
+import com.android.launcher3.util.StartupMetrics;
 import com.android.launcher3.util.Thunk;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Cache of application icons.  Icons can be made from any thread.
@@ -67,7 +76,10 @@ public class IconCache {
 
     private static final String TAG = "Launcher.IconCache";
 
-    private static final int INITIAL_ICON_CACHE_CAPACITY = 50;
+    // Fractions of the memory class which the cached high-res and low-res icons may use
+    private static final int HIGH_RES_MEMORY_DIVIDER = 8;
+    private static final int LOW_RES_MEMORY_DIVIDER = 32;
+    private static final int RENDERED_MEMORY_DIVIDER = 16;
 
     // Empty class name is used for storing package default entry.
     public static final String EMPTY_CLASS_NAME = ".";
@@ -77,8 +89,24 @@ public class IconCache {
 
     private static final int LOW_RES_SCALE_FACTOR = 5;
 
+    // Components per query and threads used by prefetch()
+    private static final int PREFETCH_QUERY_SIZE = 500;
+    private static final int PREFETCH_THREADS = 4;
+
+    // Apps rendered and written together when refreshing the icon DB
+    private static final int ICON_UPDATE_BATCH_SIZE = 16;
+
     @Thunk static final Object ICON_UPDATE_TOKEN = new Object();
 
+    private static final StartupMetrics.Counter sMemoryHits =
+            StartupMetrics.counter("IconCache: memory hits");
+    private static final StartupMetrics.Counter sDbHits =
+            StartupMetrics.counter("IconCache: DB hits");
+    private static final StartupMetrics.Counter sRendered =
+            StartupMetrics.counter("IconCache: rendered");
+    private static final StartupMetrics.Counter sPrefetched =
+            StartupMetrics.counter("IconCache: prefetched");
+
     public static class CacheEntry extends BitmapInfo {
         public CharSequence title = "";
         public CharSequence originalTitle = null;
@@ -95,13 +123,22 @@ public class IconCache {
     private final AppInfoProvider mInfoProvider;
     @Thunk final UserManagerCompat mUserManager;
     private final LauncherAppsCompat mLauncherApps;
-    private final HashMap<ComponentKey, CacheEntry> mCache =
-            new HashMap<>(INITIAL_ICON_CACHE_CAPACITY);
+    private final IconMemoryCache mCache;
+    // Icon pack icons by render key, kept when the other icons are removed
+    private final LruCache<String, BitmapInfo> mRenderedIcons;
     private final InstantAppResolver mInstantAppResolver;
     private final int mIconDpi;
     @Thunk final IconDB mIconDb;
 
     @Thunk final Handler mWorkerHandler;
+    @Thunk final IconRenderExecutor mIconUpdateExecutor;
+
+    // Incremented to cancel running icon DB refreshes
+    @Thunk volatile int mIconUpdateGeneration;
+    // Progress of the icon DB refresh, only changed on the worker thread
+    @Thunk volatile int mIconUpdateTotal;
+    @Thunk volatile int mIconUpdateDone;
+    @Thunk long mIconUpdateStartTime;
 
     private final BitmapFactory.Options mLowResOptions;
     private final BitmapFactory.Options mHighResOptions;
@@ -117,9 +154,22 @@ public class IconCache {
         mIconDpi = inv.fillResIconDpi;
         mIconDb = new IconDB(context, inv.iconBitmapSize);
 
+        long memoryClassBytes = ((ActivityManager) context.getSystemService(
+                Context.ACTIVITY_SERVICE)).getMemoryClass() * 1024L * 1024L;
+        mCache = new IconMemoryCache(memoryClassBytes / HIGH_RES_MEMORY_DIVIDER,
+                memoryClassBytes / LOW_RES_MEMORY_DIVIDER);
+        mRenderedIcons = new LruCache<String, BitmapInfo>(
+                (int) (memoryClassBytes / RENDERED_MEMORY_DIVIDER)) {
+            @Override
+            protected int sizeOf(String key, BitmapInfo value) {
+                return value.icon.getAllocationByteCount();
+            }
+        };
+
         mInfoProvider = AppInfoProvider.Companion.getInstance(context);
         mIconProvider = IconProvider.newInstance(context);
         mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+        mIconUpdateExecutor = IconRenderExecutor.getInstance();
 
         mLowResOptions = new BitmapFactory.Options();
         // Always prefer RGB_565 config for low res. If the bitmap has transparency, it will
@@ -201,6 +251,32 @@ public class IconCache {
         return mIconProvider.getIcon(info, mIconDpi, flattenDrawable);
     }
 
+    /**
+     * Renders the icon of {@param info}. Apps using the same icon pack drawable share the
+     * rendered bitmap, which stays cached when the icons are reloaded.
+     */
+    private BitmapInfo createIconBitmap(LauncherActivityInfo info) {
+        String renderKey = mIconProvider instanceof LawnchairIconProvider
+                ? ((LawnchairIconProvider) mIconProvider).getRenderKey(info, mIconDpi) : null;
+        if (renderKey != null) {
+            // The badge depends on the user
+            renderKey += "/" + mUserManager.getSerialNumberForUser(info.getUser());
+            BitmapInfo rendered = mRenderedIcons.get(renderKey);
+            if (rendered != null) {
+                return rendered;
+            }
+        }
+        BitmapInfo rendered;
+        try (LauncherIcons li = LauncherIcons.obtain(mContext)) {
+            rendered = li.createBadgedIconBitmap(getFullResIcon(info), info.getUser(),
+                    info.getApplicationInfo().targetSdkVersion);
+        }
+        if (renderKey != null) {
+            mRenderedIcons.put(renderKey, rendered);
+        }
+        return rendered;
+    }
+
     protected BitmapInfo makeDefaultIcon(UserHandle user) {
         try (LauncherIcons li = LauncherIcons.obtain(mContext)) {
             return li.createBadgedIconBitmap(
@@ -211,7 +287,7 @@ public class IconCache {
     /**
      * Remove any records for the supplied ComponentName.
      */
-    public synchronized void remove(ComponentName componentName, UserHandle user) {
+    public void remove(ComponentName componentName, UserHandle user) {
         mCache.remove(new ComponentKey(componentName, user));
     }
 
@@ -219,16 +295,7 @@ public class IconCache {
      * Remove any records for the supplied package name from memory.
      */
     private void removeFromMemCacheLocked(String packageName, UserHandle user) {
-        HashSet<ComponentKey> forDeletion = new HashSet<>();
-        for (ComponentKey key: mCache.keySet()) {
-            if (key.componentName.getPackageName().equals(packageName)
-                    && key.user.equals(user)) {
-                forDeletion.add(key);
-            }
-        }
-        for (ComponentKey condemned: forDeletion) {
-            mCache.remove(condemned);
-        }
+        mCache.removePackage(packageName, user);
     }
 
     /**
@@ -268,6 +335,10 @@ public class IconCache {
     public void updateDbIcons(Set<String> ignorePackagesForMainUser) {
         // Remove all active icon update tasks.
         mWorkerHandler.removeCallbacksAndMessages(ICON_UPDATE_TOKEN);
+        mIconUpdateGeneration++;
+        mIconUpdateTotal = 0;
+        mIconUpdateDone = 0;
+        mIconUpdateStartTime = SystemClock.elapsedRealtime();
 
         mIconProvider.updateSystemStateString(mContext);
         for (UserHandle user : mUserManager.getUserProfiles()) {
@@ -279,8 +350,8 @@ public class IconCache {
                 return;
             }
 
-            // Update icon cache. This happens in segments and {@link #onPackageIconsUpdated}
-            // is called by the icon cache when the job is complete.
+            // Update icon cache. This happens in batches and {@link #onPackageIconsUpdated}
+            // is called by the icon cache after every batch.
             updateDBIcons(user, apps, Process.myUserHandle().equals(user)
                     ? ignorePackagesForMainUser : Collections.<String>emptySet());
         }
@@ -306,7 +377,7 @@ public class IconCache {
         }
 
         HashSet<Integer> itemsToRemove = new HashSet<>();
-        Stack<LauncherActivityInfo> appsToUpdate = new Stack<>();
+        ArrayList<LauncherActivityInfo> appsToUpdate = new ArrayList<>();
 
         Cursor c = null;
         try {
@@ -369,10 +440,8 @@ public class IconCache {
 
         // Insert remaining apps.
         if (!componentMap.isEmpty() || !appsToUpdate.isEmpty()) {
-            Stack<LauncherActivityInfo> appsToAdd = new Stack<>();
-            appsToAdd.addAll(componentMap.values());
-            new SerializedIconUpdateTask(userSerial, pkgInfoMap,
-                    appsToAdd, appsToUpdate).scheduleNext();
+            new BatchedIconUpdateTask(userSerial, pkgInfoMap, appsToUpdate,
+                    componentMap.values()).renderNextBatch();
         }
     }
 
@@ -384,30 +453,48 @@ public class IconCache {
      */
     @Thunk synchronized void addIconToDBAndMemCache(LauncherActivityInfo app,
             PackageInfo info, long userSerial, boolean replaceExisting) {
-        final ComponentKey key = new ComponentKey(app.getComponentName(), app.getUser());
-        CacheEntry entry = null;
-        if (!replaceExisting) {
-            entry = mCache.get(key);
-            // We can't reuse the entry if the high-res icon is not present.
-            if (entry == null || entry.isLowResIcon || entry.icon == null) {
-                entry = null;
-            }
+        IconUpdate update = createIconUpdate(app, info, userSerial, replaceExisting);
+        mCache.put(update.key, update.entry);
+        mIconDb.insertOrReplace(update.values);
+    }
+
+    /**
+     * Adds the results of {@link #createIconUpdate} to the DB, in a single transaction, and to
+     * the in-memory cache.
+     */
+    @Thunk synchronized void applyIconUpdates(List<IconUpdate> updates) {
+        ArrayList<ContentValues> values = new ArrayList<>(updates.size());
+        for (IconUpdate update : updates) {
+            mCache.put(update.key, update.entry);
+            values.add(update.values);
         }
-        if (entry == null) {
-            entry = new CacheEntry();
-            LauncherIcons li = LauncherIcons.obtain(mContext);
-            li.createBadgedIconBitmap(getFullResIcon(app), app.getUser(),
-                    app.getApplicationInfo().targetSdkVersion).applyTo(entry);
-            li.recycle();
+        mIconDb.insertOrReplace(values);
+    }
+
+    /**
+     * Creates the cache entry and DB values for {@param app}, without adding them. This doesn't
+     * need the lock and can run on any thread.
+     */
+    @Thunk IconUpdate createIconUpdate(LauncherActivityInfo app, PackageInfo info,
+            long userSerial, boolean replaceExisting) {
+        final ComponentKey key = new ComponentKey(app.getComponentName(), app.getUser());
+        CacheEntry entry = new CacheEntry();
+        CacheEntry cached = replaceExisting ? null : mCache.get(key);
+        // We can't reuse the entry if the high-res icon is not present. Only its icon is reused,
+        // the cached entry is published and must not be changed without the lock.
+        if (cached != null && !cached.isLowResIcon && cached.icon != null) {
+            cached.applyTo(entry);
+        } else {
+            createIconBitmap(app).applyTo(entry);
         }
         entry.title = mInfoProvider.getTitle(app);
         entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, app.getUser());
-        mCache.put(key, entry);
 
         Bitmap lowResIcon = generateLowResIcon(entry.icon);
         ContentValues values = newContentValues(entry.icon, lowResIcon, entry.color,
                 entry.title.toString(), app.getApplicationInfo().packageName);
-        addIconToDB(values, app.getComponentName(), info, userSerial);
+        addVersionInfo(values, app.getComponentName(), info, userSerial);
+        return new IconUpdate(key, entry, values);
     }
 
     /**
@@ -416,11 +503,16 @@ public class IconCache {
      */
     private void addIconToDB(ContentValues values, ComponentName key,
             PackageInfo info, long userSerial) {
+        addVersionInfo(values, key, info, userSerial);
+        mIconDb.insertOrReplace(values);
+    }
+
+    private static void addVersionInfo(ContentValues values, ComponentName key,
+            PackageInfo info, long userSerial) {
         values.put(IconDB.COLUMN_COMPONENT, key.flattenToString());
         values.put(IconDB.COLUMN_USER, userSerial);
         values.put(IconDB.COLUMN_LAST_UPDATED, info.lastUpdateTime);
         values.put(IconDB.COLUMN_VERSION, info.versionCode);
-        mIconDb.insertOrReplace(values);
     }
 
     /**
@@ -475,7 +567,7 @@ public class IconCache {
     /**
      * Fill in {@param info} with the icon and label for {@param activityInfo}
      */
-    public synchronized void getTitleAndIcon(ItemInfoWithIcon info,
+    public void getTitleAndIcon(ItemInfoWithIcon info,
             LauncherActivityInfo activityInfo, boolean useLowResIcon) {
         // If we already have activity info, no need to use package icon
         getTitleAndIcon(info, Provider.of(activityInfo), false, useLowResIcon);
@@ -485,7 +577,7 @@ public class IconCache {
      * Fill in {@param info} with the icon and label. If the
      * corresponding activity is not found, it reverts to the package icon.
      */
-    public synchronized void getTitleAndIcon(ItemInfoWithIcon info, boolean useLowResIcon) {
+    public void getTitleAndIcon(ItemInfoWithIcon info, boolean useLowResIcon) {
         // null info means not installed, but if we have a component from the intent then
         // we should still look in the cache for restored app icons.
         if (info.getTargetComponent() == null) {
@@ -502,25 +594,48 @@ public class IconCache {
     /**
      * Fill in {@param shortcutInfo} with the icon and label for {@param info}
      */
-    private synchronized void getTitleAndIcon(
+    private void getTitleAndIcon(
             @NonNull ItemInfoWithIcon infoInOut,
             @NonNull Provider<LauncherActivityInfo> activityInfoProvider,
             boolean usePkgIcon, boolean useLowResIcon) {
-        CacheEntry entry = cacheLocked(infoInOut.getTargetComponent(), activityInfoProvider,
-                infoInOut.user, usePkgIcon, useLowResIcon);
+        ComponentName componentName = infoInOut.getTargetComponent();
+        CacheEntry entry = getCachedEntry(
+                new ComponentKey(componentName, infoInOut.user), useLowResIcon);
+        if (entry == null) {
+            synchronized (this) {
+                entry = cacheLocked(componentName, activityInfoProvider,
+                        infoInOut.user, usePkgIcon, useLowResIcon);
+            }
+        } else {
+            sMemoryHits.increment();
+        }
         applyCacheEntry(entry, infoInOut);
     }
 
     /**
      * Fill in {@param infoInOut} with the corresponding icon and label.
      */
-    public synchronized void getTitleAndIconForApp(
+    public void getTitleAndIconForApp(
             PackageItemInfo infoInOut, boolean useLowResIcon) {
-        CacheEntry entry = getEntryForPackageLocked(
-                infoInOut.packageName, infoInOut.user, useLowResIcon);
+        CacheEntry entry = getCachedEntry(
+                getPackageKey(infoInOut.packageName, infoInOut.user), useLowResIcon);
+        if (entry == null) {
+            synchronized (this) {
+                entry = getEntryForPackageLocked(
+                        infoInOut.packageName, infoInOut.user, useLowResIcon);
+            }
+        }
         applyCacheEntry(entry, infoInOut);
     }
 
+    /**
+     * Returns the entry in the memory cache if it can be used as is, without taking the lock.
+     */
+    private CacheEntry getCachedEntry(ComponentKey cacheKey, boolean useLowResIcon) {
+        CacheEntry entry = mCache.get(cacheKey);
+        return entry == null || (entry.isLowResIcon && !useLowResIcon) ? null : entry;
+    }
+
     private void applyCacheEntry(CacheEntry entry, ItemInfoWithIcon info) {
         info.title = Utilities.trim(entry.title);
         info.contentDescription = entry.contentDescription;
@@ -547,26 +662,24 @@ public class IconCache {
             @NonNull ComponentName componentName,
             @NonNull Provider<LauncherActivityInfo> infoProvider,
             UserHandle user, boolean usePackageIcon, boolean useLowResIcon) {
-        Preconditions.assertWorkerThread();
+        // The loader also resolves icons from its parallel stages
+        Preconditions.assertNonUiThread();
         ComponentKey cacheKey = new ComponentKey(componentName, user);
         CacheEntry entry = mCache.get(cacheKey);
         if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
             entry = new CacheEntry();
-            mCache.put(cacheKey, entry);
 
             // Check the DB first.
             LauncherActivityInfo info = null;
             boolean providerFetchedOnce = false;
 
             if (!getEntryFromDB(cacheKey, entry, useLowResIcon) || DEBUG_IGNORE_CACHE) {
+                sRendered.increment();
                 info = infoProvider.get();
                 providerFetchedOnce = true;
 
                 if (info != null) {
-                    LauncherIcons li = LauncherIcons.obtain(mContext);
-                    li.createBadgedIconBitmap(getFullResIcon(info), info.getUser(),
-                            info.getApplicationInfo().targetSdkVersion).applyTo(entry);
-                    li.recycle();
+                    createIconBitmap(info).applyTo(entry);
                 } else {
                     if (usePackageIcon) {
                         CacheEntry packageEntry = getEntryForPackageLocked(
@@ -585,6 +698,8 @@ public class IconCache {
                         getDefaultIcon(user).applyTo(entry);
                     }
                 }
+            } else {
+                sDbHits.increment();
             }
 
             if (TextUtils.isEmpty(entry.title)) {
@@ -599,6 +714,10 @@ public class IconCache {
             }
 
             entry.originalTitle = entry.title;
+            // Only publish the entry once it is filled, it can be read without the lock
+            mCache.put(cacheKey, entry);
+        } else {
+            sMemoryHits.increment();
         }
 
         return entry;
@@ -609,6 +728,15 @@ public class IconCache {
         mIconDb.clear();
     }
 
+    public void dump(String prefix, PrintWriter writer) {
+        mCache.dump(prefix, writer);
+        writer.println(prefix + "IconCache rendered icons: " + mRenderedIcons.size() + "/"
+                + mRenderedIcons.maxSize() + " bytes, hits=" + mRenderedIcons.hitCount()
+                + " misses=" + mRenderedIcons.missCount());
+        writer.println(prefix + "IconCache DB refresh: " + mIconUpdateDone + "/"
+                + mIconUpdateTotal + " apps");
+    }
+
     /**
      * Adds a default package entry in the cache. This entry is not persisted and will be removed
      * when the cache is flushed.
@@ -633,6 +761,7 @@ public class IconCache {
             li.recycle();
         }
         if (!TextUtils.isEmpty(title) && entry.icon != null) {
+            // Put the entry again, as its icon might have changed
             mCache.put(cacheKey, entry);
         }
     }
@@ -737,6 +866,151 @@ public class IconCache {
         return false;
     }
 
+    /**
+     * Loads the entries for {@param keys} from the DB into the memory cache. The rows are read
+     * with a few queries per user and the icons are decoded in parallel. Keys which are already
+     * cached or not in the DB are left to the regular lookups.
+     */
+    public void prefetch(Collection<ComponentKey> keys, boolean useLowResIcon) {
+        Preconditions.assertWorkerThread();
+        HashMap<UserHandle, ArrayList<String>> componentsByUser = new HashMap<>();
+        for (ComponentKey key : keys) {
+            if (getCachedEntry(key, useLowResIcon) == null) {
+                ArrayList<String> components = componentsByUser.get(key.user);
+                if (components == null) {
+                    components = new ArrayList<>();
+                    componentsByUser.put(key.user, components);
+                }
+                components.add(key.componentName.flattenToString());
+            }
+        }
+
+        ArrayList<PrefetchedRow> rows = new ArrayList<>();
+        for (Map.Entry<UserHandle, ArrayList<String>> userComponents
+                : componentsByUser.entrySet()) {
+            UserHandle user = userComponents.getKey();
+            String userSerial = Long.toString(mUserManager.getSerialNumberForUser(user));
+            ArrayList<String> components = userComponents.getValue();
+            for (int start = 0; start < components.size(); start += PREFETCH_QUERY_SIZE) {
+                List<String> chunk = components.subList(start,
+                        Math.min(start + PREFETCH_QUERY_SIZE, components.size()));
+                queryPrefetchedRows(chunk, user, userSerial, useLowResIcon, rows);
+            }
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        int stripes = Math.min(PREFETCH_THREADS, rows.size());
+        CountDownLatch latch = new CountDownLatch(stripes - 1);
+        for (int i = 1; i < stripes; i++) {
+            int stripe = i;
+            Utilities.THREAD_POOL_EXECUTOR.execute(() -> {
+                try {
+                    decodePrefetchedRows(rows, stripe, stripes, useLowResIcon);
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        decodePrefetchedRows(rows, 0, stripes, useLowResIcon);
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            return;
+        }
+
+        synchronized (this) {
+            for (PrefetchedRow row : rows) {
+                if (row.entry != null && getCachedEntry(row.key, useLowResIcon) == null) {
+                    mCache.put(row.key, row.entry);
+                    sPrefetched.increment();
+                }
+            }
+        }
+    }
+
+    private void queryPrefetchedRows(List<String> components, UserHandle user, String userSerial,
+            boolean lowRes, ArrayList<PrefetchedRow> out) {
+        String[] args = new String[components.size() + 1];
+        StringBuilder selection = new StringBuilder(IconDB.COLUMN_USER + " = ? AND "
+                + IconDB.COLUMN_COMPONENT + " IN (");
+        args[0] = userSerial;
+        for (int i = 0; i < components.size(); i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+            args[i + 1] = components.get(i);
+        }
+        selection.append(")");
+
+        Cursor c = null;
+        try {
+            c = mIconDb.query(
+                    new String[]{IconDB.COLUMN_COMPONENT,
+                            lowRes ? IconDB.COLUMN_ICON_LOW_RES : IconDB.COLUMN_ICON,
+                            IconDB.COLUMN_ICON_COLOR, IconDB.COLUMN_LABEL},
+                    selection.toString(), args);
+            while (c.moveToNext()) {
+                ComponentName cn = ComponentName.unflattenFromString(c.getString(0));
+                String label = c.getString(3);
+                // Entries without a label are completed by cacheLocked
+                if (cn != null && !TextUtils.isEmpty(label)) {
+                    out.add(new PrefetchedRow(new ComponentKey(cn, user), c.getBlob(1),
+                            c.getInt(2), label));
+                }
+            }
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Error reading icon cache", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    private void decodePrefetchedRows(List<PrefetchedRow> rows, int stripe, int stripes,
+            boolean lowRes) {
+        BitmapFactory.Options options = null;
+        BitmapFactory.Options sharedOptions = lowRes ? mLowResOptions : mHighResOptions;
+        if (sharedOptions != null) {
+            // Options hold the outputs of a decode, so every thread needs its own
+            options = new BitmapFactory.Options();
+            options.inPreferredConfig = sharedOptions.inPreferredConfig;
+        }
+        for (int i = stripe; i < rows.size(); i += stripes) {
+            PrefetchedRow row = rows.get(i);
+            Bitmap icon = decodeIcon(row.data, options);
+            if (icon == null) {
+                continue;
+            }
+            CacheEntry entry = new CacheEntry();
+            entry.icon = icon;
+            // Set the alpha to be 255, so that we never have a wrong color
+            entry.color = ColorUtils.setAlphaComponent(row.color, 255);
+            entry.isLowResIcon = lowRes;
+            entry.title = row.label;
+            entry.contentDescription = mUserManager.getBadgedLabelForUser(
+                    entry.title, row.key.user);
+            entry.originalTitle = entry.title;
+            row.entry = entry;
+        }
+    }
+
+    private static class PrefetchedRow {
+
+        final ComponentKey key;
+        final byte[] data;
+        final int color;
+        final String label;
+        CacheEntry entry;
+
+        PrefetchedRow(ComponentKey key, byte[] data, int color, String label) {
+            this.key = key;
+            this.data = data;
+            this.color = color;
+            this.label = label;
+        }
+    }
+
     public static abstract class IconLoadRequest implements Runnable {
         private final Handler mHandler;
         private final Runnable mEndRunnable;
@@ -761,67 +1035,127 @@ public class IconCache {
         }
     }
 
+    @Thunk static class IconUpdate {
+        final ComponentKey key;
+        final CacheEntry entry;
+        final ContentValues values;
+
+        IconUpdate(ComponentKey key, CacheEntry entry, ContentValues values) {
+            this.key = key;
+            this.entry = entry;
+            this.values = values;
+        }
+    }
+
     /**
-     * A runnable that updates invalid icons and adds missing icons in the DB for the provided
-     * LauncherActivityInfo list. Items are updated/added one at a time, so that the
-     * worker thread doesn't get blocked.
+     * Updates invalid icons and adds missing icons in the DB for the provided
+     * LauncherActivityInfo lists. Icons are rendered in batches on {@link #mIconUpdateExecutor},
+     * and every batch is written in a single transaction on the worker thread. Only the writes
+     * run on the worker thread, so other model tasks run between batches. The model is notified
+     * of the updated packages after every batch.
      */
-    @Thunk class SerializedIconUpdateTask implements Runnable {
+    @Thunk class BatchedIconUpdateTask {
+        private final int mGeneration = mIconUpdateGeneration;
         private final long mUserSerial;
+        private final UserHandle mUser;
         private final HashMap<String, PackageInfo> mPkgInfoMap;
-        private final Stack<LauncherActivityInfo> mAppsToAdd;
-        private final Stack<LauncherActivityInfo> mAppsToUpdate;
-        private final HashSet<String> mUpdatedPackages = new HashSet<>();
-
-        @Thunk SerializedIconUpdateTask(long userSerial, HashMap<String, PackageInfo> pkgInfoMap,
-                Stack<LauncherActivityInfo> appsToAdd,
-                Stack<LauncherActivityInfo> appsToUpdate) {
+        // Apps to update come first, as they may be visible with stale icons
+        private final ArrayList<LauncherActivityInfo> mApps;
+        private final int mUpdateCount;
+        private int mNext = 0;
+
+        @Thunk BatchedIconUpdateTask(long userSerial, HashMap<String, PackageInfo> pkgInfoMap,
+                List<LauncherActivityInfo> appsToUpdate,
+                Collection<LauncherActivityInfo> appsToAdd) {
             mUserSerial = userSerial;
+            mUser = mUserManager.getUserForSerialNumber(userSerial);
             mPkgInfoMap = pkgInfoMap;
-            mAppsToAdd = appsToAdd;
-            mAppsToUpdate = appsToUpdate;
+            mApps = new ArrayList<>(appsToUpdate.size() + appsToAdd.size());
+            mApps.addAll(appsToUpdate);
+            mApps.addAll(appsToAdd);
+            mUpdateCount = appsToUpdate.size();
+            mIconUpdateTotal += mApps.size();
         }
 
-        @Override
-        public void run() {
-            if (!mAppsToUpdate.isEmpty()) {
-                LauncherActivityInfo app = mAppsToUpdate.pop();
-                String pkg = app.getComponentName().getPackageName();
-                PackageInfo info = mPkgInfoMap.get(pkg);
-                addIconToDBAndMemCache(app, info, mUserSerial, true /*replace existing*/);
-                mUpdatedPackages.add(pkg);
-
-                if (mAppsToUpdate.isEmpty() && !mUpdatedPackages.isEmpty()) {
-                    // No more app to update. Notify model.
-                    LauncherAppState.getInstance(mContext).getModel().onPackageIconsUpdated(
-                            mUpdatedPackages, mUserManager.getUserForSerialNumber(mUserSerial));
-                }
+        /**
+         * Renders the next batch on the icon render threads, and posts it to the worker thread
+         * once all its icons are rendered.
+         */
+        void renderNextBatch() {
+            int start = mNext;
+            int end = Math.min(start + ICON_UPDATE_BATCH_SIZE, mApps.size());
+            mNext = end;
+
+            IconUpdate[] batch = new IconUpdate[end - start];
+            AtomicInteger remaining = new AtomicInteger(batch.length);
+            for (int i = start; i < end; i++) {
+                final int index = i;
+                mIconUpdateExecutor.execute(() -> {
+                    try {
+                        if (mGeneration == mIconUpdateGeneration) {
+                            batch[index - start] = renderIcon(index);
+                        }
+                    } catch (Exception e) {
+                        Log.e(TAG, "Failed to render icon for " + mApps.get(index), e);
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            mWorkerHandler.postAtTime(() -> onBatchRendered(batch, start),
+                                    ICON_UPDATE_TOKEN, SystemClock.uptimeMillis());
+                        }
+                    }
+                });
+            }
+        }
 
-                // Let it run one more time.
-                scheduleNext();
-            } else if (!mAppsToAdd.isEmpty()) {
-                LauncherActivityInfo app = mAppsToAdd.pop();
-                PackageInfo info = mPkgInfoMap.get(app.getComponentName().getPackageName());
-                // We do not check the mPkgInfoMap when generating the mAppsToAdd. Although every
-                // app should have package info, this is not guaranteed by the api
-                if (info != null) {
-                    addIconToDBAndMemCache(app, info, mUserSerial, false /*replace existing*/);
-                }
+        private IconUpdate renderIcon(int index) {
+            LauncherActivityInfo app = mApps.get(index);
+            PackageInfo info = mPkgInfoMap.get(app.getComponentName().getPackageName());
+            // We do not check the mPkgInfoMap when generating the apps to add. Although every
+            // app should have package info, this is not guaranteed by the api
+            if (info == null) {
+                return null;
+            }
+            return createIconUpdate(app, info, mUserSerial, index < mUpdateCount);
+        }
 
-                if (!mAppsToAdd.isEmpty()) {
-                    scheduleNext();
+        @Thunk void onBatchRendered(IconUpdate[] batch, int start) {
+            if (mGeneration != mIconUpdateGeneration) {
+                return;
+            }
+            // Render the next batch while this one is written
+            if (mNext < mApps.size()) {
+                renderNextBatch();
+            }
+
+            ArrayList<IconUpdate> updates = new ArrayList<>(batch.length);
+            HashSet<String> updatedPackages = new HashSet<>();
+            for (int i = 0; i < batch.length; i++) {
+                if (batch[i] == null) {
+                    continue;
+                }
+                updates.add(batch[i]);
+                if (start + i < mUpdateCount) {
+                    updatedPackages.add(batch[i].key.componentName.getPackageName());
                 }
             }
-        }
+            applyIconUpdates(updates);
+            mIconUpdateDone += batch.length;
+            if (mIconUpdateDone == mIconUpdateTotal) {
+                long duration = SystemClock.elapsedRealtime() - mIconUpdateStartTime;
+                StartupMetrics.record("IconCache: DB refresh icons/s",
+                        mIconUpdateDone * 1000L / Math.max(duration, 1));
+            }
 
-        public void scheduleNext() {
-            mWorkerHandler.postAtTime(this, ICON_UPDATE_TOKEN, SystemClock.uptimeMillis() + 1);
+            if (!updatedPackages.isEmpty()) {
+                LauncherAppState.getInstance(mContext).getModel().onPackageIconsUpdated(
+                        updatedPackages, mUser);
+            }
         }
     }
 
     private static final class IconDB extends SQLiteCacheHelper {
 
-        private final static int RELEASE_VERSION = 28;
+        private final static int RELEASE_VERSION = 29;
 
         private final static String TABLE_NAME = "icons";
         private final static String COLUMN_ROWID = "rowid";
@@ -861,8 +1195,8 @@ public class IconCache {
     private ContentValues newContentValues(Bitmap icon, Bitmap lowResIcon, int iconColor,
             String label, String packageName) {
         ContentValues values = new ContentValues();
-        values.put(IconDB.COLUMN_ICON, Utilities.flattenBitmap(icon));
-        values.put(IconDB.COLUMN_ICON_LOW_RES, Utilities.flattenBitmap(lowResIcon));
+        values.put(IconDB.COLUMN_ICON, IconBlobFormat.encode(icon));
+        values.put(IconDB.COLUMN_ICON_LOW_RES, IconBlobFormat.encode(lowResIcon));
         values.put(IconDB.COLUMN_ICON_COLOR, iconColor);
 
         values.put(IconDB.COLUMN_LABEL, label);
@@ -881,9 +1215,15 @@ public class IconCache {
     }
 
     private static Bitmap loadIconNoResize(Cursor c, int iconIndex, BitmapFactory.Options options) {
-        byte[] data = c.getBlob(iconIndex);
+        return decodeIcon(c.getBlob(iconIndex), options);
+    }
+
+    private static Bitmap decodeIcon(byte[] data, BitmapFactory.Options options) {
+        if (data == null) {
+            return null;
+        }
         try {
-            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            return IconBlobFormat.decode(data, options);
         } catch (Exception e) {
             return null;
         }
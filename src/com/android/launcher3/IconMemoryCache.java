@@ -0,0 +1,234 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3;
+
+import android.graphics.Bitmap;
+import android.os.UserHandle;
+
+import com.android.launcher3.IconCache.CacheEntry;
+import com.android.launcher3.util.ComponentKey;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory part of {@link IconCache}, bounded by the bytes used by the cached icons.
+ *
+ * Keys are spread over independently locked segments, so that lookups from different threads
+ * rarely wait on each other. Every segment keeps low-res and high-res entries in separate LRU
+ * maps with separate budgets, so that many low-res icons never push out the high-res ones and
+ * the other way around.
+ *
+ * The size of an entry is taken when it is put. Entries which are changed afterwards have to be
+ * put again to be accounted correctly.
+ */
+class IconMemoryCache {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment[] mSegments = new Segment[SEGMENT_COUNT];
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mHighResEvictions = new AtomicLong();
+    private final AtomicLong mLowResEvictions = new AtomicLong();
+
+    IconMemoryCache(long maxHighResBytes, long maxLowResBytes) {
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            mSegments[i] = new Segment(maxHighResBytes / SEGMENT_COUNT,
+                    maxLowResBytes / SEGMENT_COUNT);
+        }
+    }
+
+    private Segment getSegment(ComponentKey key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return mSegments[(hash & 0x7fffffff) % SEGMENT_COUNT];
+    }
+
+    public CacheEntry get(ComponentKey key) {
+        CacheEntry entry = getSegment(key).get(key);
+        (entry != null ? mHits : mMisses).incrementAndGet();
+        return entry;
+    }
+
+    public void put(ComponentKey key, CacheEntry entry) {
+        getSegment(key).put(key, entry);
+    }
+
+    public void remove(ComponentKey key) {
+        getSegment(key).remove(key);
+    }
+
+    /**
+     * Removes all the entries of {@param packageName} for {@param user}.
+     */
+    public void removePackage(String packageName, UserHandle user) {
+        for (Segment segment : mSegments) {
+            segment.removePackage(packageName, user);
+        }
+    }
+
+    public void clear() {
+        for (Segment segment : mSegments) {
+            segment.clear();
+        }
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        int highResCount = 0;
+        int lowResCount = 0;
+        long highResBytes = 0;
+        long lowResBytes = 0;
+        for (Segment segment : mSegments) {
+            synchronized (segment) {
+                highResCount += segment.mHighRes.size();
+                lowResCount += segment.mLowRes.size();
+                highResBytes += segment.mHighResBytes;
+                lowResBytes += segment.mLowResBytes;
+            }
+        }
+        writer.println(prefix + "IconCache memory:");
+        writer.println(prefix + "\thigh-res: " + highResCount + " entries, " + highResBytes
+                + "/" + mSegments[0].mMaxHighResBytes * SEGMENT_COUNT + " bytes, "
+                + mHighResEvictions.get() + " evictions");
+        writer.println(prefix + "\tlow-res: " + lowResCount + " entries, " + lowResBytes
+                + "/" + mSegments[0].mMaxLowResBytes * SEGMENT_COUNT + " bytes, "
+                + mLowResEvictions.get() + " evictions");
+        writer.println(prefix + "\thits=" + mHits.get() + " misses=" + mMisses.get());
+    }
+
+    private static int getByteCount(CacheEntry entry) {
+        Bitmap icon = entry.icon;
+        return icon == null || icon.isRecycled() ? 0 : icon.getAllocationByteCount();
+    }
+
+    private class Segment {
+
+        final long mMaxHighResBytes;
+        final long mMaxLowResBytes;
+
+        // Access ordered, least recently used first
+        final LinkedHashMap<ComponentKey, Node> mHighRes = new LinkedHashMap<>(16, 0.75f, true);
+        final LinkedHashMap<ComponentKey, Node> mLowRes = new LinkedHashMap<>(16, 0.75f, true);
+        long mHighResBytes;
+        long mLowResBytes;
+
+        Segment(long maxHighResBytes, long maxLowResBytes) {
+            mMaxHighResBytes = maxHighResBytes;
+            mMaxLowResBytes = maxLowResBytes;
+        }
+
+        synchronized CacheEntry get(ComponentKey key) {
+            Node node = mHighRes.get(key);
+            if (node == null) {
+                node = mLowRes.get(key);
+            }
+            return node != null ? node.entry : null;
+        }
+
+        synchronized void put(ComponentKey key, CacheEntry entry) {
+            remove(key);
+            Node node = new Node(entry, entry.isLowResIcon, getByteCount(entry));
+            if (node.lowRes) {
+                mLowRes.put(key, node);
+                mLowResBytes += node.bytes;
+                mLowResBytes -= trim(mLowRes, mLowResBytes, mMaxLowResBytes, mLowResEvictions);
+            } else {
+                mHighRes.put(key, node);
+                mHighResBytes += node.bytes;
+                mHighResBytes -= trim(mHighRes, mHighResBytes, mMaxHighResBytes,
+                        mHighResEvictions);
+            }
+        }
+
+        synchronized void remove(ComponentKey key) {
+            Node node = mHighRes.remove(key);
+            if (node != null) {
+                mHighResBytes -= node.bytes;
+            }
+            node = mLowRes.remove(key);
+            if (node != null) {
+                mLowResBytes -= node.bytes;
+            }
+        }
+
+        synchronized void removePackage(String packageName, UserHandle user) {
+            mHighResBytes -= removePackage(mHighRes, packageName, user);
+            mLowResBytes -= removePackage(mLowRes, packageName, user);
+        }
+
+        synchronized void clear() {
+            mHighRes.clear();
+            mLowRes.clear();
+            mHighResBytes = 0;
+            mLowResBytes = 0;
+        }
+
+        /**
+         * Evicts the least recently used entries until {@param bytes} fits in
+         * {@param maxBytes}, always keeping the most recently used entry.
+         * @return the number of bytes evicted
+         */
+        private long trim(LinkedHashMap<ComponentKey, Node> map, long bytes, long maxBytes,
+                AtomicLong evictions) {
+            long evicted = 0;
+            Iterator<Node> iterator = map.values().iterator();
+            while (bytes - evicted > maxBytes && map.size() > 1) {
+                evicted += iterator.next().bytes;
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+            return evicted;
+        }
+
+        private long removePackage(LinkedHashMap<ComponentKey, Node> map, String packageName,
+                UserHandle user) {
+            long removed = 0;
+            Iterator<Map.Entry<ComponentKey, Node>> iterator = map.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<ComponentKey, Node> mapEntry = iterator.next();
+                ComponentKey key = mapEntry.getKey();
+                if (key.componentName.getPackageName().equals(packageName)
+                        && key.user.equals(user)) {
+                    removed += mapEntry.getValue().bytes;
+                    iterator.remove();
+                }
+            }
+            return removed;
+        }
+    }
+
+    private static class Node {
+
+        final CacheEntry entry;
+        final boolean lowRes;
+        final int bytes;
+
+        Node(CacheEntry entry, boolean lowRes, int bytes) {
+            this.entry = entry;
+            this.lowRes = lowRes;
+            this.bytes = bytes;
+        }
+    }
+}
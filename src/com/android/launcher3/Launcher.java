@@ -55,6 +55,7 @@ import android.os.Parcelable;
 import android.os.Process;
 import android.os.StrictMode;
 import android.os.StrictMode.OnVmViolationListener;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.strictmode.Violation;
 import android.support.annotation.NonNull;
@@ -125,6 +126,7 @@ import com.android.launcher3.util.PackageManagerHelper;
 import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.PendingRequestArgs;
 import com.android.launcher3.util.SystemUiController;
+import com.android.launcher3.util.StartupMetrics;
 import com.android.launcher3.util.Themes;
 import com.android.launcher3.util.Thunk;
 import com.android.launcher3.util.TraceHelper;
@@ -199,6 +201,10 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
     private static final int NEW_APPS_ANIMATION_INACTIVE_TIMEOUT_SECONDS = 5;
     @Thunk static final int NEW_APPS_ANIMATION_DELAY = 500;
 
+    private static final String WORKSPACE_BIND_SECTION = "WORKSPACE_BIND";
+    // Whether the first page was bound in this process
+    private static boolean sFirstPageBound;
+
     private LauncherAppTransitionManager mAppTransitionManager;
     private Configuration mOldConfig;
 
@@ -776,6 +782,10 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
 
         mAppWidgetHost.setListenIfResumed(false);
 
+        if (!isWorkspaceLoading()) {
+            mModel.saveWorkspaceSnapshot(getCurrentWorkspaceScreen());
+        }
+
         NotificationListener.removeNotificationsChangedListener();
         getStateManager().moveToRestState();
 
@@ -841,6 +851,7 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
         super.onPause();
         mDragController.cancelDrag();
         mDragController.resetLastGestureUpTime();
+        mModelWriter.flushPendingUpdates();
 
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.onPause();
@@ -1867,6 +1878,7 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
      * Implementation of the method from LauncherModel.Callbacks.
      */
     public void startBinding() {
+        TraceHelper.beginSection(WORKSPACE_BIND_SECTION);
         TraceHelper.beginSection("startBinding");
         // Floating panels (except the full widget sheet) are associated with individual icons. If
         // we are starting a fresh bind, close all such panels as all the icons are about
@@ -2234,6 +2246,12 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
 
     @Override
     public void finishFirstPageBind(final ViewOnDrawExecutor executor) {
+        TraceHelper.partitionSection(WORKSPACE_BIND_SECTION, "first page");
+        if (!sFirstPageBound && Utilities.ATLEAST_NOUGAT) {
+            sFirstPageBound = true;
+            StartupMetrics.record("Process start to first page",
+                    SystemClock.uptimeMillis() - Process.getStartUptimeMillis());
+        }
         AlphaProperty property = mDragLayer.getAlphaProperty(ALPHA_INDEX_LAUNCHER_LOAD);
         if (property.getValue() < 1) {
             ObjectAnimator anim = ObjectAnimator.ofFloat(property, MultiValueAlpha.VALUE, 1);
@@ -2275,6 +2293,7 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
         mWorkspace.setCurrentPage(pageBoundFirst);
 
         TraceHelper.endSection("finishBindingItems");
+        TraceHelper.endSection(WORKSPACE_BIND_SECTION);
     }
 
     private boolean canRunNewAppsAnimation() {
@@ -2435,6 +2454,8 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
         }
 
         mModel.dumpState(prefix, fd, writer, args);
+        StartupMetrics.dump(this, prefix, writer);
+        LauncherAppState.getInstance(this).getIconCache().dump(prefix, writer);
 
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.dump(prefix, fd, writer, args);
@@ -52,6 +52,7 @@ public class LauncherAppState {
     private final WidgetPreviewLoader mWidgetCache;
     private final InvariantDeviceProfile mInvariantDeviceProfile;
     private final SettingsObserver mNotificationBadgingObserver;
+    private final LauncherDao mDao;
     private Launcher mLauncher;
 
     public static LauncherAppState getInstance(final Context context) {
@@ -84,13 +85,15 @@ public class LauncherAppState {
     }
 
     private LauncherAppState(Context context) {
-        if (getLocalProvider(context) == null) {
+        LauncherProvider provider = getLocalProvider(context);
+        if (provider == null) {
             throw new RuntimeException(
                     "Initializing LauncherAppState in the absence of LauncherProvider");
         }
         Log.v(Launcher.TAG, "LauncherAppState initiated", new Throwable());
         Preconditions.assertUIThread();
         mContext = context;
+        mDao = new LauncherDao(provider);
 
         mInvariantDeviceProfile = new InvariantDeviceProfile(mContext);
         mIconCache = new IconCache(mContext, mInvariantDeviceProfile);
@@ -159,6 +162,10 @@ public class LauncherAppState {
         return mLauncher;
     }
 
+    public LauncherDao getDao() {
+        return mDao;
+    }
+
     public IconCache getIconCache() {
         return mIconCache;
     }
@@ -0,0 +1,177 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.android.launcher3.LauncherSettings.ChangeLogColumns;
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.provider.LauncherDbUtils.SQLiteTransaction;
+
+import java.util.List;
+
+/**
+ * Direct access to the favorites of {@link LauncherProvider}, for the launcher's own reads and
+ * writes.
+ *
+ * Going through the ContentResolver costs a provider lookup, the transport and a cursor wrapper
+ * per call even in process, and every row written notifies the provider listeners. This uses
+ * the provider's DB helper directly, with prepared statements for position updates and deletes,
+ * and notifies the listeners once per call. External callers still go through the provider.
+ */
+public class LauncherDao {
+
+    private static final String[] POSITION_COLUMNS = {
+            Favorites.CONTAINER, Favorites.SCREEN, Favorites.CELLX, Favorites.CELLY,
+            Favorites.RANK};
+
+    private static final String UPDATE_POSITION_SQL = "UPDATE " + Favorites.TABLE_NAME + " SET "
+            + Favorites.CONTAINER + " = ?, "
+            + Favorites.SCREEN + " = ?, "
+            + Favorites.CELLX + " = ?, "
+            + Favorites.CELLY + " = ?, "
+            + Favorites.RANK + " = ?, "
+            + ChangeLogColumns.MODIFIED + " = ? "
+            + "WHERE " + Favorites._ID + " = ?";
+
+    private static final String DELETE_SQL = "DELETE FROM " + Favorites.TABLE_NAME
+            + " WHERE " + Favorites._ID + " = ?";
+
+    private final LauncherProvider mProvider;
+
+    // Compiled on first use, guarded by this
+    private SQLiteStatement mUpdatePosition;
+    private SQLiteStatement mDelete;
+
+    LauncherDao(LauncherProvider provider) {
+        mProvider = provider;
+    }
+
+    private SQLiteDatabase getDb() {
+        mProvider.createDbIfNotExists();
+        return mProvider.mOpenHelper.getWritableDatabase();
+    }
+
+    /**
+     * @see SQLiteDatabase#query(String, String[], String, String[], String, String, String)
+     */
+    public Cursor queryFavorites(String[] projection, String selection, String[] selectionArgs) {
+        return getDb().query(Favorites.TABLE_NAME, projection, selection, selectionArgs,
+                null, null, null);
+    }
+
+    public long generateNewItemId() {
+        mProvider.createDbIfNotExists();
+        return mProvider.mOpenHelper.generateNewItemId();
+    }
+
+    public long generateNewScreenId() {
+        mProvider.createDbIfNotExists();
+        return mProvider.mOpenHelper.generateNewScreenId();
+    }
+
+    /**
+     * Inserts a favorite, {@param values} must contain its id.
+     * @return whether it was inserted
+     */
+    public boolean insert(ContentValues values) {
+        SQLiteDatabase db = getDb();
+        LauncherProvider.addModifiedTime(values);
+        long rowId = LauncherProvider.dbInsertAndCheck(mProvider.mOpenHelper, db,
+                Favorites.TABLE_NAME, null, values);
+        if (rowId < 0) {
+            return false;
+        }
+        mProvider.notifyListeners();
+        return true;
+    }
+
+    /**
+     * Updates the favorites with {@param ids} to the values at the same index in {@param values},
+     * in a single transaction. Updates of only the position columns use a prepared statement.
+     */
+    public synchronized void update(long[] ids, List<ContentValues> values) {
+        SQLiteDatabase db = getDb();
+        long now = System.currentTimeMillis();
+        boolean changed = false;
+        try (SQLiteTransaction t = new SQLiteTransaction(db)) {
+            for (int i = 0; i < ids.length; i++) {
+                changed |= updateLocked(db, ids[i], values.get(i), now);
+            }
+            t.commit();
+        }
+        if (changed) {
+            mProvider.notifyListeners();
+        }
+    }
+
+    private boolean updateLocked(SQLiteDatabase db, long id, ContentValues values, long now) {
+        if (!isPositionOnly(values)) {
+            values.put(ChangeLogColumns.MODIFIED, now);
+            return db.update(Favorites.TABLE_NAME, values, Favorites._ID + " = ?",
+                    new String[] {Long.toString(id)}) > 0;
+        }
+        if (mUpdatePosition == null) {
+            mUpdatePosition = db.compileStatement(UPDATE_POSITION_SQL);
+        }
+        for (int i = 0; i < POSITION_COLUMNS.length; i++) {
+            mUpdatePosition.bindLong(i + 1, values.getAsLong(POSITION_COLUMNS[i]));
+        }
+        mUpdatePosition.bindLong(POSITION_COLUMNS.length + 1, now);
+        mUpdatePosition.bindLong(POSITION_COLUMNS.length + 2, id);
+        return mUpdatePosition.executeUpdateDelete() > 0;
+    }
+
+    private static boolean isPositionOnly(ContentValues values) {
+        if (values.size() != POSITION_COLUMNS.length) {
+            return false;
+        }
+        for (String column : POSITION_COLUMNS) {
+            if (values.getAsLong(column) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the favorites with {@param ids}, in a single transaction.
+     */
+    public synchronized void delete(List<Long> ids) {
+        SQLiteDatabase db = getDb();
+        if (mDelete == null) {
+            mDelete = db.compileStatement(DELETE_SQL);
+        }
+        int count = 0;
+        try (SQLiteTransaction t = new SQLiteTransaction(db)) {
+            for (long id : ids) {
+                mDelete.bindLong(1, id);
+                count += mDelete.executeUpdateDelete();
+            }
+            t.commit();
+        }
+        if (count > 0) {
+            mProvider.notifyListeners();
+        }
+    }
+}
@@ -37,6 +37,7 @@ import android.util.Log;
 import android.util.Pair;
 
 import ch.deletescape.lawnchair.LawnchairUtilsKt;
+import ch.deletescape.lawnchair.allapps.SearchableApps;
 import ch.deletescape.lawnchair.blur.BlurWallpaperProvider;
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.PackageInstallerCompat.PackageInstallInfo;
@@ -53,6 +54,7 @@ import com.android.launcher3.model.PackageInstallStateChangedTask;
 import com.android.launcher3.model.PackageUpdatedTask;
 import com.android.launcher3.model.ShortcutsChangedTask;
 import com.android.launcher3.model.UserLockStateChangedTask;
+import com.android.launcher3.model.WorkspaceSnapshot;
 import com.android.launcher3.provider.LauncherDbUtils;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
@@ -124,6 +126,9 @@ public class LauncherModel extends BroadcastReceiver
     // < only access in worker thread >
     private final AllAppsList mBgAllAppsList;
 
+    // Writers with item updates which are not written to the DB yet
+    private final HashSet<ModelWriter> mWritersWithPendingUpdates = new HashSet<>();
+
     /**
      * All the static data should be accessed on the background thread, A lock should be acquired
      * on this object when accessing any data from this model.
@@ -218,6 +223,49 @@ public class LauncherModel extends BroadcastReceiver
                 hasVerticalHotseat, verifyChanges);
     }
 
+    /**
+     * Called by {@param writer} when it has item updates which are not written yet, so that they
+     * can be written before the workspace is loaded from the DB.
+     */
+    public void onPendingWrites(ModelWriter writer) {
+        synchronized (mWritersWithPendingUpdates) {
+            mWritersWithPendingUpdates.add(writer);
+        }
+    }
+
+    /**
+     * Called by {@param writer} when it takes its pending item updates to write them.
+     */
+    public void onPendingWritesDone(ModelWriter writer) {
+        synchronized (mWritersWithPendingUpdates) {
+            mWritersWithPendingUpdates.remove(writer);
+        }
+    }
+
+    private void flushPendingWrites() {
+        synchronized (mWritersWithPendingUpdates) {
+            // The writers remove themselves once they take their updates on the worker thread
+            for (ModelWriter writer : mWritersWithPendingUpdates) {
+                writer.flushPendingUpdates();
+            }
+        }
+    }
+
+    /**
+     * Saves the hotseat and the page at {@param currentScreen} so that they can be bound before
+     * the workspace is loaded on the next process start.
+     */
+    public void saveWorkspaceSnapshot(final int currentScreen) {
+        runOnWorkerThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isModelLoaded()) {
+                    WorkspaceSnapshot.save(mApp, sBgDataModel, currentScreen);
+                }
+            }
+        });
+    }
+
     static void checkItemInfoLocked(
             final long itemId, final ItemInfo item, StackTraceElement[] stackTrace) {
         ItemInfo modelItem = sBgDataModel.itemsIdMap.get(itemId);
@@ -389,6 +437,7 @@ public class LauncherModel extends BroadcastReceiver
     }
 
     public void onPackagesReload(UserHandle user) {
+        SearchableApps.invalidateInstance();
         enqueueModelUpdateTask(new PackageUpdatedTask(
                 PackageUpdatedTask.OP_RELOAD, user));
     }
@@ -437,6 +486,7 @@ public class LauncherModel extends BroadcastReceiver
             stopLoader();
             mModelLoaded = false;
         }
+        SearchableApps.invalidateInstance();
     }
 
     public void forceReload() {
@@ -454,6 +504,7 @@ public class LauncherModel extends BroadcastReceiver
             stopLoader();
             mModelLoaded = false;
         }
+        SearchableApps.invalidateInstance();
 
         // Start the loader if launcher is already running, otherwise the loader will run,
         // the next time launcher starts
@@ -522,6 +573,8 @@ public class LauncherModel extends BroadcastReceiver
     public void startLoaderForResults(LoaderResults results) {
         synchronized (mLock) {
             stopLoader();
+            // Pending writes are posted to the worker thread before the loader, so it sees them
+            flushPendingWrites();
             mLoaderTask = new LoaderTask(mApp, mBgAllAppsList, sBgDataModel, results);
             runOnWorkerThread(mLoaderTask);
         }
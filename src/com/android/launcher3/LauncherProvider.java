@@ -433,6 +433,8 @@ public class LauncherProvider extends ContentProvider {
      * Overridden in tests
      */
     protected void notifyListeners() {
+        // Changes made in a burst, like the operations of a batch, are notified once
+        mListenerHandler.removeMessages(ChangeListenerWrapper.MSG_LAUNCHER_PROVIDER_CHANGED);
         mListenerHandler.sendEmptyMessage(ChangeListenerWrapper.MSG_LAUNCHER_PROVIDER_CHANGED);
     }
 
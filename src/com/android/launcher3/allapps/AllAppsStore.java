@@ -54,6 +54,11 @@ public class AllAppsStore {
     private boolean mDeferUpdates = false;
     private boolean mUpdatePending = false;
 
+    // Apps added, updated or removed since the listeners were notified, null if all apps changed
+    private HashSet<ComponentKey> mChangedApps = new HashSet<>();
+    // The changes the listeners are being notified of
+    private Set<ComponentKey> mNotifiedChanges;
+
     public Collection<AppInfo> getApps() {
         return mComponentToAppMap.values();
     }
@@ -63,9 +68,19 @@ public class AllAppsStore {
      */
     public void setApps(List<AppInfo> apps) {
         mComponentToAppMap.clear();
+        mChangedApps = null;
         addOrUpdateApps(apps);
     }
 
+    /**
+     * Returns the apps which changed in the update the listeners are being notified of, or null
+     * if all of them may have changed.
+     */
+    @Nullable
+    public Set<ComponentKey> getChangedApps() {
+        return mNotifiedChanges;
+    }
+
     public AppInfo getApp(ComponentKey key) {
         return mComponentToAppMap.get(key);
     }
@@ -96,7 +111,11 @@ public class AllAppsStore {
      */
     public void addOrUpdateApps(List<AppInfo> apps) {
         for (AppInfo app : apps) {
-            mComponentToAppMap.put(app.toComponentKey(), app);
+            ComponentKey key = app.toComponentKey();
+            mComponentToAppMap.put(key, app);
+            if (mChangedApps != null) {
+                mChangedApps.add(key);
+            }
         }
         notifyUpdate();
     }
@@ -106,7 +125,11 @@ public class AllAppsStore {
      */
     public void removeApps(List<AppInfo> apps) {
         for (AppInfo app : apps) {
-            mComponentToAppMap.remove(app.toComponentKey());
+            ComponentKey key = app.toComponentKey();
+            mComponentToAppMap.remove(key);
+            if (mChangedApps != null) {
+                mChangedApps.add(key);
+            }
         }
         notifyUpdate();
     }
@@ -117,10 +140,13 @@ public class AllAppsStore {
             mUpdatePending = true;
             return;
         }
+        mNotifiedChanges = mChangedApps;
+        mChangedApps = new HashSet<>();
         List<OnUpdateListener> listeners = new ArrayList<>(mUpdateListeners);
         for (OnUpdateListener listener : listeners) {
             listener.onAppsUpdated();
         }
+        mNotifiedChanges = null;
     }
 
     public void addUpdateListener(OnUpdateListener listener) {
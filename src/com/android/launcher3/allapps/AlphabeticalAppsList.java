@@ -20,6 +20,7 @@ import android.content.pm.LauncherActivityInfo;
 
 import android.graphics.Color;
 import android.os.UserHandle;
+import android.support.v7.util.DiffUtil;
 import android.support.v4.graphics.ColorUtils;
 import android.text.TextUtils;
 import ch.deletescape.lawnchair.LawnchairPreferences;
@@ -47,6 +48,7 @@ import com.android.launcher3.util.LabelComparator;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -182,6 +184,11 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
 
     // The set of apps from the system
     private final List<AppInfo> mApps = new ArrayList<>();
+    // The apps in mApps by their key
+    private final HashMap<ComponentKey, AppInfo> mAppsByKey = new HashMap<>();
+    // Whether mApps is only sorted by the app comparator, so that apps can be inserted into it
+    private boolean mAppsSortedByComparator;
+    private boolean mAppsSortedByColors;
     private final AllAppsStore mAllAppsStore;
 
     // The set of filtered apps with the current filter
@@ -221,7 +228,7 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
 
     public void updateItemFilter(ItemInfoMatcher itemFilter) {
         this.mItemFilter = itemFilter;
-        onAppsUpdated();
+        updateApps(null);
     }
 
     /**
@@ -298,7 +305,7 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
         if (mSearchResults != f) {
             boolean same = mSearchResults != null && mSearchResults.equals(f);
             mSearchResults = f;
-            onAppsUpdated();
+            updateApps(null);
             return !same;
         }
         return false;
@@ -308,7 +315,7 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
         if (mSearchSuggestions != suggestions) {
             boolean same = mSearchSuggestions != null && mSearchSuggestions.equals(suggestions);
             mSearchSuggestions = suggestions;
-            onAppsUpdated();
+            updateApps(null);
             return !same;
         }
         return false;
@@ -319,20 +326,31 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
      */
     @Override
     public void onAppsUpdated() {
+        updateApps(mAllAppsStore.getChangedApps());
+    }
+
+    /**
+     * @param changedApps the apps which changed in the store, or null to rebuild the list
+     */
+    private void updateApps(Set<ComponentKey> changedApps) {
+        if (changedApps != null && updateAppsIncrementally(changedApps)) {
+            updateAdapterItemsIncrementally(changedApps);
+            return;
+        }
+
         // Sort the list of apps
         mApps.clear();
+        mAppsByKey.clear();
 
         for (AppInfo app : mAllAppsStore.getApps()) {
             if (mItemFilter == null || mItemFilter.matches(app, null) || hasFilter()) {
                 mApps.add(app);
+                mAppsByKey.put(app.toComponentKey(), app);
             }
         }
 
-        if (prefs.getSortDrawerByColors()) {
-            Collections.sort(mApps, mAppColorComparator);
-        } else {
-            Collections.sort(mApps, mAppNameComparator);
-        }
+        mAppsSortedByColors = prefs.getSortDrawerByColors();
+        Collections.sort(mApps, getAppComparator());
 
         // As a special case for some languages (currently only Simplified Chinese), we may need to
         // coalesce sections
@@ -362,18 +380,126 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
             for (Map.Entry<String, ArrayList<AppInfo>> entry : sectionMap.entrySet()) {
                 mApps.addAll(entry.getValue());
             }
+            mAppsSortedByComparator = false;
         } else {
             // Just compute the section headers for use below
             for (AppInfo info : mApps) {
                 // Add the section to the cache
                 getAndUpdateCachedSectionName(info);
             }
+            mAppsSortedByComparator = true;
         }
 
         // Recompose the set of adapter items from the current set of apps
         updateAdapterItems();
     }
 
+    private Comparator<AppInfo> getAppComparator() {
+        return mAppsSortedByColors ? mAppColorComparator : mAppNameComparator;
+    }
+
+    /**
+     * Moves {@param changedApps} to their sorted position in mApps with a binary search, instead
+     * of sorting all the apps again.
+     * @return false if the list has to be rebuilt instead
+     */
+    private boolean updateAppsIncrementally(Set<ComponentKey> changedApps) {
+        if (!mAppsSortedByComparator || hasFilter()
+                || mAppsSortedByColors != prefs.getSortDrawerByColors()) {
+            return false;
+        }
+        Comparator<AppInfo> comparator = getAppComparator();
+        // Remove all changed apps first, the binary search needs the others to be sorted
+        for (ComponentKey key : changedApps) {
+            AppInfo previous = mAppsByKey.remove(key);
+            if (previous != null) {
+                // The previous info may have been updated in place, so it can't always be found
+                // by its sort order
+                int index = Collections.binarySearch(mApps, previous, comparator);
+                if (index < 0 || mApps.get(index) != previous) {
+                    index = mApps.indexOf(previous);
+                }
+                mApps.remove(index);
+                mCachedSectionNames.remove(previous);
+            }
+        }
+        for (ComponentKey key : changedApps) {
+            AppInfo app = mAllAppsStore.getApp(key);
+            if (app != null && (mItemFilter == null || mItemFilter.matches(app, null))) {
+                int index = Collections.binarySearch(mApps, app, comparator);
+                mApps.add(index < 0 ? -index - 1 : index, app);
+                mAppsByKey.put(key, app);
+                getAndUpdateCachedSectionName(app);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the adapter items, and only notifies the adapter of the items which changed.
+     */
+    private void updateAdapterItemsIncrementally(Set<ComponentKey> changedApps) {
+        ArrayList<AdapterItem> oldItems = new ArrayList<>(mAdapterItems);
+        refillAdapterItems();
+        if (mAdapter != null) {
+            DiffUtil.calculateDiff(new AdapterItemsDiff(oldItems, mAdapterItems, changedApps),
+                    false).dispatchUpdatesTo(mAdapter);
+        }
+    }
+
+    private static class AdapterItemsDiff extends DiffUtil.Callback {
+
+        private final List<AdapterItem> mOldItems;
+        private final List<AdapterItem> mNewItems;
+        private final Set<ComponentKey> mChangedApps;
+
+        AdapterItemsDiff(List<AdapterItem> oldItems, List<AdapterItem> newItems,
+                Set<ComponentKey> changedApps) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+            mChangedApps = changedApps;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            AdapterItem oldItem = mOldItems.get(oldPosition);
+            AdapterItem newItem = mNewItems.get(newPosition);
+            if (oldItem.viewType != newItem.viewType) {
+                return false;
+            }
+            if (oldItem.appInfo != null && newItem.appInfo != null) {
+                return oldItem.appInfo.toComponentKey().equals(newItem.appInfo.toComponentKey());
+            }
+            if (oldItem.folderItem != null && newItem.folderItem != null) {
+                return oldItem.folderItem.getIndex() == newItem.folderItem.getIndex();
+            }
+            return TextUtils.equals(oldItem.suggestion, newItem.suggestion);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            AdapterItem oldItem = mOldItems.get(oldPosition);
+            AdapterItem newItem = mNewItems.get(newPosition);
+            // Folders are cheap to rebind and can change with any app
+            if (oldItem.folderItem != null || oldItem.appInfo != newItem.appInfo) {
+                return false;
+            }
+            // Changed apps are usually updated in place, so the same info may have new contents
+            return oldItem.appInfo == null
+                    || !mChangedApps.contains(oldItem.appInfo.toComponentKey());
+        }
+    }
+
     /**
      * Updates the set of filtered apps with the current filter.  At this point, we expect
      * mCachedSectionNames to have been calculated for the set of all apps in mApps.
@@ -95,6 +95,8 @@ public class AllAppsSearchBarController
     }
 
     public void refreshSearchResult() {
+        // The apps changed, results kept from previous queries are no longer valid.
+        mSearchAlgorithm.invalidate();
         if (TextUtils.isEmpty(mQuery)) {
             return;
         }
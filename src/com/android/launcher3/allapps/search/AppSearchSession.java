@@ -0,0 +1,113 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.allapps.search;
+
+import android.support.annotation.Nullable;
+
+import com.android.launcher3.AppInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the results of the queries typed so far, so that typing only has to look at the results
+ * of the previous query and deleting characters can restore an earlier result without searching.
+ *
+ * The cached queries always form a chain of prefixes of the current query. The session must be
+ * invalidated whenever the searched apps change.
+ *
+ * This class is not thread safe.
+ */
+public class AppSearchSession {
+
+    private static final int MAX_CACHED_QUERIES = 32;
+
+    private final boolean mCanNarrow;
+
+    private final ArrayList<String> mQueries = new ArrayList<>();
+    private final ArrayList<List<AppInfo>> mResults = new ArrayList<>();
+
+    /**
+     * @param canNarrow whether every app matching a query also matches all of its prefixes, in
+     *                  which case the results of a prefix are used as candidates for the query.
+     */
+    public AppSearchSession(boolean canNarrow) {
+        mCanNarrow = canNarrow;
+    }
+
+    /**
+     * Returns the cached result for {@param query} if there is one, and drops the results of
+     * all cached queries which are not a prefix of it.
+     */
+    @Nullable
+    public List<AppInfo> getCachedResult(String query) {
+        for (int i = mQueries.size() - 1; i >= 0; i--) {
+            if (query.startsWith(mQueries.get(i))) {
+                break;
+            }
+            mQueries.remove(i);
+            mResults.remove(i);
+        }
+        int last = mQueries.size() - 1;
+        if (last >= 0 && mQueries.get(last).equals(query)) {
+            return mResults.get(last);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the result of the longest cached prefix of {@param query}, which contains all the
+     * apps that can match it, or null if the whole app list needs to be searched.
+     */
+    @Nullable
+    public List<AppInfo> getCandidates(String query) {
+        int last = mQueries.size() - 1;
+        if (mCanNarrow && last >= 0 && query.startsWith(mQueries.get(last))) {
+            return mResults.get(last);
+        }
+        return null;
+    }
+
+    /**
+     * Caches the result of {@param query}.
+     */
+    public void putResult(String query, List<AppInfo> result) {
+        getCachedResult(query);
+        int last = mQueries.size() - 1;
+        if (last >= 0 && mQueries.get(last).equals(query)) {
+            mResults.set(last, result);
+            return;
+        }
+        if (mQueries.size() >= MAX_CACHED_QUERIES) {
+            mQueries.remove(0);
+            mResults.remove(0);
+        }
+        mQueries.add(query);
+        mResults.add(result);
+    }
+
+    /**
+     * Drops all cached results.
+     */
+    public void invalidate() {
+        mQueries.clear();
+        mResults.clear();
+    }
+}
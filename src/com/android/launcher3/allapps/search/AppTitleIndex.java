@@ -0,0 +1,219 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.allapps.search;
+
+import com.android.launcher3.AppInfo;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A precomputed index over app titles, used to match search queries without re-scanning and
+ * re-collating every title on every keystroke.
+ *
+ * For every title, the word break offsets are computed once, and the primary collation key of
+ * the title suffix starting at each break is stored. A query is then collated once and matched
+ * by a plain byte prefix comparison against those keys, which does not allocate per candidate.
+ *
+ * This class is not thread safe.
+ */
+public class AppTitleIndex {
+
+    private final Collator mCollator;
+
+    private final IdentityHashMap<AppInfo, Entry> mEntries = new IdentityHashMap<>();
+    private final ArrayList<Entry> mOrderedEntries = new ArrayList<>();
+
+    public AppTitleIndex() {
+        mCollator = Collator.getInstance();
+        mCollator.setStrength(Collator.PRIMARY);
+        mCollator.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+    }
+
+    /**
+     * Updates the index to contain exactly {@param apps}, in that order. Only apps which were
+     * added or whose title changed since the last call are re-indexed.
+     */
+    public void setApps(List<AppInfo> apps) {
+        if (isUpToDate(apps)) {
+            return;
+        }
+
+        IdentityHashMap<AppInfo, Entry> oldEntries = new IdentityHashMap<>(mEntries);
+        mEntries.clear();
+        mOrderedEntries.clear();
+        mOrderedEntries.ensureCapacity(apps.size());
+        for (AppInfo info : apps) {
+            Entry entry = oldEntries.get(info);
+            if (entry == null || entry.title != info.title) {
+                entry = createEntry(info);
+            }
+            mEntries.put(info, entry);
+            mOrderedEntries.add(entry);
+        }
+    }
+
+    private boolean isUpToDate(List<AppInfo> apps) {
+        int count = apps.size();
+        if (count != mOrderedEntries.size()) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            AppInfo info = apps.get(i);
+            Entry entry = mOrderedEntries.get(i);
+            if (entry.info != info || entry.title != info.title) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds all the indexed apps matching {@param query} to {@param out}, preserving the order
+     * in which they were indexed.
+     */
+    public void search(String query, List<AppInfo> out) {
+        int queryLength = query.length();
+        if (queryLength <= 0) {
+            return;
+        }
+        byte[] queryKey = mCollator.getCollationKey(query).toByteArray();
+        int queryKeyLength = getKeyLength(queryKey);
+
+        int count = mOrderedEntries.size();
+        for (int i = 0; i < count; i++) {
+            Entry entry = mOrderedEntries.get(i);
+            if (entry.matches(queryKey, queryKeyLength, queryLength)) {
+                out.add(entry.info);
+            }
+        }
+    }
+
+    /**
+     * Adds the apps of {@param candidates} matching {@param query} to {@param out}, preserving
+     * the order of {@param candidates}. Apps which are not indexed never match.
+     */
+    public void search(String query, List<AppInfo> candidates, List<AppInfo> out) {
+        int queryLength = query.length();
+        if (queryLength <= 0) {
+            return;
+        }
+        byte[] queryKey = mCollator.getCollationKey(query).toByteArray();
+        int queryKeyLength = getKeyLength(queryKey);
+
+        int count = candidates.size();
+        for (int i = 0; i < count; i++) {
+            Entry entry = mEntries.get(candidates.get(i));
+            if (entry != null && entry.matches(queryKey, queryKeyLength, queryLength)) {
+                out.add(entry.info);
+            }
+        }
+    }
+
+    private Entry createEntry(AppInfo info) {
+        String title = info.title == null ? "" : info.title.toString();
+        int titleLength = title.length();
+
+        int[] breaks = new int[titleLength];
+        int breakCount = 0;
+
+        int lastType;
+        int thisType = Character.UNASSIGNED;
+        int nextType = titleLength > 0 ?
+                Character.getType(title.codePointAt(0)) : Character.UNASSIGNED;
+        for (int i = 0; i < titleLength; i++) {
+            lastType = thisType;
+            thisType = nextType;
+            nextType = i < (titleLength - 1) ?
+                    Character.getType(title.codePointAt(i + 1)) : Character.UNASSIGNED;
+            if (DefaultAppSearchAlgorithm.isBreak(thisType, lastType, nextType)) {
+                breaks[breakCount++] = i;
+            }
+        }
+
+        byte[][] keys = new byte[breakCount][];
+        int[] keyLengths = new int[breakCount];
+        for (int i = 0; i < breakCount; i++) {
+            keys[i] = mCollator.getCollationKey(title.substring(breaks[i])).toByteArray();
+            keyLengths[i] = getKeyLength(keys[i]);
+        }
+        return new Entry(info, titleLength, Arrays.copyOf(breaks, breakCount), keys, keyLengths);
+    }
+
+    /**
+     * Returns the length of the sort key without its trailing level separators and terminator,
+     * so that the key of a string is a byte prefix of the key of any of its extensions.
+     */
+    private static int getKeyLength(byte[] key) {
+        int length = key.length;
+        while (length > 0 && (key[length - 1] == 0 || key[length - 1] == 1)) {
+            length--;
+        }
+        return length;
+    }
+
+    private static class Entry {
+
+        final AppInfo info;
+        // Reference to the indexed title, used to detect label changes.
+        final CharSequence title;
+        final int titleLength;
+
+        final int[] breakOffsets;
+        final byte[][] suffixKeys;
+        final int[] suffixKeyLengths;
+
+        Entry(AppInfo info, int titleLength, int[] breakOffsets, byte[][] suffixKeys,
+                int[] suffixKeyLengths) {
+            this.info = info;
+            this.title = info.title;
+            this.titleLength = titleLength;
+            this.breakOffsets = breakOffsets;
+            this.suffixKeys = suffixKeys;
+            this.suffixKeyLengths = suffixKeyLengths;
+        }
+
+        boolean matches(byte[] queryKey, int queryKeyLength, int queryLength) {
+            int end = titleLength - queryLength;
+            for (int i = 0; i < breakOffsets.length && breakOffsets[i] <= end; i++) {
+                if (isPrefix(queryKey, queryKeyLength, suffixKeys[i], suffixKeyLengths[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isPrefix(byte[] prefix, int prefixLength, byte[] key,
+                int keyLength) {
+            if (prefixLength > keyLength) {
+                return false;
+            }
+            for (int i = 0; i < prefixLength; i++) {
+                if (prefix[i] != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -15,28 +15,18 @@
  */
 package com.android.launcher3.allapps.search;
 
-import android.content.ComponentName;
 import android.content.Context;
-import android.content.pm.LauncherActivityInfo;
-import android.os.Handler;
-import android.os.UserHandle;
 
-import ch.deletescape.lawnchair.LawnchairAppFilter;
+import ch.deletescape.lawnchair.allapps.SearchableApps;
 import ch.deletescape.lawnchair.globalsearch.SearchProvider;
 import ch.deletescape.lawnchair.globalsearch.SearchProviderController;
 import ch.deletescape.lawnchair.globalsearch.providers.web.WebSearchProvider;
-import com.android.launcher3.AppFilter;
 import com.android.launcher3.AppInfo;
-import com.android.launcher3.IconCache;
-import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.Utilities;
-import com.android.launcher3.compat.LauncherAppsCompat;
-import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.util.ComponentKey;
 
 import java.text.Collator;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -47,82 +37,95 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
     public final static String SEARCH_HIDDEN_APPS = "pref_search_hidden_apps";
     private final Context mContext;
     private final List<AppInfo> mApps;
-    protected final Handler mResultHandler;
+    private final SearchWorker mSearchWorker;
 
-    private final AppFilter mBaseFilter;
+    // Copy of mApps handed to the search thread, dropped on the UI thread when the apps change.
+    private List<AppInfo> mAppsSnapshot;
+
+    // Only accessed on the search thread.
+    private final AppTitleIndex mTitleIndex;
+    private final AppSearchSession mSession;
+    private List<AppInfo> mSessionApps;
 
     public DefaultAppSearchAlgorithm(Context context, List<AppInfo> apps) {
         mContext = context;
         mApps = apps;
-        mResultHandler = new Handler();
-        mBaseFilter = new LawnchairAppFilter(context);
+        mSearchWorker = new SearchWorker();
+        mTitleIndex = new AppTitleIndex();
+        // Title matching only ever narrows down when the query gets longer.
+        mSession = new AppSearchSession(true);
     }
 
     @Override
     public void cancel(boolean interruptActiveRequests) {
         if (interruptActiveRequests) {
-            mResultHandler.removeCallbacksAndMessages(null);
+            mSearchWorker.cancel();
         }
     }
 
+    @Override
+    public void invalidate() {
+        mAppsSnapshot = null;
+    }
+
     @Override
     public void doSearch(final String query,
             final AllAppsSearchBarController.Callbacks callback) {
-        final ArrayList<ComponentKey> result = getTitleMatchResult(query);
-        final List<String> suggestions = getSuggestions(query);
-        mResultHandler.post(new Runnable() {
-
-            @Override
-            public void run() {
-                callback.onSearchResult(query, result, suggestions);
-            }
-        });
+        if (mAppsSnapshot == null) {
+            mAppsSnapshot = new ArrayList<>(mApps);
+        }
+        final List<AppInfo> apps = mAppsSnapshot;
+        final WebSearchProvider suggestionProvider = getSuggestionProvider();
+        mSearchWorker.doSearch(query, q -> getTitleMatchResult(q, apps),
+                suggestionProvider != null ? suggestionProvider::getSuggestions : null, callback);
     }
 
-    private ArrayList<ComponentKey> getTitleMatchResult(String query) {
+    private ArrayList<ComponentKey> getTitleMatchResult(String query, List<AppInfo> defaultApps) {
+        final List<AppInfo> apps = getApps(mContext, defaultApps);
+        if (apps != mSessionApps) {
+            // The apps changed, results of previous queries are no longer valid.
+            mSession.invalidate();
+            mSessionApps = apps;
+        }
+
         // Do an intersection of the words in the query and each title, and filter out all the
         // apps that don't match all of the words in the query.
         final String queryTextLower = query.toLowerCase();
-        final ArrayList<ComponentKey> result = new ArrayList<>();
-        StringMatcher matcher = StringMatcher.getInstance();
-        for (AppInfo info : getApps(mContext, mApps, mBaseFilter)) {
-            if (matches(info, queryTextLower, matcher)) {
-                result.add(info.toComponentKey());
+        List<AppInfo> matches = mSession.getCachedResult(queryTextLower);
+        if (matches == null) {
+            final ArrayList<AppInfo> newMatches = new ArrayList<>();
+            final List<AppInfo> candidates = mSession.getCandidates(queryTextLower);
+            if (candidates != null) {
+                mTitleIndex.search(queryTextLower, candidates, newMatches);
+            } else {
+                // The index is only rebuilt for the apps which changed since the last query.
+                mTitleIndex.setApps(apps);
+                mTitleIndex.search(queryTextLower, newMatches);
             }
+            mSession.putResult(queryTextLower, newMatches);
+            matches = newMatches;
+        }
+        final ArrayList<ComponentKey> result = new ArrayList<>(matches.size());
+        for (AppInfo info : matches) {
+            result.add(info.toComponentKey());
         }
         return result;
     }
 
-    private List<String> getSuggestions(String query) {
+    private WebSearchProvider getSuggestionProvider() {
         SearchProvider provider = SearchProviderController.Companion
                 .getInstance(mContext).getSearchProvider();
         if (provider instanceof WebSearchProvider) {
-            return ((WebSearchProvider) provider).getSuggestions(query);
+            return (WebSearchProvider) provider;
         }
-        return Collections.emptyList();
+        return null;
     }
 
-    public static List<AppInfo> getApps(Context context, List<AppInfo> defaultApps, AppFilter filter) {
+    public static List<AppInfo> getApps(Context context, List<AppInfo> defaultApps) {
         if (!Utilities.getPrefs(context).getBoolean(SEARCH_HIDDEN_APPS, false)) {
             return defaultApps;
         }
-        final List<AppInfo> apps = new ArrayList<>();
-        final IconCache iconCache = LauncherAppState.getInstance(context).getIconCache();
-        for (UserHandle user : UserManagerCompat.getInstance(context).getUserProfiles()) {
-            final List<ComponentName> duplicatePreventionCache = new ArrayList<>();
-            for (LauncherActivityInfo info : LauncherAppsCompat.getInstance(context).getActivityList(null, user)) {
-                if (!filter.shouldShowApp(info.getComponentName(), user)) {
-                    continue;
-                }
-                if (!duplicatePreventionCache.contains(info.getComponentName())) {
-                    duplicatePreventionCache.add(info.getComponentName());
-                    final AppInfo appInfo = new AppInfo(context, info, user);
-                    iconCache.getTitleAndIcon(appInfo, false);
-                    apps.add(appInfo);
-                }
-            }
-        }
-        return apps;
+        return SearchableApps.Companion.getInstance(context).getApps();
     }
 
     public static boolean matches(AppInfo info, String query, StringMatcher matcher) {
@@ -161,7 +164,7 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
      *      3) Any capital character after a digit or small character
      *      4) Any capital character before a small character
      */
-    private static boolean isBreak(int thisType, int prevType, int nextType) {
+    static boolean isBreak(int thisType, int prevType, int nextType) {
         switch (prevType) {
             case Character.UNASSIGNED:
             case Character.SPACE_SEPARATOR:
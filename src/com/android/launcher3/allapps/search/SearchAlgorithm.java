@@ -29,4 +29,10 @@ public interface SearchAlgorithm {
      * Cancels any active request.
      */
     void cancel(boolean interruptActiveRequests);
+
+    /**
+     * Drops any state kept from previous queries. Called when the searched apps change.
+     */
+    default void invalidate() {
+    }
 }
@@ -0,0 +1,183 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.allapps.search;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.android.launcher3.util.ComponentKey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs searches off the UI thread, where the most recent query always wins.
+ *
+ * App results are delivered as soon as they are available, followed by suggestions in a second,
+ * cancellable phase. Any work for a query which has been superseded by a newer query or by
+ * {@link #cancel()} is abandoned instead of being delivered.
+ */
+public class SearchWorker {
+
+    private static HandlerThread sSearchThread;
+    private static HandlerThread sSuggestionsThread;
+
+    private final Handler mSearchHandler;
+    private final Handler mSuggestionsHandler;
+    private final Handler mResultHandler;
+
+    // Incremented for every new query and cancellation, work started for an older value is stale.
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private CancellationSignal mSuggestionsSignal;
+
+    public SearchWorker() {
+        this(getSearchLooper(), getSuggestionsLooper(), Looper.getMainLooper());
+    }
+
+    @VisibleForTesting
+    public SearchWorker(Looper searchLooper, Looper suggestionsLooper, Looper resultLooper) {
+        mSearchHandler = new Handler(searchLooper);
+        mSuggestionsHandler = new Handler(suggestionsLooper);
+        mResultHandler = new Handler(resultLooper);
+    }
+
+    /**
+     * Searches for {@param query}, superseding any active search. The apps from
+     * {@param appSearch} are delivered to {@param callback} first, followed by the suggestions
+     * from {@param suggestionSource}.
+     */
+    public void doSearch(final String query, final AppSearch appSearch,
+            @Nullable final SuggestionSource suggestionSource,
+            final AllAppsSearchBarController.Callbacks callback) {
+        final int generation = startNewGeneration();
+        mSearchHandler.post(() -> {
+            if (isStale(generation)) {
+                return;
+            }
+            final ArrayList<ComponentKey> apps = appSearch.getAppResults(query);
+            if (isStale(generation)) {
+                return;
+            }
+            if (suggestionSource == null) {
+                deliver(generation, () -> callback.onSearchResult(
+                        query, apps, Collections.emptyList()));
+            } else {
+                deliver(generation, () -> callback.onSearchResult(query, apps, null));
+                fetchSuggestions(generation, query, suggestionSource, callback);
+            }
+        });
+    }
+
+    private void fetchSuggestions(final int generation, final String query,
+            final SuggestionSource suggestionSource,
+            final AllAppsSearchBarController.Callbacks callback) {
+        final CancellationSignal signal = new CancellationSignal();
+        synchronized (this) {
+            if (isStale(generation)) {
+                return;
+            }
+            mSuggestionsSignal = signal;
+        }
+        mSuggestionsHandler.post(() -> {
+            if (isStale(generation)) {
+                return;
+            }
+            final List<String> suggestions = suggestionSource.getSuggestions(query, signal);
+            if (isStale(generation)) {
+                return;
+            }
+            deliver(generation, () -> callback.onSearchResult(query, null, suggestions));
+        });
+    }
+
+    /**
+     * Abandons the active search, if any. None of its results are delivered after this call.
+     */
+    public void cancel() {
+        startNewGeneration();
+    }
+
+    private int startNewGeneration() {
+        int generation = mGeneration.incrementAndGet();
+        mSearchHandler.removeCallbacksAndMessages(null);
+        mSuggestionsHandler.removeCallbacksAndMessages(null);
+        mResultHandler.removeCallbacksAndMessages(null);
+        synchronized (this) {
+            if (mSuggestionsSignal != null) {
+                mSuggestionsSignal.cancel();
+                mSuggestionsSignal = null;
+            }
+        }
+        return generation;
+    }
+
+    private boolean isStale(int generation) {
+        return generation != mGeneration.get();
+    }
+
+    private void deliver(final int generation, final Runnable result) {
+        mResultHandler.post(() -> {
+            if (!isStale(generation)) {
+                result.run();
+            }
+        });
+    }
+
+    private static synchronized Looper getSearchLooper() {
+        if (sSearchThread == null) {
+            sSearchThread = new HandlerThread("launcher-search", Process.THREAD_PRIORITY_FOREGROUND);
+            sSearchThread.start();
+        }
+        return sSearchThread.getLooper();
+    }
+
+    private static synchronized Looper getSuggestionsLooper() {
+        if (sSuggestionsThread == null) {
+            sSuggestionsThread = new HandlerThread("launcher-search-suggestions",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            sSuggestionsThread.start();
+        }
+        return sSuggestionsThread.getLooper();
+    }
+
+    /**
+     * Searches the apps, called on the search thread.
+     */
+    public interface AppSearch {
+
+        ArrayList<ComponentKey> getAppResults(String query);
+    }
+
+    /**
+     * Provides suggestions for a query, called on the suggestions thread and allowed to block.
+     * Implementations should stop their work once the cancellation signal is triggered.
+     */
+    public interface SuggestionSource {
+
+        List<String> getSuggestions(String query, CancellationSignal cancellationSignal);
+    }
+}
@@ -24,9 +24,6 @@ import android.support.v4.graphics.ColorUtils;
 import android.util.SparseArray;
 import android.util.SparseIntArray;
 import com.android.launcher3.Utilities;
-import java.util.HashSet;
-import java.util.Set;
-import kotlin.collections.ArraysKt;
 
 import static java.lang.Math.min;
 import static java.lang.Math.max;
@@ -142,11 +139,7 @@ public class ColorExtractor {
 
         int[] pixels = new int[height * width];
         bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-        Set<Integer> set = new HashSet<>(ArraysKt.asList(pixels));
-        Integer[] distinctPixels = new Integer[set.size()];
-        set.toArray(distinctPixels);
-
-        for (int pixel : distinctPixels) {
+        for (int pixel : pixels) {
             if (testColor != posterize(pixel)) {
                 return false;
             }
@@ -154,7 +147,7 @@ public class ColorExtractor {
         return true;
     }
 
-    private static final int MAGIC_NUMBER = 25;
+    static final int MAGIC_NUMBER = 25;
 
     /*
      * References:
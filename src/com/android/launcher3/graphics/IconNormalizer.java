@@ -227,6 +227,43 @@ public class IconNormalizer {
         buffer.rewind();
         mBitmap.copyPixelsToBuffer(buffer);
 
+        float scale = computeScale(width, height, outBounds, path, outMaskShape, minVisibleAlpha);
+        if (scale == SCALE_NOT_INITIALIZED) {
+            // No valid pixels found. Do not scale.
+            return 1;
+        }
+        if (d instanceof AdaptiveIconCompat &&
+                mAdaptiveIconScale == SCALE_NOT_INITIALIZED) {
+            mAdaptiveIconScale = scale;
+            mAdaptiveIconBounds.set(mBounds);
+        }
+        return scale;
+    }
+
+    /**
+     * Same as {@link #getScale(Drawable, RectF, Path, boolean[], int)}, for the icon last
+     * analyzed by {@param analyzer}, without drawing it again.
+     */
+    public synchronized float getScale(@NonNull IconPixelAnalyzer analyzer,
+            @Nullable RectF outBounds, @Nullable Path path, @Nullable boolean[] outMaskShape,
+            int minVisibleAlpha) {
+        analyzer.copyAlpha(mPixels, mMaxSize);
+        // The shape check draws over the icon
+        ByteBuffer buffer = ByteBuffer.wrap(mPixels);
+        buffer.rewind();
+        mBitmap.copyPixelsFromBuffer(buffer);
+
+        float scale = computeScale(analyzer.getWidth(), analyzer.getHeight(), outBounds, path,
+                outMaskShape, minVisibleAlpha);
+        return scale == SCALE_NOT_INITIALIZED ? 1 : scale;
+    }
+
+    /**
+     * Computes the scale of the icon drawn in {@link #mPixels}.
+     * @return {@link #SCALE_NOT_INITIALIZED} if no pixel is visible
+     */
+    private float computeScale(int width, int height, @Nullable RectF outBounds,
+            @Nullable Path path, @Nullable boolean[] outMaskShape, int minVisibleAlpha) {
         // Overall bounds of the visible icon.
         int topY = -1;
         int bottomY = -1;
@@ -273,8 +310,7 @@ public class IconNormalizer {
         }
 
         if (topY == -1 || rightX == -1) {
-            // No valid pixels found. Do not scale.
-            return 1;
+            return SCALE_NOT_INITIALIZED;
         }
 
         convertToConvexArray(mLeftBorder, 1, topY, bottomY);
@@ -316,13 +352,7 @@ public class IconNormalizer {
         }
         float areaScale = area / (width * height);
         // Use sqrt of the final ratio as the images is scaled across both width and height.
-        float scale = areaScale > scaleRequired ? (float) Math.sqrt(scaleRequired / areaScale) : 1;
-        if (d instanceof AdaptiveIconCompat &&
-                mAdaptiveIconScale == SCALE_NOT_INITIALIZED) {
-            mAdaptiveIconScale = scale;
-            mAdaptiveIconBounds.set(mBounds);
-        }
-        return scale;
+        return areaScale > scaleRequired ? (float) Math.sqrt(scaleRequired / areaScale) : 1;
     }
 
     public void onAdaptiveShapeChanged() {
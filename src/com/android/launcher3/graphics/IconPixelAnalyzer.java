@@ -0,0 +1,174 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.graphics;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.NonNull;
+
+import com.android.launcher3.LauncherAppState;
+
+import java.util.Arrays;
+
+/**
+ * Draws an icon once into a reusable buffer and collects what the icon processing needs from its
+ * pixels in a single pass: the number of transparent pixels and a histogram of the posterized
+ * colors of the visible ones, with the dominant color. {@link IconNormalizer} can compute the
+ * scale, bounds and shape from the same buffer.
+ *
+ * The icon is drawn at the same size as {@link IconNormalizer} would, downsampled to twice the
+ * icon size. Analyzing doesn't allocate. Instances are not thread safe, get them from
+ * {@link LauncherIcons#getPixelAnalyzer()} and keep it until done with the results.
+ */
+public class IconPixelAnalyzer {
+
+    // Posterized channels are multiples of ColorExtractor.MAGIC_NUMBER
+    private static final int LEVELS = 255 / ColorExtractor.MAGIC_NUMBER + 1;
+
+    private final int mMaxSize;
+    private final Bitmap mBitmap;
+    private final Canvas mCanvas;
+    private final int[] mPixels;
+    private final int[] mHistogram = new int[LEVELS * LEVELS * LEVELS];
+
+    private int mWidth;
+    private int mHeight;
+    private int mTransparentCount;
+    private int mColorCount;
+    private int mHighScore;
+    private int mBestIndex;
+
+    IconPixelAnalyzer(Context context) {
+        mMaxSize = LauncherAppState.getIDP(context).iconBitmapSize * 2;
+        mBitmap = Bitmap.createBitmap(mMaxSize, mMaxSize, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mBitmap);
+        mPixels = new int[mMaxSize * mMaxSize];
+    }
+
+    /**
+     * Draws {@param d} and analyzes its pixels. Pixels with an alpha below
+     * {@param minVisibleAlpha} count as transparent, all others go into the histogram.
+     */
+    public void analyze(@NonNull Drawable d, int minVisibleAlpha) {
+        int width = d.getIntrinsicWidth();
+        int height = d.getIntrinsicHeight();
+        if (width <= 0 || height <= 0) {
+            width = width <= 0 || width > mMaxSize ? mMaxSize : width;
+            height = height <= 0 || height > mMaxSize ? mMaxSize : height;
+        } else if (width > mMaxSize || height > mMaxSize) {
+            int max = Math.max(width, height);
+            width = mMaxSize * width / max;
+            height = mMaxSize * height / max;
+        }
+        mWidth = width;
+        mHeight = height;
+
+        mBitmap.eraseColor(Color.TRANSPARENT);
+        d.setBounds(0, 0, width, height);
+        d.draw(mCanvas);
+        mBitmap.getPixels(mPixels, 0, width, 0, 0, width, height);
+
+        final int[] pixels = mPixels;
+        final int[] histogram = mHistogram;
+        Arrays.fill(histogram, 0);
+        int transparentCount = 0;
+        int colorCount = 0;
+        int highScore = 0;
+        int bestIndex = 0;
+        for (int i = 0, size = width * height; i < size; i++) {
+            int pixel = pixels[i];
+            if ((pixel >>> 24) < minVisibleAlpha) {
+                transparentCount++;
+                continue;
+            }
+            int index = ((((pixel >> 16) & 0xFF) / ColorExtractor.MAGIC_NUMBER) * LEVELS
+                    + ((pixel >> 8) & 0xFF) / ColorExtractor.MAGIC_NUMBER) * LEVELS
+                    + (pixel & 0xFF) / ColorExtractor.MAGIC_NUMBER;
+            int score = ++histogram[index];
+            if (score == 1) {
+                colorCount++;
+            }
+            // Ties go to the color which reached the score first
+            if (score > highScore) {
+                highScore = score;
+                bestIndex = index;
+            }
+        }
+        mTransparentCount = transparentCount;
+        mColorCount = colorCount;
+        mHighScore = highScore;
+        mBestIndex = bestIndex;
+    }
+
+    /**
+     * Copies the alpha channel of the last analyzed icon into {@param out}, with rows
+     * {@param stride} bytes apart.
+     */
+    void copyAlpha(byte[] out, int stride) {
+        final int width = mWidth;
+        for (int y = 0; y < mHeight; y++) {
+            int in = y * width;
+            int index = y * stride;
+            for (int x = 0; x < width; x++) {
+                out[index++] = (byte) (mPixels[in++] >>> 24);
+            }
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getTransparentCount() {
+        return mTransparentCount;
+    }
+
+    /**
+     * Returns the number of different posterized colors of the visible pixels.
+     */
+    public int getColorCount() {
+        return mColorCount;
+    }
+
+    /**
+     * Returns the number of visible pixels of the dominant color.
+     */
+    public int getHighScore() {
+        return mHighScore;
+    }
+
+    /**
+     * Returns the posterized, opaque color most visible pixels have.
+     */
+    public int getBestColor() {
+        int step = ColorExtractor.MAGIC_NUMBER;
+        int red = mBestIndex / (LEVELS * LEVELS) * step;
+        int green = mBestIndex / LEVELS % LEVELS * step;
+        int blue = mBestIndex % LEVELS * step;
+        return 0xFF000000 | red << 16 | green << 8 | blue;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.graphics;
+
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders icons on one background thread per core. Every thread owns a {@link LauncherIcons},
+ * which {@link LauncherIcons#obtain} returns on that thread, so icons rendered in parallel don't
+ * share a normalizer, shadow generator or canvas, and don't contend on the pool.
+ */
+public class IconRenderExecutor extends ThreadPoolExecutor {
+
+    private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final int KEEP_ALIVE_SECONDS = 10;
+
+    private static IconRenderExecutor sInstance;
+
+    public static synchronized IconRenderExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new IconRenderExecutor();
+        }
+        return sInstance;
+    }
+
+    private IconRenderExecutor() {
+        super(THREADS, THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                RenderThread::new);
+        allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs {@param tasks} in parallel and returns their results in the same order. Blocks until
+     * all of them are done, and rethrows the first failure.
+     */
+    public <T> List<T> renderAll(List<? extends Callable<T>> tasks) {
+        ArrayList<T> results = new ArrayList<>(tasks.size());
+        // Waiting for tasks queued behind this one would never end
+        if (Thread.currentThread() instanceof RenderThread) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return results;
+        }
+
+        ArrayList<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(submit(task));
+        }
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * A render thread, holding the {@link LauncherIcons} it owns once it renders an icon.
+     */
+    static class RenderThread extends Thread {
+
+        LauncherIcons icons;
+
+        RenderThread(Runnable r) {
+            super(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "icon-render");
+            setDaemon(true);
+        }
+    }
+}
@@ -27,6 +27,7 @@ import android.graphics.drawable.*;
 import android.os.Process;
 import android.os.UserHandle;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 import ch.deletescape.lawnchair.NonAdaptiveIconDrawable;
 import ch.deletescape.lawnchair.iconpack.AdaptiveIconCompat;
@@ -38,6 +39,10 @@ import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.util.Provider;
 import com.android.launcher3.util.Themes;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import static android.graphics.Paint.DITHER_FLAG;
 import static android.graphics.Paint.FILTER_BITMAP_FLAG;
 import static com.android.launcher3.graphics.ShadowGenerator.BLUR_FACTOR;
@@ -54,28 +59,53 @@ public class LauncherIcons implements AutoCloseable {
 
     /**
      * Return a new Message instance from the global pool. Allows us to
-     * avoid allocating new objects in many cases.
+     * avoid allocating new objects in many cases. On an {@link IconRenderExecutor} thread, this
+     * returns the instance owned by the thread unless it is already in use.
      */
     public static LauncherIcons obtain(Context context) {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof IconRenderExecutor.RenderThread) {
+            IconRenderExecutor.RenderThread renderThread = (IconRenderExecutor.RenderThread) thread;
+            if (renderThread.icons == null) {
+                renderThread.icons = new LauncherIcons(context);
+                renderThread.icons.mOwnedByThread = true;
+            }
+            LauncherIcons m = renderThread.icons;
+            if (!m.mInUse) {
+                m.mInUse = true;
+                m.invalidateIfShapeChanged();
+                return m;
+            }
+        }
         synchronized (sPoolSync) {
             if (sPool != null) {
                 LauncherIcons m = sPool;
                 sPool = m.next;
                 m.next = null;
-                if (m.mWrapperIcon != null && !m.mWrapperIcon.isMaskValid()) {
-                    m.mWrapperIcon = null;
-                    m.mNormalizer.onAdaptiveShapeChanged();
-                }
+                m.invalidateIfShapeChanged();
                 return m;
             }
         }
         return new LauncherIcons(context);
     }
 
+    private void invalidateIfShapeChanged() {
+        if (mWrapperIcon != null && !mWrapperIcon.isMaskValid()) {
+            mWrapperIcon = null;
+            mNormalizer.onAdaptiveShapeChanged();
+        }
+    }
+
     /**
      * Recycles a LauncherIcons that may be in-use.
      */
     public void recycle() {
+        if (mOwnedByThread) {
+            // Clear any temporary state variables
+            mWrapperBackgroundColor = DEFAULT_WRAPPER_BACKGROUND;
+            mInUse = false;
+            return;
+        }
         synchronized (sPoolSync) {
             // Clear any temporary state variables
             mWrapperBackgroundColor = DEFAULT_WRAPPER_BACKGROUND;
@@ -98,10 +128,17 @@ public class LauncherIcons implements AutoCloseable {
     private final int mFillResIconDpi;
     private final int mIconBitmapSize;
 
+    // Only disabled to compare the rendering speed
+    @VisibleForTesting
+    static boolean sUseShadowTemplates = true;
+
     private IconNormalizer mNormalizer;
+    private IconPixelAnalyzer mPixelAnalyzer;
     private ShadowGenerator mShadowGenerator;
 
     private AdaptiveIconCompat mWrapperIcon;
+    private AdaptiveIconCompat mShadowReference;
+    private ShadowGenerator.Template mShadowTemplate;
     private int mWrapperBackgroundColor = DEFAULT_WRAPPER_BACKGROUND;
 
     private IconProvider iconProvider;
@@ -109,6 +146,10 @@ public class LauncherIcons implements AutoCloseable {
     // sometimes we store linked lists of these things
     private LauncherIcons next;
 
+    // Instances owned by a render thread are never pooled
+    private boolean mOwnedByThread;
+    private boolean mInUse;
+
     private LauncherIcons(Context context) {
         mContext = context.getApplicationContext();
         mPm = mContext.getPackageManager();
@@ -137,6 +178,13 @@ public class LauncherIcons implements AutoCloseable {
         return mNormalizer;
     }
 
+    public IconPixelAnalyzer getPixelAnalyzer() {
+        if (mPixelAnalyzer == null) {
+            mPixelAnalyzer = new IconPixelAnalyzer(mContext);
+        }
+        return mPixelAnalyzer;
+    }
+
     /**
      * Returns a bitmap suitable for the all apps view. If the package or the resource do not
      * exist, it returns null.
@@ -196,8 +244,15 @@ public class LauncherIcons implements AutoCloseable {
         icon = normalizeAndWrapToAdaptiveIcon(icon, iconAppTargetSdk, null, scale);
         Bitmap bitmap = createIconBitmap(icon, scale[0]);
         if (icon instanceof AdaptiveIconCompat) {
+            ShadowGenerator.Template template = sUseShadowTemplates
+                    ? getShadowTemplate(scale[0]) : null;
+            Bitmap iconCopy = Bitmap.createBitmap(bitmap);
             mCanvas.setBitmap(bitmap);
-            getShadowGenerator().recreateIcon(Bitmap.createBitmap(bitmap), mCanvas);
+            if (template != null && template.hasSameAlpha(iconCopy)) {
+                getShadowGenerator().recreateIcon(iconCopy, template, mCanvas);
+            } else {
+                getShadowGenerator().recreateIcon(iconCopy, mCanvas);
+            }
             mCanvas.setBitmap(null);
         }
 
@@ -219,6 +274,20 @@ public class LauncherIcons implements AutoCloseable {
         return BitmapInfo.fromBitmap(result);
     }
 
+    /**
+     * Returns the shadows of a full-bleed adaptive icon of the current shape, drawn at
+     * {@param scale}.
+     */
+    private ShadowGenerator.Template getShadowTemplate(float scale) {
+        if (mShadowTemplate == null || mShadowTemplate.scale != scale
+                || !mShadowReference.isMaskValid()) {
+            mShadowReference = new AdaptiveIconCompat(new ColorDrawable(Color.BLACK), null);
+            mShadowTemplate = getShadowGenerator().createTemplate(
+                    createIconBitmap(mShadowReference, scale), scale);
+        }
+        return mShadowTemplate;
+    }
+
     /**
      * Creates a normalized bitmap suitable for the all apps view. The bitmap is also visually
      * normalized with other icons and has enough spacing to add shadow.
@@ -359,6 +428,17 @@ public class LauncherIcons implements AutoCloseable {
 
     public BitmapInfo createShortcutIcon(ShortcutInfoCompat shortcutInfo,
             boolean badged, @Nullable Provider<Bitmap> fallbackIconProvider) {
+        return createShortcutIcon(shortcutInfo, badged, fallbackIconProvider, null);
+    }
+
+    /**
+     * Same as {@link #createShortcutIcon(ShortcutInfoCompat, boolean, Provider)}, with the
+     * {@param badge} from {@link #getShortcutInfoBadge} if it is known. The badge lookup needs
+     * the model worker thread, everything else can run on any thread.
+     */
+    public BitmapInfo createShortcutIcon(ShortcutInfoCompat shortcutInfo,
+            boolean badged, @Nullable Provider<Bitmap> fallbackIconProvider,
+            @Nullable ItemInfoWithIcon badge) {
         Drawable unbadgedDrawable;
         if (iconProvider instanceof LawnchairIconProvider) {
             unbadgedDrawable = ((LawnchairIconProvider) iconProvider).getIcon(shortcutInfo, mFillResIconDpi);
@@ -390,16 +470,42 @@ public class LauncherIcons implements AutoCloseable {
         }
 
         final Bitmap unbadgedfinal = unbadgedBitmap;
-        final ItemInfoWithIcon badge = getShortcutInfoBadge(shortcutInfo, cache);
+        final ItemInfoWithIcon badgeInfo = badge != null
+                ? badge : getShortcutInfoBadge(shortcutInfo, cache);
 
-        result.color = badge.iconColor;
+        result.color = badgeInfo.iconColor;
         result.icon = BitmapRenderer.createHardwareBitmap(mIconBitmapSize, mIconBitmapSize, (c) -> {
             getShadowGenerator().recreateIcon(unbadgedfinal, c);
-            badgeWithDrawable(c, new FastBitmapDrawable(badge));
+            badgeWithDrawable(c, new FastBitmapDrawable(badgeInfo));
         });
         return result;
     }
 
+    /**
+     * Creates the badged icons of {@param shortcuts} in parallel on the
+     * {@link IconRenderExecutor}, keeping the matching {@param fallbackIcons} of shortcuts which
+     * no longer have an icon. Returns the icons in the same order. Call it on the model worker
+     * thread.
+     */
+    public static List<BitmapInfo> createShortcutIcons(Context context,
+            List<ShortcutInfoCompat> shortcuts, List<Bitmap> fallbackIcons) {
+        IconCache cache = LauncherAppState.getInstance(context).getIconCache();
+        ArrayList<Callable<BitmapInfo>> tasks = new ArrayList<>(shortcuts.size());
+        try (LauncherIcons li = obtain(context)) {
+            for (int i = 0; i < shortcuts.size(); i++) {
+                ShortcutInfoCompat shortcut = shortcuts.get(i);
+                Provider<Bitmap> fallbackIcon = Provider.of(fallbackIcons.get(i));
+                ItemInfoWithIcon badge = li.getShortcutInfoBadge(shortcut, cache);
+                tasks.add(() -> {
+                    try (LauncherIcons renderer = obtain(context)) {
+                        return renderer.createShortcutIcon(shortcut, true, fallbackIcon, badge);
+                    }
+                });
+            }
+        }
+        return IconRenderExecutor.getInstance().renderAll(tasks);
+    }
+
     public ItemInfoWithIcon getShortcutInfoBadge(ShortcutInfoCompat shortcutInfo, IconCache cache) {
         ComponentName cn = shortcutInfo.getActivity();
         String badgePkg = shortcutInfo.getBadgePackage(mContext);
@@ -82,6 +82,41 @@ public class ShadowGenerator {
         out.drawBitmap(icon, 0, 0, mDrawPaint);
     }
 
+    /**
+     * Same as {@link #recreateIcon(Bitmap, Canvas)}, for an icon with the alpha of
+     * {@param template}, drawing its shadows instead of blurring the icon.
+     */
+    public synchronized void recreateIcon(Bitmap icon, Template template, Canvas out) {
+        out.drawBitmap(template.mShadows, 0, 0, null);
+
+        // Draw the icon
+        mDrawPaint.setAlpha(255);
+        out.drawBitmap(icon, 0, 0, mDrawPaint);
+    }
+
+    /**
+     * Creates the template for icons with the alpha of {@param reference}, drawn at
+     * {@param scale}.
+     */
+    public synchronized Template createTemplate(Bitmap reference, float scale) {
+        Bitmap shadows = Bitmap.createBitmap(reference.getWidth(), reference.getHeight(),
+                Config.ARGB_8888);
+        Canvas canvas = new Canvas(shadows);
+        int[] offset = new int[2];
+        mBlurPaint.setMaskFilter(mDefaultBlurMaskFilter);
+        Bitmap shadow = reference.extractAlpha(mBlurPaint, offset);
+
+        mDrawPaint.setAlpha(AMBIENT_SHADOW_ALPHA);
+        canvas.drawBitmap(shadow, offset[0], offset[1], mDrawPaint);
+        mDrawPaint.setAlpha(KEY_SHADOW_ALPHA);
+        canvas.drawBitmap(shadow, offset[0], offset[1] + KEY_SHADOW_DISTANCE * mIconSize,
+                mDrawPaint);
+        mDrawPaint.setAlpha(255);
+        shadow.recycle();
+
+        return new Template(reference.extractAlpha(), shadows, scale);
+    }
+
     /**
      * Returns the minimum amount by which an icon with {@param bounds} should be scaled
      * so that the shadows do not get clipped.
@@ -102,6 +137,36 @@ public class ShadowGenerator {
         return scale;
     }
 
+    /**
+     * The shadows of icons which all have the same alpha, like full-bleed adaptive icons of one
+     * shape drawn at one scale. They only need to be blurred once.
+     */
+    public static class Template {
+
+        private final Bitmap mAlpha;
+        private final Bitmap mShadows;
+        public final float scale;
+
+        Template(Bitmap alpha, Bitmap shadows, float scale) {
+            mAlpha = alpha;
+            mShadows = shadows;
+            this.scale = scale;
+        }
+
+        /**
+         * Returns whether {@param icon} has exactly the alpha this template was created for.
+         */
+        public boolean hasSameAlpha(Bitmap icon) {
+            if (icon.getWidth() != mAlpha.getWidth() || icon.getHeight() != mAlpha.getHeight()) {
+                return false;
+            }
+            Bitmap alpha = icon.extractAlpha();
+            boolean same = alpha.sameAs(mAlpha);
+            alpha.recycle();
+            return same;
+        }
+    }
+
     public static class Builder {
 
         public final RectF bounds = new RectF();
@@ -207,6 +207,48 @@ public class LoaderResults {
     }
 
 
+    /**
+     * Binds the first page from {@param snapshot} if it was saved for the page about to be bound.
+     * The workspace stays in loading state, {@link #bindWorkspace()} rebinds it from the model.
+     */
+    public void bindWorkspaceSnapshot(WorkspaceSnapshot snapshot) {
+        Callbacks callbacks = mCallbacks.get();
+        if (callbacks == null) {
+            return;
+        }
+        int currentScreen = mPageToBindFirst != PagedView.INVALID_RESTORE_PAGE
+                ? mPageToBindFirst : callbacks.getCurrentWorkspaceScreen();
+        if (currentScreen != snapshot.currentScreen
+                || currentScreen >= snapshot.orderedScreenIds.size()) {
+            return;
+        }
+        final ArrayList<Long> orderedScreenIds = snapshot.orderedScreenIds;
+        ArrayList<ItemInfo> workspaceItems = snapshot.workspaceItems;
+        sortWorkspaceItemsSpatially(workspaceItems);
+
+        mUiExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Callbacks callbacks = mCallbacks.get();
+                if (callbacks != null) {
+                    callbacks.clearPendingBinds();
+                    callbacks.startBinding();
+                    callbacks.bindScreens(orderedScreenIds);
+                }
+            }
+        });
+        bindWorkspaceItems(workspaceItems, snapshot.appWidgets, mUiExecutor);
+        mUiExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Callbacks callbacks = mCallbacks.get();
+                if (callbacks != null) {
+                    callbacks.finishFirstPageBind(null);
+                }
+            }
+        });
+    }
+
     /** Filters the set of items who are directly or indirectly (via another container) on the
      * specified screen. */
     public static <T extends ItemInfo> void filterCurrentWorkspaceItems(long currentScreenId,
@@ -31,6 +31,7 @@ import android.content.IntentFilter;
 import android.content.pm.LauncherActivityInfo;
 import android.content.pm.PackageInstaller;
 import android.content.pm.PackageInstaller.SessionInfo;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.os.Handler;
 import android.os.Process;
@@ -72,16 +73,20 @@ import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.LooperIdleLock;
 import com.android.launcher3.util.MultiHashMap;
 import com.android.launcher3.util.PackageManagerHelper;
+import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.Provider;
+import com.android.launcher3.util.StartupMetrics;
 import com.android.launcher3.util.TraceHelper;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Runnable for the thread that loads the contents of the launcher:
@@ -93,6 +98,10 @@ import java.util.concurrent.CancellationException;
 public class LoaderTask implements Runnable {
     private static final String TAG = "LoaderTask";
 
+    // Threads used for the per item work which doesn't depend on the other items
+    private static final int LOADER_THREADS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
     private final LauncherAppState mApp;
     private final AllAppsList mBgAllAppsList;
     private final BgDataModel mBgDataModel;
@@ -108,6 +117,10 @@ public class LoaderTask implements Runnable {
     private final AppWidgetManagerCompat mAppWidgetManager;
     private final IconCache mIconCache;
 
+    // Whether the targets of the workspace items are enabled, see prefetchWorkspace
+    private final HashMap<PackageUserKey, Boolean> mEnabledPackages = new HashMap<>();
+    private final HashMap<ComponentKey, Boolean> mEnabledActivities = new HashMap<>();
+
     private boolean mStopped;
 
     public LoaderTask(LauncherAppState app, AllAppsList bgAllAppsList, BgDataModel dataModel,
@@ -166,7 +179,15 @@ public class LoaderTask implements Runnable {
         }
 
         TraceHelper.beginSection(TAG);
+        boolean completed = false;
         try (LauncherModel.LoaderTransaction transaction = mApp.getModel().beginLoader(this)) {
+            TraceHelper.partitionSection(TAG, "step 1.0: bind workspace snapshot");
+            WorkspaceSnapshot snapshot = WorkspaceSnapshot.loadOnce(mApp);
+            if (snapshot != null) {
+                mResults.bindWorkspaceSnapshot(snapshot);
+            }
+
+            verifyNotStopped();
             TraceHelper.partitionSection(TAG, "step 1.1: loading workspace");
             loadWorkspace();
 
@@ -222,11 +243,15 @@ public class LoaderTask implements Runnable {
             mResults.bindWidgets();
 
             transaction.commit();
+            completed = true;
         } catch (CancellationException e) {
             // Loader stopped, ignore
             TraceHelper.partitionSection(TAG, "Cancelled");
         }
         TraceHelper.endSection(TAG);
+        if (completed) {
+            StartupMetrics.saveLaunch(mApp.getContext());
+        }
     }
 
     public synchronized void stopLocked() {
@@ -277,10 +302,11 @@ public class LoaderTask implements Runnable {
                     mPackageInstaller.updateAndGetActiveSessionCache();
             mFirstScreenBroadcast = new FirstScreenBroadcast(installingPkgs);
             mBgDataModel.workspaceScreens.addAll(LauncherModel.loadWorkspaceScreensDb(context));
+            prefetchWorkspace();
 
             Map<ShortcutKey, ShortcutInfoCompat> shortcutKeyToPinnedShortcuts = new HashMap<>();
-            final LoaderCursor c = new LoaderCursor(contentResolver.query(
-                    LauncherSettings.Favorites.CONTENT_URI, null, null, null, null), mApp);
+            final LoaderCursor c = new LoaderCursor(
+                    mApp.getDao().queryFavorites(null, null, null), mApp);
 
             HashMap<ComponentKey, AppWidgetProviderInfo> widgetProvidersMap = null;
 
@@ -389,14 +415,14 @@ public class LoaderTask implements Runnable {
                             // If there is no target package, its an implicit intent
                             // (legacy shortcut) which is always valid
                             boolean validTarget = TextUtils.isEmpty(targetPkg) ||
-                                    mLauncherApps.isPackageEnabledForProfile(targetPkg, c.user);
+                                    isPackageEnabled(targetPkg, c.user);
 
                             if (cn != null && validTarget) {
                                 // If the apk is present and the shortcut points to a specific
                                 // component.
 
                                 // If the component is already present
-                                if (mLauncherApps.isActivityEnabledForProfile(cn, c.user)) {
+                                if (isActivityEnabled(cn, c.user)) {
                                     // no special handling necessary for this item
                                     c.markRestored();
                                 } else {
@@ -837,25 +863,149 @@ public class LoaderTask implements Runnable {
         mIconCache.updateDbIcons(packagesToIgnore);
     }
 
+    /**
+     * Reads the targets of the workspace items ahead of the favorites pass, to resolve whether
+     * they are enabled in parallel and to prefetch the app icons at once. The pass itself stays
+     * serial, so that items are added and restored in cursor order.
+     */
+    private void prefetchWorkspace() {
+        ArrayList<ComponentKey> iconKeys = new ArrayList<>();
+        LinkedHashSet<PackageUserKey> packageKeys = new LinkedHashSet<>();
+        LinkedHashSet<ComponentKey> componentKeys = new LinkedHashSet<>();
+        LongSparseArray<UserHandle> users = new LongSparseArray<>();
+        try (Cursor c = mApp.getDao().queryFavorites(
+                new String[] {LauncherSettings.Favorites.INTENT,
+                        LauncherSettings.Favorites.PROFILE_ID,
+                        LauncherSettings.Favorites.ITEM_TYPE},
+                LauncherSettings.Favorites.ITEM_TYPE + " IN ("
+                        + LauncherSettings.Favorites.ITEM_TYPE_APPLICATION + ", "
+                        + LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT + ", "
+                        + LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT + ")", null)) {
+            while (c != null && c.moveToNext()) {
+                long serial = c.getLong(1);
+                UserHandle user = users.get(serial);
+                if (user == null) {
+                    user = mUserManager.getUserForSerialNumber(serial);
+                    if (user == null) {
+                        continue;
+                    }
+                    users.put(serial, user);
+                }
+                try {
+                    Intent intent = Intent.parseUri(c.getString(0), 0);
+                    ComponentName cn = intent.getComponent();
+                    String targetPkg = cn == null ? intent.getPackage() : cn.getPackageName();
+                    if (!TextUtils.isEmpty(targetPkg)) {
+                        packageKeys.add(new PackageUserKey(targetPkg, user));
+                    }
+                    if (cn != null) {
+                        ComponentKey key = new ComponentKey(cn, user);
+                        componentKeys.add(key);
+                        if (c.getInt(2) == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
+                            iconKeys.add(key);
+                        }
+                    }
+                } catch (Exception e) {
+                    // Invalid items are removed while loading the workspace
+                }
+            }
+        }
+
+        final PackageUserKey[] packages = packageKeys.toArray(new PackageUserKey[0]);
+        final ComponentKey[] components = componentKeys.toArray(new ComponentKey[0]);
+        final boolean[] packageEnabled = new boolean[packages.length];
+        final boolean[] componentEnabled = new boolean[components.length];
+        runStriped(packages.length + components.length, new StripedTask() {
+            @Override
+            public void run(int stripe, int stripes) {
+                for (int i = stripe; i < packages.length; i += stripes) {
+                    packageEnabled[i] = mLauncherApps.isPackageEnabledForProfile(
+                            packages[i].mPackageName, packages[i].mUser);
+                }
+                for (int i = stripe; i < components.length; i += stripes) {
+                    componentEnabled[i] = mLauncherApps.isActivityEnabledForProfile(
+                            components[i].componentName, components[i].user);
+                }
+            }
+        });
+        mEnabledPackages.clear();
+        for (int i = 0; i < packages.length; i++) {
+            mEnabledPackages.put(packages[i], packageEnabled[i]);
+        }
+        mEnabledActivities.clear();
+        for (int i = 0; i < components.length; i++) {
+            mEnabledActivities.put(components[i], componentEnabled[i]);
+        }
+
+        mIconCache.prefetch(iconKeys, false /* useLowResIcon */);
+    }
+
+    private boolean isPackageEnabled(String packageName, UserHandle user) {
+        Boolean enabled = mEnabledPackages.get(new PackageUserKey(packageName, user));
+        return enabled != null
+                ? enabled : mLauncherApps.isPackageEnabledForProfile(packageName, user);
+    }
+
+    private boolean isActivityEnabled(ComponentName component, UserHandle user) {
+        Boolean enabled = mEnabledActivities.get(new ComponentKey(component, user));
+        return enabled != null
+                ? enabled : mLauncherApps.isActivityEnabledForProfile(component, user);
+    }
+
     private void loadAllApps() {
         final List<UserHandle> profiles = mUserManager.getUserProfiles();
 
         // Clear the list of apps
         mBgAllAppsList.clear();
+        // Query for the set of apps of every user, so that the icons can be prefetched at once
+        final ArrayList<List<LauncherActivityInfo>> appsPerProfile = new ArrayList<>();
+        final ArrayList<ComponentKey> keys = new ArrayList<>();
         for (UserHandle user : profiles) {
-            // Query for the set of apps
             final List<LauncherActivityInfo> apps = mLauncherApps.getActivityList(null, user);
+            appsPerProfile.add(apps);
+            if (apps != null) {
+                for (LauncherActivityInfo app : apps) {
+                    keys.add(new ComponentKey(app.getComponentName(), user));
+                }
+            }
+        }
+        mIconCache.prefetch(keys, true /* useLowResIcon */);
+
+        // Create the ApplicationInfos in parallel, and add them in the order of the profiles
+        // and activities
+        final ArrayList<LauncherActivityInfo> activities = new ArrayList<>();
+        final ArrayList<UserHandle> activityUsers = new ArrayList<>();
+        final ArrayList<Boolean> activityQuietModes = new ArrayList<>();
+        for (int p = 0; p < profiles.size(); p++) {
+            final UserHandle user = profiles.get(p);
+            final List<LauncherActivityInfo> apps = appsPerProfile.get(p);
             // Fail if we don't have any apps
             if (apps == null || apps.isEmpty()) {
                 continue;
             }
             boolean quietMode = mUserManager.isQuietModeEnabled(user);
-            // Create the ApplicationInfos
-            for (int i = 0; i < apps.size(); i++) {
-                LauncherActivityInfo app = apps.get(i);
-                // This builds the icon bitmaps.
-                mBgAllAppsList.add(new AppInfo(app, user, quietMode), app);
+            for (LauncherActivityInfo app : apps) {
+                activities.add(app);
+                activityUsers.add(user);
+                activityQuietModes.add(quietMode);
+            }
+        }
+        final AppInfo[] appInfos = new AppInfo[activities.size()];
+        runStriped(appInfos.length, new StripedTask() {
+            @Override
+            public void run(int stripe, int stripes) {
+                for (int i = stripe; i < appInfos.length; i += stripes) {
+                    LauncherActivityInfo app = activities.get(i);
+                    AppInfo info = new AppInfo(app, activityUsers.get(i),
+                            activityQuietModes.get(i));
+                    // This builds the icon bitmaps.
+                    mIconCache.getTitleAndIcon(info, app, true /* useLowResIcon */);
+                    appInfos[i] = info;
+                }
             }
+        });
+        for (AppInfo info : appInfos) {
+            mBgAllAppsList.addLoaded(info);
         }
 
         if (FeatureFlags.LAUNCHER3_PROMISE_APPS_IN_ALL_APPS) {
@@ -884,6 +1034,41 @@ public class LoaderTask implements Runnable {
         }
     }
 
+    private interface StripedTask {
+        /**
+         * Processes every {@param stripes}th item, starting at {@param stripe}.
+         */
+        void run(int stripe, int stripes);
+    }
+
+    /**
+     * Runs {@param task} for {@param count} items on up to {@link #LOADER_THREADS} threads,
+     * including the calling one, and waits for all of them.
+     */
+    private static void runStriped(int count, final StripedTask task) {
+        final int stripes = Math.max(1, Math.min(LOADER_THREADS, count));
+        final CountDownLatch latch = new CountDownLatch(stripes - 1);
+        for (int i = 1; i < stripes; i++) {
+            final int stripe = i;
+            Utilities.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run(stripe, stripes);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        task.run(0, stripes);
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new CancellationException("Interrupted while loading");
+        }
+    }
+
     public static boolean isValidProvider(AppWidgetProviderInfo provider) {
         return (provider != null) && (provider.provider != null)
                 && (provider.provider.getPackageName() != null);
@@ -16,12 +16,10 @@
 
 package com.android.launcher3.model;
 
-import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
@@ -36,7 +34,6 @@ import com.android.launcher3.LauncherAppWidgetInfo;
 import com.android.launcher3.LauncherModel;
 import com.android.launcher3.LauncherModel.Callbacks;
 import com.android.launcher3.LauncherSettings.Favorites;
-import com.android.launcher3.LauncherSettings.Settings;
 import com.android.launcher3.logging.FileLog;
 import com.android.launcher3.ShortcutInfo;
 import com.android.launcher3.config.FeatureFlags;
@@ -46,6 +43,7 @@ import com.android.launcher3.util.LooperExecutor;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.concurrent.Executor;
 
@@ -56,12 +54,17 @@ public class ModelWriter {
 
     private static final String TAG = "ModelWriter";
 
+    // Delay after the first pending item update before all pending updates are written, so that
+    // the many updates of a single drag end up in one batch
+    private static final long UPDATE_FLUSH_DELAY = 100;
+
     private final Context mContext;
     private final LauncherModel mModel;
     private final BgDataModel mBgDataModel;
     private final Handler mUiHandler;
 
     private final Executor mWorkerExecutor;
+    private final Handler mWorkerHandler;
     private final boolean mHasVerticalHotseat;
     private final boolean mVerifyChanges;
 
@@ -69,12 +72,18 @@ public class ModelWriter {
     private final List<Runnable> mDeleteRunnables = new ArrayList<>();
     private boolean mPreparingToUndo;
 
+    // Item updates which are not written yet, by item id, in the order they were first updated
+    private final LinkedHashMap<Long, PendingUpdate> mPendingUpdates = new LinkedHashMap<>();
+    private boolean mFlushScheduled;
+    private final Runnable mFlushRunnable = this::writePendingUpdates;
+
     public ModelWriter(Context context, LauncherModel model, BgDataModel dataModel,
             boolean hasVerticalHotseat, boolean verifyChanges) {
         mContext = context;
         mModel = model;
         mBgDataModel = dataModel;
         mWorkerExecutor = new LooperExecutor(LauncherModel.getWorkerLooper());
+        mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
         mHasVerticalHotseat = hasVerticalHotseat;
         mVerifyChanges = verifyChanges;
         mUiHandler = new Handler(Looper.getMainLooper());
@@ -166,7 +175,7 @@ public class ModelWriter {
                 .put(Favorites.RANK, item.rank)
                 .put(Favorites.SCREEN, item.screenId);
 
-        enqueueDeleteRunnable(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer, true /* deferWhileUndoing */);
     }
 
     /**
@@ -211,11 +220,11 @@ public class ModelWriter {
                 .put(Favorites.SPANY, item.spanY)
                 .put(Favorites.SCREEN, item.screenId);
 
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer, false /* deferWhileUndoing */);
     }
 
     private void executeUpdateItem(ItemInfo item, ContentWriter writer) {
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer, false /* deferWhileUndoing */);
     }
 
     public static void modifyItemInDatabase(Context context, final ItemInfo item, String alias,
@@ -242,7 +251,102 @@ public class ModelWriter {
     public void updateItemInDatabase(ItemInfo item) {
         ContentWriter writer = new ContentWriter(mContext);
         item.onAddToDatabase(writer);
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer, false /* deferWhileUndoing */);
+    }
+
+    /**
+     * Updates {@param item} in the model right away, and queues its DB update, which is written
+     * together with all other pending updates shortly after. Updates of the same item are merged,
+     * later values winning.
+     *
+     * If {@param deferWhileUndoing} is set, an update made while preparing to undo a delete is
+     * only queued once the delete is committed, like other moves from the UI thread. Other
+     * updates, which may come from the worker thread, are always queued right away.
+     */
+    private void enqueueUpdate(ItemInfo item, ContentWriter writer, boolean deferWhileUndoing) {
+        final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        final ModelVerifier verifier = new ModelVerifier();
+        Runnable enqueue = () -> {
+            synchronized (mPendingUpdates) {
+                PendingUpdate update = mPendingUpdates.get(item.id);
+                if (update == null) {
+                    update = new PendingUpdate(item.id);
+                    mPendingUpdates.put(item.id, update);
+                }
+                update.add(writer);
+
+                if (!mFlushScheduled) {
+                    mFlushScheduled = true;
+                    mModel.onPendingWrites(this);
+                    mWorkerHandler.postDelayed(mFlushRunnable, UPDATE_FLUSH_DELAY);
+                }
+            }
+            // Only the DB write waits for the other updates, the model is updated in order with
+            // the other model changes on the worker thread
+            mWorkerExecutor.execute(new UpdateItemRunnable(item, stackTrace, verifier));
+        };
+        if (deferWhileUndoing && mPreparingToUndo) {
+            mDeleteRunnables.add(enqueue);
+        } else {
+            enqueue.run();
+        }
+    }
+
+    /**
+     * Writes the pending item updates without waiting for the flush delay, for example when
+     * the launcher is paused. The updates are still written on the worker thread, before anything
+     * posted there afterwards.
+     */
+    public void flushPendingUpdates() {
+        mWorkerHandler.removeCallbacks(mFlushRunnable);
+        mWorkerHandler.post(mFlushRunnable);
+    }
+
+    /**
+     * Writes all pending item updates in a single transaction. Must be called on the worker
+     * thread.
+     */
+    private void writePendingUpdates() {
+        ArrayList<PendingUpdate> updates;
+        synchronized (mPendingUpdates) {
+            mFlushScheduled = false;
+            // Updates queued from now on register the writer again
+            mModel.onPendingWritesDone(this);
+            if (mPendingUpdates.isEmpty()) {
+                return;
+            }
+            updates = new ArrayList<>(mPendingUpdates.values());
+            mPendingUpdates.clear();
+        }
+
+        int count = updates.size();
+        long[] ids = new long[count];
+        ArrayList<ContentValues> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PendingUpdate update = updates.get(i);
+            ids[i] = update.mItemId;
+            values.add(update.getValues());
+        }
+        try {
+            getDao().update(ids, values);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write item updates", e);
+        }
+    }
+
+    private LauncherDao getDao() {
+        return LauncherAppState.getInstance(mContext).getDao();
+    }
+
+    /**
+     * Runs {@param r} on the worker thread, after writing the pending updates, so that it sees
+     * them in the DB.
+     */
+    private void executeAfterPendingUpdates(Runnable r) {
+        mWorkerExecutor.execute(() -> {
+            writePendingUpdates();
+            r.run();
+        });
     }
 
     /**
@@ -254,17 +358,17 @@ public class ModelWriter {
         updateItemInfoProps(item, container, screenId, cellX, cellY);
 
         final ContentWriter writer = new ContentWriter(mContext);
-        final ContentResolver cr = mContext.getContentResolver();
+        final LauncherDao dao = getDao();
         item.onAddToDatabase(writer);
 
-        item.id = Settings.call(cr, Settings.METHOD_NEW_ITEM_ID).getLong(Settings.EXTRA_VALUE);
+        item.id = dao.generateNewItemId();
         writer.put(Favorites._ID, item.id);
 
         ModelVerifier verifier = new ModelVerifier();
 
         final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
-        mWorkerExecutor.execute(() -> {
-            cr.insert(Favorites.CONTENT_URI, writer.getValues(mContext));
+        executeAfterPendingUpdates(() -> {
+            dao.insert(writer.getValues(mContext));
 
             synchronized (mBgDataModel) {
                 checkItemInfoLocked(item.id, item, stackTrace);
@@ -295,10 +399,13 @@ public class ModelWriter {
         ModelVerifier verifier = new ModelVerifier();
 
         enqueueDeleteRunnable(() -> {
+            ArrayList<Long> ids = new ArrayList<>();
             for (ItemInfo item : items) {
-                final Uri uri = Favorites.getContentUri(item.id);
-                mContext.getContentResolver().delete(uri, null, null);
+                ids.add(item.id);
+            }
+            getDao().delete(ids);
 
+            for (ItemInfo item : items) {
                 mBgDataModel.removeItem(mContext, item);
                 verifier.verifyModel();
             }
@@ -361,14 +468,14 @@ public class ModelWriter {
         if (mPreparingToUndo) {
             mDeleteRunnables.add(r);
         } else {
-            mWorkerExecutor.execute(r);
+            executeAfterPendingUpdates(r);
         }
     }
 
     public void commitDelete() {
         mPreparingToUndo = false;
         for (Runnable runnable : mDeleteRunnables) {
-            mWorkerExecutor.execute(runnable);
+            executeAfterPendingUpdates(runnable);
         }
         mDeleteRunnables.clear();
     }
@@ -381,21 +488,47 @@ public class ModelWriter {
         mModel.forceReload(pageToBindFirst);
     }
 
+    /**
+     * The merged DB updates of one item, which is already updated in the model.
+     */
+    private class PendingUpdate {
+        private final long mItemId;
+        private final ArrayList<ContentWriter> mWriters = new ArrayList<>();
+
+        PendingUpdate(long itemId) {
+            mItemId = itemId;
+        }
+
+        void add(ContentWriter writer) {
+            mWriters.add(writer);
+        }
+
+        ContentValues getValues() {
+            ContentValues values = new ContentValues();
+            for (ContentWriter writer : mWriters) {
+                values.putAll(writer.getValues(mContext));
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Updates an item in the model, while its DB update is pending.
+     */
     private class UpdateItemRunnable extends UpdateItemBaseRunnable {
         private final ItemInfo mItem;
-        private final ContentWriter mWriter;
         private final long mItemId;
 
-        UpdateItemRunnable(ItemInfo item, ContentWriter writer) {
+        UpdateItemRunnable(ItemInfo item, StackTraceElement[] stackTrace,
+                ModelVerifier verifier) {
+            super(verifier);
             mItem = item;
-            mWriter = writer;
             mItemId = item.id;
+            setStackTrace(stackTrace);
         }
 
         @Override
         public void run() {
-            Uri uri = Favorites.getContentUri(mItemId);
-            mContext.getContentResolver().update(uri, mWriter.getValues(mContext), null, null);
             updateItemArrays(mItem, mItemId);
         }
     }
@@ -411,19 +544,15 @@ public class ModelWriter {
 
         @Override
         public void run() {
-            ArrayList<ContentProviderOperation> ops = new ArrayList<>();
             int count = mItems.size();
+            long[] ids = new long[count];
             for (int i = 0; i < count; i++) {
                 ItemInfo item = mItems.get(i);
-                final long itemId = item.id;
-                final Uri uri = Favorites.getContentUri(itemId);
-                ContentValues values = mValues.get(i);
-
-                ops.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
-                updateItemArrays(item, itemId);
+                ids[i] = item.id;
+                updateItemArrays(item, item.id);
             }
             try {
-                mContext.getContentResolver().applyBatch(LauncherProvider.AUTHORITY, ops);
+                getDao().update(ids, mValues);
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -431,11 +560,20 @@ public class ModelWriter {
     }
 
     private abstract class UpdateItemBaseRunnable implements Runnable {
-        private final StackTraceElement[] mStackTrace;
-        private final ModelVerifier mVerifier = new ModelVerifier();
+        private StackTraceElement[] mStackTrace;
+        private final ModelVerifier mVerifier;
 
         UpdateItemBaseRunnable() {
+            this(new ModelVerifier());
+        }
+
+        UpdateItemBaseRunnable(ModelVerifier verifier) {
             mStackTrace = new Throwable().getStackTrace();
+            mVerifier = verifier;
+        }
+
+        protected void setStackTrace(StackTraceElement[] stackTrace) {
+            mStackTrace = stackTrace;
         }
 
         protected void updateItemArrays(ItemInfo item, long itemId) {
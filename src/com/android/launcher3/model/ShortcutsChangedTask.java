@@ -16,6 +16,7 @@
 package com.android.launcher3.model;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.os.UserHandle;
 
 import com.android.launcher3.AllAppsList;
@@ -23,13 +24,13 @@ import com.android.launcher3.ItemInfo;
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.LauncherSettings;
 import com.android.launcher3.ShortcutInfo;
+import com.android.launcher3.graphics.BitmapInfo;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.shortcuts.ShortcutKey;
 import com.android.launcher3.util.ItemInfoMatcher;
 import com.android.launcher3.util.MultiHashMap;
-import com.android.launcher3.util.Provider;
 
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -75,6 +76,8 @@ public class ShortcutsChangedTask extends BaseModelUpdateTask {
         }
 
         final ArrayList<ShortcutInfo> updatedShortcutInfos = new ArrayList<>();
+        final ArrayList<ShortcutInfoCompat> updatedShortcuts = new ArrayList<>();
+        final ArrayList<Bitmap> fallbackIcons = new ArrayList<>();
         if (!keyToShortcutInfo.isEmpty()) {
             // Update the workspace to reflect the changes to updated shortcuts residing on it.
             List<ShortcutInfoCompat> shortcuts = deepShortcutManager.queryForFullDetails(
@@ -95,14 +98,17 @@ public class ShortcutsChangedTask extends BaseModelUpdateTask {
                     shortcutInfo.updateFromDeepShortcutInfo(fullDetails, context);
                     // If the shortcut is pinned but no longer has an icon in the system,
                     // keep the current icon instead of reverting to the default icon.
-                    LauncherIcons li = LauncherIcons.obtain(context);
-                    li.createShortcutIcon(fullDetails, true, Provider.of(shortcutInfo.iconBitmap))
-                            .applyTo(shortcutInfo);
-                    li.recycle();
+                    updatedShortcuts.add(fullDetails);
+                    fallbackIcons.add(shortcutInfo.iconBitmap);
                     updatedShortcutInfos.add(shortcutInfo);
                 }
             }
         }
+        List<BitmapInfo> icons = LauncherIcons.createShortcutIcons(
+                context, updatedShortcuts, fallbackIcons);
+        for (int i = 0; i < icons.size(); i++) {
+            icons.get(i).applyTo(updatedShortcutInfos.get(i));
+        }
 
         // If there are still entries in keyToShortcutInfo, that means that
         // the corresponding shortcuts weren't passed in onShortcutsChanged(). This
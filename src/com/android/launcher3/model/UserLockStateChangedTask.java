@@ -18,6 +18,7 @@ package com.android.launcher3.model;
 import static com.android.launcher3.ItemInfoWithIcon.FLAG_DISABLED_LOCKED_USER;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.os.UserHandle;
 
 import com.android.launcher3.AllAppsList;
@@ -26,13 +27,13 @@ import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.LauncherSettings;
 import com.android.launcher3.ShortcutInfo;
 import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.graphics.BitmapInfo;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.shortcuts.ShortcutKey;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.ItemInfoMatcher;
-import com.android.launcher3.util.Provider;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -76,6 +77,9 @@ public class UserLockStateChangedTask extends BaseModelUpdateTask {
         // Update the workspace to reflect the changes to updated shortcuts residing on it.
         ArrayList<ShortcutInfo> updatedShortcutInfos = new ArrayList<>();
         HashSet<ShortcutKey> removedKeys = new HashSet<>();
+        ArrayList<ShortcutInfo> iconShortcutInfos = new ArrayList<>();
+        ArrayList<ShortcutInfoCompat> iconShortcuts = new ArrayList<>();
+        ArrayList<Bitmap> fallbackIcons = new ArrayList<>();
 
         for (ItemInfo itemInfo : dataModel.itemsIdMap) {
             if (itemInfo.itemType == LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT
@@ -94,15 +98,20 @@ public class UserLockStateChangedTask extends BaseModelUpdateTask {
                     si.updateFromDeepShortcutInfo(shortcut, context);
                     // If the shortcut is pinned but no longer has an icon in the system,
                     // keep the current icon instead of reverting to the default icon.
-                    LauncherIcons li = LauncherIcons.obtain(context);
-                    li.createShortcutIcon(shortcut, true, Provider.of(si.iconBitmap)).applyTo(si);
-                    li.recycle();
+                    iconShortcutInfos.add(si);
+                    iconShortcuts.add(shortcut);
+                    fallbackIcons.add(si.iconBitmap);
                 } else {
                     si.runtimeStatusFlags |= FLAG_DISABLED_LOCKED_USER;
                 }
                 updatedShortcutInfos.add(si);
             }
         }
+        List<BitmapInfo> icons = LauncherIcons.createShortcutIcons(
+                context, iconShortcuts, fallbackIcons);
+        for (int i = 0; i < icons.size(); i++) {
+            icons.get(i).applyTo(iconShortcutInfos.get(i));
+        }
         bindUpdatedShortcuts(updatedShortcutInfos, mUser);
         if (!removedKeys.isEmpty()) {
             deleteAndBindComponentsRemoved(ItemInfoMatcher.ofShortcutKeys(removedKeys));
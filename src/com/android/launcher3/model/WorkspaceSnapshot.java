@@ -0,0 +1,436 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.model;
+
+import static com.android.launcher3.model.LoaderResults.filterCurrentWorkspaceItems;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.graphics.BitmapFactory;
+import android.os.UserHandle;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.launcher3.FolderInfo;
+import com.android.launcher3.IconCache;
+import com.android.launcher3.InvariantDeviceProfile;
+import com.android.launcher3.ItemInfo;
+import com.android.launcher3.LauncherAppState;
+import com.android.launcher3.LauncherAppWidgetInfo;
+import com.android.launcher3.LauncherModel;
+import com.android.launcher3.LauncherProvider;
+import com.android.launcher3.LauncherSettings.ChangeLogColumns;
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.ShortcutInfo;
+import com.android.launcher3.Utilities;
+import com.android.launcher3.compat.AppWidgetManagerCompat;
+import com.android.launcher3.compat.UserManagerCompat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary snapshot of the first page the user last saw, so that it can be bound as soon
+ * as the process starts, before {@link LoaderTask} has read the favorites.
+ *
+ * The snapshot holds the screen order and the hotseat and current page items: positions,
+ * titles, intents and widget ids. App icons are referenced by component and read from the low
+ * res icon cache, other icons are embedded. It is only bound when its key, made of the DB
+ * version, the grid size, the user set and a stamp of the favorites and screens tables, still
+ * matches, and at most once per process. The full bind of the loader replaces it.
+ */
+public class WorkspaceSnapshot {
+
+    private static final String TAG = "WorkspaceSnapshot";
+
+    private static final String FILE_NAME = "workspace_snapshot.bin";
+    private static final int FORMAT_VERSION = 1;
+
+    private static final Object sFileLock = new Object();
+    private static boolean sConsumed;
+
+    public final ArrayList<Long> orderedScreenIds = new ArrayList<>();
+    public final int currentScreen;
+    public final ArrayList<ItemInfo> workspaceItems = new ArrayList<>();
+    public final ArrayList<LauncherAppWidgetInfo> appWidgets = new ArrayList<>();
+
+    private WorkspaceSnapshot(int currentScreen) {
+        this.currentScreen = currentScreen;
+    }
+
+    /**
+     * Saves the hotseat and the page at {@param currentScreen} of {@param dataModel}.
+     * Must be called on the worker thread, the file is written in the background.
+     */
+    public static void save(LauncherAppState app, BgDataModel dataModel, int currentScreen) {
+        ArrayList<ItemInfo> workspaceItems = new ArrayList<>();
+        ArrayList<LauncherAppWidgetInfo> appWidgets = new ArrayList<>();
+        ArrayList<Long> orderedScreenIds = new ArrayList<>();
+        synchronized (dataModel) {
+            workspaceItems.addAll(dataModel.workspaceItems);
+            appWidgets.addAll(dataModel.appWidgets);
+            orderedScreenIds.addAll(dataModel.workspaceScreens);
+        }
+        if (currentScreen < 0 || currentScreen >= orderedScreenIds.size()) {
+            delete(app.getContext());
+            return;
+        }
+        long currentScreenId = orderedScreenIds.get(currentScreen);
+        ArrayList<ItemInfo> currentItems = new ArrayList<>();
+        ArrayList<LauncherAppWidgetInfo> currentWidgets = new ArrayList<>();
+        filterCurrentWorkspaceItems(currentScreenId, workspaceItems, currentItems,
+                new ArrayList<>());
+        filterCurrentWorkspaceItems(currentScreenId, appWidgets, currentWidgets,
+                new ArrayList<>());
+
+        final byte[] data;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            byte[] key = getKey(app);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(currentScreen);
+
+            UserManagerCompat userManager = UserManagerCompat.getInstance(app.getContext());
+            out.writeInt(currentItems.size());
+            for (ItemInfo item : currentItems) {
+                writeItem(out, item, userManager);
+            }
+            int widgetCount = 0;
+            for (LauncherAppWidgetInfo widget : currentWidgets) {
+                if (isSnapshotWidget(widget)) {
+                    widgetCount++;
+                }
+            }
+            out.writeInt(widgetCount);
+            for (LauncherAppWidgetInfo widget : currentWidgets) {
+                if (isSnapshotWidget(widget)) {
+                    writePosition(out, widget);
+                    out.writeInt(widget.appWidgetId);
+                    out.writeUTF(widget.providerName.flattenToString());
+                    out.writeLong(userManager.getSerialNumberForUser(widget.user));
+                }
+            }
+            out.flush();
+            data = bytes.toByteArray();
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to create workspace snapshot", e);
+            delete(app.getContext());
+            return;
+        }
+
+        final Context context = app.getContext();
+        Utilities.THREAD_POOL_EXECUTOR.execute(() -> write(context, data));
+    }
+
+    /**
+     * @return the snapshot if it matches the current state, only the first time this is called
+     * in the process. Must be called on the worker thread.
+     */
+    public static WorkspaceSnapshot loadOnce(LauncherAppState app) {
+        synchronized (sFileLock) {
+            if (sConsumed) {
+                return null;
+            }
+            sConsumed = true;
+        }
+        Context context = app.getContext();
+        byte[] data = read(context);
+        if (data == null) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            byte[] key = new byte[in.readInt()];
+            in.readFully(key);
+            if (!Arrays.equals(key, getKey(app))) {
+                Log.d(TAG, "Ignoring stale workspace snapshot");
+                return null;
+            }
+            WorkspaceSnapshot snapshot = new WorkspaceSnapshot(in.readInt());
+            snapshot.orderedScreenIds.addAll(LauncherModel.loadWorkspaceScreensDb(context));
+
+            UserManagerCompat userManager = UserManagerCompat.getInstance(context);
+            IconCache iconCache = app.getIconCache();
+            for (int i = in.readInt(); i > 0; i--) {
+                ItemInfo item = readItem(in, userManager, iconCache);
+                if (item != null) {
+                    snapshot.workspaceItems.add(item);
+                }
+            }
+            AppWidgetManagerCompat widgetManager = AppWidgetManagerCompat.getInstance(context);
+            for (int i = in.readInt(); i > 0; i--) {
+                LauncherAppWidgetInfo widget = new LauncherAppWidgetInfo();
+                readPosition(in, widget);
+                widget.appWidgetId = in.readInt();
+                widget.providerName = ComponentName.unflattenFromString(in.readUTF());
+                widget.user = userManager.getUserForSerialNumber(in.readLong());
+                // Binding a widget whose provider is gone deletes it, leave that to the loader
+                if (widget.user != null
+                        && widgetManager.getLauncherAppWidgetInfo(widget.appWidgetId) != null) {
+                    snapshot.appWidgets.add(widget);
+                }
+            }
+            return snapshot;
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            Log.e(TAG, "Failed to read workspace snapshot", e);
+            delete(context);
+            return null;
+        }
+    }
+
+    private static boolean isSnapshotWidget(LauncherAppWidgetInfo widget) {
+        return widget.itemType == Favorites.ITEM_TYPE_APPWIDGET && !widget.isCustomWidget()
+                && widget.restoreStatus == LauncherAppWidgetInfo.RESTORE_COMPLETED
+                && widget.appWidgetId >= 0 && widget.providerName != null;
+    }
+
+    /**
+     * Everything the snapshot depends on but doesn't contain. The favorites stamp changes with
+     * every insert, update or delete, the screens with every reorder.
+     */
+    private static byte[] getKey(LauncherAppState app) throws IOException {
+        Context context = app.getContext();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(LauncherProvider.SCHEMA_VERSION);
+
+        InvariantDeviceProfile idp = app.getInvariantDeviceProfile();
+        out.writeInt(idp.numRows);
+        out.writeInt(idp.numColumns);
+        out.writeInt(idp.numHotseatIcons);
+
+        UserManagerCompat userManager = UserManagerCompat.getInstance(context);
+        List<UserHandle> users = userManager.getUserProfiles();
+        long[] serials = new long[users.size()];
+        for (int i = 0; i < serials.length; i++) {
+            serials[i] = userManager.getSerialNumberForUser(users.get(i));
+        }
+        Arrays.sort(serials);
+        out.writeInt(serials.length);
+        for (long serial : serials) {
+            out.writeLong(serial);
+        }
+
+        try (Cursor c = app.getDao().queryFavorites(new String[] {
+                "COUNT(*)", "MAX(" + ChangeLogColumns.MODIFIED + ")"}, null, null)) {
+            c.moveToNext();
+            out.writeLong(c.getLong(0));
+            out.writeLong(c.getLong(1));
+        }
+        ArrayList<Long> screens = LauncherModel.loadWorkspaceScreensDb(context);
+        out.writeInt(screens.size());
+        for (long screenId : screens) {
+            out.writeLong(screenId);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeItem(DataOutputStream out, ItemInfo item,
+            UserManagerCompat userManager) throws IOException {
+        writePosition(out, item);
+        if (item instanceof FolderInfo) {
+            FolderInfo folder = (FolderInfo) item;
+            writeString(out, folder.title);
+            out.writeInt(folder.options);
+            writeString(out, folder.swipeUpAction);
+            out.writeInt(folder.contents.size());
+            for (ShortcutInfo info : folder.contents) {
+                writePosition(out, info);
+                writeShortcut(out, info, userManager);
+            }
+        } else if (item instanceof ShortcutInfo) {
+            writeShortcut(out, (ShortcutInfo) item, userManager);
+        } else {
+            throw new IOException("Unexpected workspace item " + item);
+        }
+    }
+
+    private static void writeShortcut(DataOutputStream out, ShortcutInfo info,
+            UserManagerCompat userManager) throws IOException {
+        writeString(out, info.title);
+        writeString(out, info.customTitle);
+        writeString(out, info.swipeUpAction);
+        out.writeUTF(info.intent.toUri(0));
+        out.writeLong(userManager.getSerialNumberForUser(info.user));
+        out.writeInt(info.status);
+        out.writeInt(info.runtimeStatusFlags);
+        out.writeInt(info.iconColor);
+
+        // App icons without customization are read back from the icon cache
+        boolean embedIcon = info.itemType != Favorites.ITEM_TYPE_APPLICATION
+                || info.customIcon != null || info.customIconEntry != null
+                || info.iconBitmap == null;
+        byte[] icon = embedIcon ? Utilities.flattenBitmap(info.iconBitmap) : null;
+        out.writeInt(icon == null ? -1 : icon.length);
+        if (icon != null) {
+            out.write(icon);
+        }
+    }
+
+    private static ItemInfo readItem(DataInputStream in, UserManagerCompat userManager,
+            IconCache iconCache) throws IOException, URISyntaxException {
+        ItemInfo position = new ItemInfo();
+        readPosition(in, position);
+        if (position.itemType == Favorites.ITEM_TYPE_FOLDER) {
+            FolderInfo folder = new FolderInfo();
+            copyPosition(position, folder);
+            folder.title = readString(in);
+            folder.options = in.readInt();
+            folder.swipeUpAction = readString(in);
+            for (int i = in.readInt(); i > 0; i--) {
+                ItemInfo contentPosition = new ItemInfo();
+                readPosition(in, contentPosition);
+                ShortcutInfo info = readShortcut(in, contentPosition, userManager, iconCache);
+                if (info != null) {
+                    folder.add(info, false);
+                }
+            }
+            return folder;
+        }
+        return readShortcut(in, position, userManager, iconCache);
+    }
+
+    private static ShortcutInfo readShortcut(DataInputStream in, ItemInfo position,
+            UserManagerCompat userManager, IconCache iconCache)
+            throws IOException, URISyntaxException {
+        ShortcutInfo info = new ShortcutInfo();
+        copyPosition(position, info);
+        String title = readString(in);
+        info.customTitle = readString(in);
+        info.swipeUpAction = readString(in);
+        info.intent = Intent.parseUri(in.readUTF(), 0);
+        info.user = userManager.getUserForSerialNumber(in.readLong());
+        info.status = in.readInt();
+        info.runtimeStatusFlags = in.readInt();
+        info.iconColor = in.readInt();
+
+        int iconLength = in.readInt();
+        if (iconLength >= 0) {
+            byte[] icon = new byte[iconLength];
+            in.readFully(icon);
+            info.iconBitmap = BitmapFactory.decodeByteArray(icon, 0, iconLength);
+        } else if (info.user != null) {
+            iconCache.getTitleAndIcon(info, true /* useLowResIcon */);
+        }
+        info.title = title;
+        info.contentDescription = title;
+        return info.user == null || info.iconBitmap == null ? null : info;
+    }
+
+    private static void writePosition(DataOutputStream out, ItemInfo item) throws IOException {
+        out.writeInt(item.itemType);
+        out.writeLong(item.id);
+        out.writeLong(item.container);
+        out.writeLong(item.screenId);
+        out.writeInt(item.cellX);
+        out.writeInt(item.cellY);
+        out.writeInt(item.spanX);
+        out.writeInt(item.spanY);
+        out.writeInt(item.rank);
+    }
+
+    private static void readPosition(DataInputStream in, ItemInfo item) throws IOException {
+        item.itemType = in.readInt();
+        item.id = in.readLong();
+        item.container = in.readLong();
+        item.screenId = in.readLong();
+        item.cellX = in.readInt();
+        item.cellY = in.readInt();
+        item.spanX = in.readInt();
+        item.spanY = in.readInt();
+        item.rank = in.readInt();
+    }
+
+    private static void copyPosition(ItemInfo from, ItemInfo to) {
+        to.itemType = from.itemType;
+        to.id = from.id;
+        to.container = from.container;
+        to.screenId = from.screenId;
+        to.cellX = from.cellX;
+        to.cellY = from.cellY;
+        to.spanX = from.spanX;
+        to.spanY = from.spanY;
+        to.rank = from.rank;
+    }
+
+    private static void writeString(DataOutputStream out, CharSequence value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value.toString());
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    private static byte[] read(Context context) {
+        synchronized (sFileLock) {
+            try {
+                return getFile(context).readFully();
+            } catch (IOException e) {
+                // No snapshot yet
+                return null;
+            }
+        }
+    }
+
+    private static void write(Context context, byte[] data) {
+        synchronized (sFileLock) {
+            AtomicFile file = getFile(context);
+            FileOutputStream out = null;
+            try {
+                out = file.startWrite();
+                out.write(data);
+                file.finishWrite(out);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to write workspace snapshot", e);
+                if (out != null) {
+                    file.failWrite(out);
+                }
+            }
+        }
+    }
+
+    private static void delete(Context context) {
+        synchronized (sFileLock) {
+            getFile(context).delete();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ *     Copyright (C) 2019 Lawnchair Team.
+ *
+ *     This file is part of Lawnchair Launcher.
+ *
+ *     Lawnchair Launcher is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Lawnchair Launcher is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Lawnchair Launcher.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.android.launcher3.util;
+
+import android.content.Context;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.launcher3.BuildConfig;
+import com.android.launcher3.Utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Always-on registry of startup timings and counters, kept across launches.
+ *
+ * {@link TraceHelper} records the time of every section and partition, other code can record
+ * values or use {@link Counter}s. The values of the current process are saved as one launch
+ * once the loader has finished, in a ring buffer file of the last {@link #MAX_LAUNCHES}
+ * launches. The dump shows their distribution per app version, to compare releases.
+ */
+public class StartupMetrics {
+
+    private static final String TAG = "StartupMetrics";
+
+    private static final String FILE_NAME = "startup_metrics.bin";
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_LAUNCHES = 32;
+
+    private static final Object sLock = new Object();
+    // Sum and sample count per key, for the current process
+    private static final ArrayMap<String, long[]> sValues = new ArrayMap<>();
+    private static final ArrayList<Counter> sCounters = new ArrayList<>();
+    private static boolean sLaunchSaved;
+
+    /**
+     * A value which is incremented often, without taking the registry lock.
+     */
+    public static class Counter {
+
+        private final String mKey;
+        private final AtomicLong mValue = new AtomicLong();
+
+        private Counter(String key) {
+            mKey = key;
+        }
+
+        public void increment() {
+            mValue.incrementAndGet();
+        }
+    }
+
+    public static Counter counter(String key) {
+        Counter counter = new Counter(key);
+        synchronized (sLock) {
+            sCounters.add(counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Adds {@param value} to {@param key} for the current process.
+     */
+    public static void record(String key, long value) {
+        synchronized (sLock) {
+            long[] sum = sValues.get(key);
+            if (sum == null) {
+                sum = new long[2];
+                sValues.put(key, sum);
+            }
+            sum[0] += value;
+            sum[1]++;
+        }
+    }
+
+    /**
+     * Saves the values recorded so far as a launch, only once per process.
+     */
+    public static void saveLaunch(Context context) {
+        final Launch launch;
+        synchronized (sLock) {
+            if (sLaunchSaved) {
+                return;
+            }
+            sLaunchSaved = true;
+            launch = getCurrentLaunchLocked();
+        }
+        final Context appContext = context.getApplicationContext();
+        Utilities.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (sLock) {
+                    ArrayList<Launch> launches = readLaunchesLocked(appContext);
+                    launches.add(launch);
+                    while (launches.size() > MAX_LAUNCHES) {
+                        launches.remove(0);
+                    }
+                    writeLaunchesLocked(appContext, launches);
+                }
+            }
+        });
+    }
+
+    private static Launch getCurrentLaunchLocked() {
+        Launch launch = new Launch(System.currentTimeMillis(), BuildConfig.VERSION_CODE);
+        for (int i = 0; i < sValues.size(); i++) {
+            long[] sum = sValues.valueAt(i);
+            launch.put(sValues.keyAt(i), sum[0], (int) sum[1]);
+        }
+        for (Counter counter : sCounters) {
+            launch.put(counter.mKey, counter.mValue.get(), 1);
+        }
+        return launch;
+    }
+
+    public static void dump(Context context, String prefix, PrintWriter writer) {
+        ArrayList<Launch> launches;
+        Launch current;
+        synchronized (sLock) {
+            launches = readLaunchesLocked(context.getApplicationContext());
+            current = getCurrentLaunchLocked();
+        }
+        writer.println(prefix + "Startup metrics, " + launches.size() + " launches saved");
+        DateFormat dateFormat = DateFormat.getDateTimeInstance();
+        if (!launches.isEmpty()) {
+            writer.println(prefix + "  from " + dateFormat.format(new Date(launches.get(0).time))
+                    + " to " + dateFormat.format(
+                    new Date(launches.get(launches.size() - 1).time)));
+        }
+
+        // Newest version first
+        ArrayList<Integer> versions = new ArrayList<>();
+        for (int i = launches.size() - 1; i >= 0; i--) {
+            if (!versions.contains(launches.get(i).versionCode)) {
+                versions.add(launches.get(i).versionCode);
+            }
+        }
+        for (int version : versions) {
+            ArrayList<Launch> versionLaunches = new ArrayList<>();
+            for (Launch launch : launches) {
+                if (launch.versionCode == version) {
+                    versionLaunches.add(launch);
+                }
+            }
+            writer.println(prefix + "  Version " + version + ", " + versionLaunches.size()
+                    + " launches (min / median / 90th percentile / max per launch)");
+            ArrayList<String> keys = new ArrayList<>();
+            for (Launch launch : versionLaunches) {
+                for (String key : launch.keys) {
+                    if (!keys.contains(key)) {
+                        keys.add(key);
+                    }
+                }
+            }
+            for (String key : keys) {
+                long[] values = new long[versionLaunches.size()];
+                int count = 0;
+                for (Launch launch : versionLaunches) {
+                    int index = launch.keys.indexOf(key);
+                    if (index >= 0) {
+                        values[count++] = launch.values.get(index);
+                    }
+                }
+                Arrays.sort(values, 0, count);
+                writer.println(prefix + "    " + key + ": " + values[0]
+                        + " / " + values[count / 2]
+                        + " / " + values[Math.min(count - 1, count * 9 / 10)]
+                        + " / " + values[count - 1] + " (" + count + " launches)");
+            }
+        }
+
+        writer.println(prefix + "  Current process (total / samples)");
+        for (int i = 0; i < current.keys.size(); i++) {
+            writer.println(prefix + "    " + current.keys.get(i) + ": " + current.values.get(i)
+                    + " / " + current.samples.get(i));
+        }
+    }
+
+    private static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    private static ArrayList<Launch> readLaunchesLocked(Context context) {
+        ArrayList<Launch> launches = new ArrayList<>();
+        byte[] data;
+        try {
+            data = getFile(context).readFully();
+        } catch (IOException e) {
+            // Nothing saved yet
+            return launches;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != FORMAT_VERSION) {
+                return launches;
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                Launch launch = new Launch(in.readLong(), in.readInt());
+                for (int j = in.readInt(); j > 0; j--) {
+                    launch.put(in.readUTF(), in.readLong(), in.readInt());
+                }
+                launches.add(launch);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read startup metrics", e);
+            launches.clear();
+        }
+        return launches;
+    }
+
+    private static void writeLaunchesLocked(Context context, ArrayList<Launch> launches) {
+        AtomicFile file = getFile(context);
+        FileOutputStream fos = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(launches.size());
+            for (Launch launch : launches) {
+                out.writeLong(launch.time);
+                out.writeInt(launch.versionCode);
+                out.writeInt(launch.keys.size());
+                for (int i = 0; i < launch.keys.size(); i++) {
+                    out.writeUTF(launch.keys.get(i));
+                    out.writeLong(launch.values.get(i));
+                    out.writeInt(launch.samples.get(i));
+                }
+            }
+            out.flush();
+
+            fos = file.startWrite();
+            fos.write(bytes.toByteArray());
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write startup metrics", e);
+            if (fos != null) {
+                file.failWrite(fos);
+            }
+        }
+    }
+
+    private static class Launch {
+
+        final long time;
+        final int versionCode;
+        final ArrayList<String> keys = new ArrayList<>();
+        final ArrayList<Long> values = new ArrayList<>();
+        final ArrayList<Integer> samples = new ArrayList<>();
+
+        Launch(long time, int versionCode) {
+            this.time = time;
+            this.versionCode = versionCode;
+        }
+
+        void put(String key, long value, int sampleCount) {
+            keys.add(key);
+            values.add(value);
+            samples.add(sampleCount);
+        }
+    }
+}
@@ -22,13 +22,16 @@ import android.os.SystemClock;
 import android.os.Trace;
 import android.util.ArrayMap;
 import android.util.Log;
-import android.util.MutableLong;
 
 import com.android.launcher3.config.FeatureFlags;
 
 /**
  * A wrapper around {@link Trace} to allow easier proguarding for production builds.
  *
+ * For the loading and binding sections in {@link #RECORDED_SECTIONS}, the time up to every
+ * partition and to the end of the section is always recorded in {@link StartupMetrics}, keyed by
+ * the names it is logged with.
+ *
  * To enable any tracing log, execute the following command:
  * $ adb shell setprop log.tag.TAGNAME VERBOSE
  */
@@ -37,56 +40,94 @@ public class TraceHelper {
     private static final boolean ENABLED = FeatureFlags.IS_DOGFOOD_BUILD;
 
     private static final boolean SYSTEM_TRACE = false;
-    private static final ArrayMap<String, MutableLong> sUpTimes = ENABLED ? new ArrayMap<>() : null;
+    // Their partitions are fixed names, others like the gesture sections log changing values
+    private static final String[] RECORDED_SECTIONS = {
+            "LoaderTask", "WORKSPACE_BIND", "startBinding", "finishBindingItems",
+            "Launcher-onCreate", "ON_RESUME" };
+    private static final ArrayMap<String, Section> sSections = new ArrayMap<>();
 
-    public static void beginSection(String sectionName) {
-        if (ENABLED) {
-            MutableLong time = sUpTimes.get(sectionName);
-            if (time == null) {
-                time = new MutableLong(isLoggable(sectionName, VERBOSE) ? 0 : -1);
-                sUpTimes.put(sectionName, time);
+    private static class Section {
+        long startTime;
+        final boolean log;
+        final boolean record;
+
+        Section(boolean log, boolean record) {
+            this.log = log;
+            this.record = record;
+        }
+    }
+
+    private static Section getSection(String sectionName) {
+        synchronized (sSections) {
+            return sSections.get(sectionName);
+        }
+    }
+
+    private static boolean isRecorded(String sectionName) {
+        for (String recorded : RECORDED_SECTIONS) {
+            if (recorded.equals(sectionName)) {
+                return true;
             }
-            if (time.value >= 0) {
-                if (SYSTEM_TRACE) {
-                    Trace.beginSection(sectionName);
-                }
-                time.value = SystemClock.uptimeMillis();
+        }
+        return false;
+    }
+
+    public static void beginSection(String sectionName) {
+        Section section;
+        synchronized (sSections) {
+            section = sSections.get(sectionName);
+            if (section == null) {
+                section = new Section(ENABLED && isLoggable(sectionName, VERBOSE),
+                        isRecorded(sectionName));
+                sSections.put(sectionName, section);
             }
         }
+        if (SYSTEM_TRACE && section.log) {
+            Trace.beginSection(sectionName);
+        }
+        section.startTime = SystemClock.uptimeMillis();
     }
 
     public static void partitionSection(String sectionName, String partition) {
-        if (ENABLED) {
-            MutableLong time = sUpTimes.get(sectionName);
-            if (time != null && time.value >= 0) {
-
-                if (SYSTEM_TRACE) {
-                    Trace.endSection();
-                    Trace.beginSection(sectionName);
-                }
+        Section section = getSection(sectionName);
+        if (section == null) {
+            return;
+        }
+        if (SYSTEM_TRACE && section.log) {
+            Trace.endSection();
+            Trace.beginSection(sectionName);
+        }
 
-                long now = SystemClock.uptimeMillis();
-                Log.d(sectionName, partition + " : " + (now - time.value));
-                time.value = now;
-            }
+        long now = SystemClock.uptimeMillis();
+        long duration = now - section.startTime;
+        section.startTime = now;
+        if (section.record) {
+            StartupMetrics.record(sectionName + ": " + partition, duration);
+        }
+        if (section.log) {
+            Log.d(sectionName, partition + " : " + duration);
         }
     }
 
     public static void endSection(String sectionName) {
-        if (ENABLED) {
-            endSection(sectionName, "End");
-        }
+        endSection(sectionName, "End");
     }
 
     public static void endSection(String sectionName, String msg) {
-        if (ENABLED) {
-            MutableLong time = sUpTimes.get(sectionName);
-            if (time != null && time.value >= 0) {
-                if (SYSTEM_TRACE) {
-                    Trace.endSection();
-                }
-                Log.d(sectionName, msg + " : " + (SystemClock.uptimeMillis() - time.value));
-            }
+        Section section = getSection(sectionName);
+        if (section == null) {
+            return;
+        }
+        if (SYSTEM_TRACE && section.log) {
+            Trace.endSection();
+        }
+        long duration = SystemClock.uptimeMillis() - section.startTime;
+        if (section.record) {
+            // The message may hold ids, which would make a key per call
+            StartupMetrics.record(sectionName + ": End", duration);
+        }
+        if (section.log) {
+            Log.d(sectionName, msg + " : " + duration);
         }
     }
 }
@@ -0,0 +1,337 @@
+package com.google.android.apps.nexuslauncher;
+
+import android.content.Context;
+import android.os.Handler;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.launcher3.LauncherModel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time decayed launch scores of the predicted components, per hour of day and headset state.
+ *
+ * Launches are weighted by exp(λ * (t - reference)) instead of decaying every score over time,
+ * which ranks the same since all scores are compared at the same time. The scores are rebased
+ * once the weights get large. Every component is interned to an id indexing into one flat score
+ * array, and all scores are persisted together in a single file.
+ *
+ * The ranking for the current hour and headset state is kept until a launch is logged or the
+ * context changes. There is one instance per process, as all of them would share the file.
+ */
+class AppLaunchScores {
+
+    private static final String TAG = "AppLaunchScores";
+
+    private static final String FILE_NAME = "app_launch_scores.bin";
+    private static final int FILE_VERSION = 1;
+
+    private static final int MAX_COMPONENTS = 100;
+
+    private static final int BUCKET_ALL = 0;
+    private static final int BUCKET_FIRST_HOUR = 1;
+    private static final int BUCKET_HEADSET = BUCKET_FIRST_HOUR + 24;
+    private static final int BUCKET_COUNT = BUCKET_HEADSET + 1;
+
+    private static final float HOUR_WEIGHT = 2f;
+    private static final float ADJACENT_HOUR_WEIGHT = 0.5f;
+    private static final float HEADSET_WEIGHT = 4f;
+
+    private static final double DECAY_RATE = Math.log(2) / TimeUnit.DAYS.toMillis(7);
+    // Rebase once a launch weighs about e^10 times as much as one at the reference time
+    private static final double MAX_EXPONENT = 10;
+
+    private static final long SAVE_DELAY = 2000;
+
+    private static AppLaunchScores sInstance;
+
+    static synchronized AppLaunchScores getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppLaunchScores(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final AtomicFile mFile;
+    private final Handler mWorker = new Handler(LauncherModel.getWorkerLooper());
+    private final Runnable mSaveRunnable = this::save;
+
+    private final HashMap<String, Integer> mIds = new HashMap<>();
+    private final ArrayList<String> mComponents = new ArrayList<>();
+    private final float[] mScores = new float[MAX_COMPONENTS * BUCKET_COUNT];
+    private long mReferenceTime;
+
+    // Only set once loaded, so that the UI thread can check it without waiting for the file
+    private volatile boolean mLoaded;
+    private int mRankedContext = -1;
+    private List<String> mRanked = new ArrayList<>();
+
+    private AppLaunchScores(Context context) {
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    synchronized boolean contains(String component) {
+        ensureLoaded();
+        return mIds.containsKey(component);
+    }
+
+    /**
+     * Records a launch of {@param component} at the current time.
+     */
+    synchronized void logLaunch(String component, boolean headsetConnected) {
+        long now = System.currentTimeMillis();
+        int hour = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
+        float weight = getWeight(now);
+        int offset = getOrCreateId(component) * BUCKET_COUNT;
+        mScores[offset + BUCKET_ALL] += weight;
+        mScores[offset + BUCKET_FIRST_HOUR + hour] += weight;
+        if (headsetConnected) {
+            mScores[offset + BUCKET_HEADSET] += weight;
+        }
+        onChanged();
+    }
+
+    /**
+     * Adds {@param launches} launches of {@param component}, without hour or headset information.
+     */
+    synchronized void add(String component, int launches) {
+        mScores[getOrCreateId(component) * BUCKET_COUNT + BUCKET_ALL] +=
+                launches * getWeight(System.currentTimeMillis());
+        onChanged();
+    }
+
+    synchronized void remove(String component) {
+        ensureLoaded();
+        Integer id = mIds.remove(component);
+        if (id == null) {
+            return;
+        }
+        // Move the last component into the freed id to keep the ids dense
+        int last = mComponents.size() - 1;
+        if (id != last) {
+            String moved = mComponents.get(last);
+            mComponents.set(id, moved);
+            mIds.put(moved, id);
+            System.arraycopy(mScores, last * BUCKET_COUNT, mScores, id * BUCKET_COUNT,
+                    BUCKET_COUNT);
+        }
+        mComponents.remove(last);
+        Arrays.fill(mScores, last * BUCKET_COUNT, (last + 1) * BUCKET_COUNT, 0);
+        onChanged();
+    }
+
+    /**
+     * Whether the scores have been loaded from the file, which {@link #ensureLoaded} does.
+     */
+    boolean isLoaded() {
+        return mLoaded;
+    }
+
+    synchronized void clear() {
+        mLoaded = true;
+        mIds.clear();
+        mComponents.clear();
+        Arrays.fill(mScores, 0);
+        onChanged();
+    }
+
+    synchronized List<String> getComponents() {
+        ensureLoaded();
+        return new ArrayList<>(mComponents);
+    }
+
+    /**
+     * Returns whether {@link #getRanked} would rank the components for a different context than
+     * it did last time.
+     */
+    synchronized boolean isContextChanged(boolean headsetConnected) {
+        return mRankedContext != getContext(headsetConnected);
+    }
+
+    /**
+     * Returns the top {@param limit} components for the current hour and headset state, best
+     * first.
+     */
+    synchronized List<String> getRanked(int limit, boolean headsetConnected) {
+        ensureLoaded();
+        int context = getContext(headsetConnected);
+        if (context == mRankedContext && mRanked.size() == Math.min(limit, mComponents.size())) {
+            return mRanked;
+        }
+
+        int hour = context >> 1;
+        int count = mComponents.size();
+        int resultCount = Math.min(limit, count);
+        if (resultCount <= 0) {
+            mRanked = new ArrayList<>();
+            mRankedContext = context;
+            return mRanked;
+        }
+        int[] top = new int[resultCount];
+        float[] topScores = new float[resultCount];
+        int size = 0;
+        for (int id = 0; id < count; id++) {
+            float score = getScore(id, hour, headsetConnected);
+            if (size == resultCount && score <= topScores[size - 1]) {
+                continue;
+            }
+            // Insertion into the sorted top list, which is small
+            int i = size < resultCount ? size++ : size - 1;
+            while (i > 0 && topScores[i - 1] < score) {
+                top[i] = top[i - 1];
+                topScores[i] = topScores[i - 1];
+                i--;
+            }
+            top[i] = id;
+            topScores[i] = score;
+        }
+
+        ArrayList<String> ranked = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ranked.add(mComponents.get(top[i]));
+        }
+        mRanked = ranked;
+        mRankedContext = context;
+        return ranked;
+    }
+
+    private float getScore(int id, int hour, boolean headsetConnected) {
+        int offset = id * BUCKET_COUNT;
+        float score = mScores[offset + BUCKET_ALL]
+                + HOUR_WEIGHT * (mScores[offset + BUCKET_FIRST_HOUR + hour]
+                + ADJACENT_HOUR_WEIGHT * (mScores[offset + BUCKET_FIRST_HOUR + (hour + 23) % 24]
+                        + mScores[offset + BUCKET_FIRST_HOUR + (hour + 1) % 24]));
+        if (headsetConnected) {
+            score += HEADSET_WEIGHT * mScores[offset + BUCKET_HEADSET];
+        }
+        return score;
+    }
+
+    private static int getContext(boolean headsetConnected) {
+        return (Calendar.getInstance().get(Calendar.HOUR_OF_DAY) << 1) | (headsetConnected ? 1 : 0);
+    }
+
+    private float getWeight(long now) {
+        ensureLoaded();
+        double exponent = DECAY_RATE * (now - mReferenceTime);
+        if (exponent > MAX_EXPONENT || exponent < 0) {
+            float scale = (float) Math.exp(-exponent);
+            int length = mComponents.size() * BUCKET_COUNT;
+            for (int i = 0; i < length; i++) {
+                mScores[i] *= scale;
+            }
+            mReferenceTime = now;
+            return 1f;
+        }
+        return (float) Math.exp(exponent);
+    }
+
+    private int getOrCreateId(String component) {
+        ensureLoaded();
+        Integer id = mIds.get(component);
+        if (id != null) {
+            return id;
+        }
+        if (mComponents.size() >= MAX_COMPONENTS) {
+            removeLowest();
+        }
+        int newId = mComponents.size();
+        mComponents.add(component);
+        mIds.put(component, newId);
+        return newId;
+    }
+
+    private void removeLowest() {
+        int lowest = 0;
+        int count = mComponents.size();
+        for (int id = 1; id < count; id++) {
+            if (mScores[id * BUCKET_COUNT + BUCKET_ALL]
+                    < mScores[lowest * BUCKET_COUNT + BUCKET_ALL]) {
+                lowest = id;
+            }
+        }
+        remove(mComponents.get(lowest));
+    }
+
+    private void onChanged() {
+        mRankedContext = -1;
+        mWorker.removeCallbacks(mSaveRunnable);
+        mWorker.postDelayed(mSaveRunnable, SAVE_DELAY);
+    }
+
+    /**
+     * Loads the scores from the file unless they are loaded already. Reads the file, so this
+     * should run on the worker thread before the UI thread needs the scores.
+     */
+    synchronized void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mReferenceTime = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(mFile.openRead()))) {
+            if (in.readInt() == FILE_VERSION) {
+                long referenceTime = in.readLong();
+                int count = Math.min(in.readInt(), MAX_COMPONENTS);
+                for (int id = 0; id < count; id++) {
+                    String component = in.readUTF();
+                    mComponents.add(component);
+                    mIds.put(component, id);
+                    for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                        mScores[id * BUCKET_COUNT + bucket] = in.readFloat();
+                    }
+                }
+                mReferenceTime = referenceTime;
+            }
+        } catch (FileNotFoundException e) {
+            // No launches have been logged yet
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load launch scores", e);
+            mIds.clear();
+            mComponents.clear();
+            Arrays.fill(mScores, 0);
+        }
+        mLoaded = true;
+    }
+
+    private void save() {
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            synchronized (this) {
+                out.writeInt(FILE_VERSION);
+                out.writeLong(mReferenceTime);
+                int count = mComponents.size();
+                out.writeInt(count);
+                for (int id = 0; id < count; id++) {
+                    out.writeUTF(mComponents.get(id));
+                    for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                        out.writeFloat(mScores[id * BUCKET_COUNT + bucket]);
+                    }
+                }
+            }
+            out.flush();
+            mFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save launch scores", e);
+            if (stream != null) {
+                mFile.failWrite(stream);
+            }
+        }
+    }
+}
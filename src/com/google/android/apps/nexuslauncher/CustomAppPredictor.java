@@ -5,6 +5,9 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.media.AudioManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Process;
 import android.os.UserHandle;
 import android.util.Log;
@@ -13,9 +16,12 @@ import android.view.ViewParent;
 
 import com.android.launcher3.AppFilter;
 import com.android.launcher3.AppInfo;
+import com.android.launcher3.LauncherModel;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.allapps.AllAppsContainerView;
+import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.logging.UserEventDispatcher;
+import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.util.ComponentKey;
 
 import com.google.android.apps.nexuslauncher.util.ComponentKeyMapper;
@@ -24,20 +30,26 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import ch.deletescape.lawnchair.settings.ui.SettingsActivity;
 
 public class CustomAppPredictor extends UserEventDispatcher implements SharedPreferences.OnSharedPreferenceChangeListener {
     protected static final int MAX_PREDICTIONS = 12;
-    private static final int BOOST_ON_OPEN = 9;
     private static final String PREDICTION_SET = "pref_prediction_set";
     private static final String PREDICTION_PREFIX = "pref_prediction_count_";
     private static final String HIDDEN_PREDICTIONS_SET_PREF = "pref_hidden_prediction_set";
     private static final Set<String> EMPTY_SET = new HashSet<>();
+    // Launcher creates a new predictor when its configuration changes, and doesn't tear down the
+    // old one, so the callback is registered once and only holds the predictors weakly
+    private static PackageCallback sPackageCallback;
     private final Context mContext;
     protected final AppFilter mAppFilter;
     private final SharedPreferences mPrefs;
     private final PackageManager mPackageManager;
+    private final AudioManager mAudioManager;
+    private final AppLaunchScores mScores;
+    private List<ComponentKeyMapper> mCachedPredictions;
 
     protected final static String[] PLACE_HOLDERS = new String[] {
             "com.google.android.apps.photos",
@@ -80,36 +92,58 @@ public class CustomAppPredictor extends UserEventDispatcher implements SharedPre
         mPrefs = Utilities.getPrefs(context);
         mPrefs.registerOnSharedPreferenceChangeListener(this);
         mPackageManager = context.getPackageManager();
+        mAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        mScores = AppLaunchScores.getInstance(context);
         mUiManager = new UiManager(this);
+        // Reading the launch scores reads a file, which shouldn't block the UI thread
+        new Handler(LauncherModel.getWorkerLooper()).post(() -> {
+            mScores.ensureLoaded();
+            migrateLaunchCounts();
+            new Handler(Looper.getMainLooper()).post(this::invalidatePredictions);
+        });
+        if (sPackageCallback == null) {
+            sPackageCallback = new PackageCallback();
+            LauncherAppsCompat.getInstance(context).addOnAppsChangedCallback(sPackageCallback);
+        }
+        sPackageCallback.mPredictors.add(this);
     }
 
     public List<ComponentKeyMapper> getPredictions() {
-        List<ComponentKeyMapper> list = new ArrayList<>();
-        if (isPredictorEnabled()) {
-            clearNonExistingComponents();
-
-            List<String> predictionList = new ArrayList<>(getStringSetCopy());
-
-            Collections.sort(predictionList, (o1, o2) -> Integer.compare(getLaunchCount(o2), getLaunchCount(o1)));
+        if (!isPredictorEnabled()) {
+            return new ArrayList<>();
+        }
+        if (mCachedPredictions == null
+                || (mScores.isLoaded() && mScores.isContextChanged(isHeadsetConnected()))) {
+            mCachedPredictions = loadPredictions();
+        }
+        return new ArrayList<>(mCachedPredictions);
+    }
 
-            for (String prediction : predictionList) {
-                ComponentKeyMapper keyMapper = getComponentFromString(prediction);
-                if (!isHiddenApp(mContext, keyMapper.getComponentKey())) {
-                    list.add(keyMapper);
-                }
+    private List<ComponentKeyMapper> loadPredictions() {
+        // Only the place holders are shown until the launch scores are loaded
+        List<String> predictionList = new ArrayList<>();
+        if (mScores.isLoaded()) {
+            clearNonExistingComponents();
+            predictionList = mScores.getRanked(MAX_PREDICTIONS, isHeadsetConnected());
+        }
+        List<ComponentKeyMapper> list = new ArrayList<>();
+        for (String prediction : predictionList) {
+            ComponentKeyMapper keyMapper = getComponentFromString(prediction);
+            if (!isHiddenApp(mContext, keyMapper.getComponentKey())) {
+                list.add(keyMapper);
             }
+        }
 
-            for (int i = 0; i < PLACE_HOLDERS.length && list.size() < MAX_PREDICTIONS; i++) {
-                String placeHolder = PLACE_HOLDERS[i];
-                Intent intent = mPackageManager.getLaunchIntentForPackage(placeHolder);
-                if (intent != null) {
-                    ComponentName componentInfo = intent.getComponent();
-                    if (componentInfo != null) {
-                        ComponentKey key = new ComponentKey(componentInfo, Process.myUserHandle());
-                        if (!predictionList.contains(key.toString()) && !isHiddenApp(mContext,
-                                key)) {
-                            list.add(new ComponentKeyMapper(mContext, key));
-                        }
+        for (int i = 0; i < PLACE_HOLDERS.length && list.size() < MAX_PREDICTIONS; i++) {
+            String placeHolder = PLACE_HOLDERS[i];
+            Intent intent = mPackageManager.getLaunchIntentForPackage(placeHolder);
+            if (intent != null) {
+                ComponentName componentInfo = intent.getComponent();
+                if (componentInfo != null) {
+                    ComponentKey key = new ComponentKey(componentInfo, Process.myUserHandle());
+                    if (!predictionList.contains(key.toString()) && !isHiddenApp(mContext,
+                            key)) {
+                        list.add(new ComponentKeyMapper(mContext, key));
                     }
                 }
             }
@@ -123,52 +157,49 @@ public class CustomAppPredictor extends UserEventDispatcher implements SharedPre
         if (isPredictorEnabled() && recursiveIsDrawer(v)) {
             ComponentName componentInfo = intent.getComponent();
             if (componentInfo != null && mAppFilter.shouldShowApp(componentInfo, user)) {
-                clearNonExistingComponents();
-                
-                Set<String> predictionSet = getStringSetCopy();
-                SharedPreferences.Editor edit = mPrefs.edit();
-
                 String prediction = new ComponentKey(componentInfo, user).toString();
-                if (predictionSet.contains(prediction)) {
-                    edit.putInt(PREDICTION_PREFIX + prediction, getLaunchCount(prediction) + BOOST_ON_OPEN);
-                } else if (predictionSet.size() < MAX_PREDICTIONS || decayHasSpotFree(predictionSet, edit)) {
-                    predictionSet.add(prediction);
-                }
-
-                edit.putStringSet(PREDICTION_SET, predictionSet);
-                edit.apply();
+                mScores.logLaunch(prediction, isHeadsetConnected());
+                mCachedPredictions = null;
 
                 mUiManager.onPredictionsUpdated();
             }
         }
     }
 
-    private boolean decayHasSpotFree(Set<String> toDecay, SharedPreferences.Editor edit) {
-        boolean spotFree = false;
-        Set<String> toRemove = new HashSet<>();
-        for (String prediction : toDecay) {
-            int launchCount = getLaunchCount(prediction);
-            if (launchCount > 0) {
-                edit.putInt(PREDICTION_PREFIX + prediction, --launchCount);
-            } else if (!spotFree) {
-                edit.remove(PREDICTION_PREFIX + prediction);
-                toRemove.add(prediction);
-                spotFree = true;
-            }
+    /**
+     * Whether headphones are currently connected, which boosts apps usually launched with them.
+     */
+    @SuppressWarnings("deprecation")
+    protected boolean isHeadsetConnected() {
+        return mAudioManager.isWiredHeadsetOn() || mAudioManager.isBluetoothA2dpOn();
+    }
+
+    /**
+     * Moves the launch counts of the old prefs based predictor into the launch scores.
+     */
+    private void migrateLaunchCounts() {
+        Set<String> predictionSet = getStringSetCopy();
+        if (predictionSet.isEmpty()) {
+            return;
         }
-        for (String prediction : toRemove) {
-            toDecay.remove(prediction);
+        SharedPreferences.Editor edit = mPrefs.edit();
+        for (String prediction : predictionSet) {
+            if (!mScores.contains(prediction)) {
+                // Launch counts are zero based
+                mScores.add(prediction, mPrefs.getInt(PREDICTION_PREFIX + prediction, 0) + 1);
+            }
+            edit.remove(PREDICTION_PREFIX + prediction);
         }
-        return spotFree;
+        edit.remove(PREDICTION_SET);
+        edit.apply();
     }
 
     /**
-     * Zero-based launch count of a shortcut
-     * @param component serialized component
-     * @return the number of launches, at least zero
+     * Drops the cached predictions, they are loaded again when the listeners ask for them.
      */
-    private int getLaunchCount(String component) {
-        return mPrefs.getInt(PREDICTION_PREFIX + component, 0);
+    private void invalidatePredictions() {
+        mCachedPredictions = null;
+        mUiManager.onPredictionsUpdated();
     }
 
     protected boolean recursiveIsDrawer(View v) {
@@ -192,20 +223,13 @@ public class CustomAppPredictor extends UserEventDispatcher implements SharedPre
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if (key.equals(SettingsActivity.SHOW_PREDICTIONS_PREF)) {
             if (!isPredictorEnabled()) {
-                Set<String> predictionSet = getStringSetCopy();
-
-                SharedPreferences.Editor edit = mPrefs.edit();
-                for (String prediction : predictionSet) {
-                    Log.i("Predictor", "Clearing " + prediction + " at " + getLaunchCount(prediction));
-                    edit.remove(PREDICTION_PREFIX + prediction);
-                }
-                edit.putStringSet(PREDICTION_SET, EMPTY_SET);
-                edit.apply();
+                Log.i("Predictor", "Clearing launch scores");
+                mScores.clear();
             }
 
-            mUiManager.onPredictionsUpdated();
+            invalidatePredictions();
         } else if (key.equals(HIDDEN_PREDICTIONS_SET_PREF)) {
-            mUiManager.onPredictionsUpdated();
+            invalidatePredictions();
         }
     }
 
@@ -214,30 +238,22 @@ public class CustomAppPredictor extends UserEventDispatcher implements SharedPre
     }
 
     private void clearNonExistingComponents() {
-        Set<String> originalSet = mPrefs.getStringSet(PREDICTION_SET, EMPTY_SET);
-        Set<String> predictionSet = new HashSet<>(originalSet);
-
-        SharedPreferences.Editor edit = mPrefs.edit();
-        for (String prediction : originalSet) {
+        for (String prediction : mScores.getComponents()) {
             ComponentName cn = new ComponentKey(mContext, prediction).componentName;
             try {
                 mPackageManager.getActivityInfo(cn, 0);
             } catch (PackageManager.NameNotFoundException e) {
-                predictionSet.remove(prediction);
-                edit.remove(PREDICTION_PREFIX + prediction);
+                mScores.remove(prediction);
                 Intent intent = mPackageManager.getLaunchIntentForPackage(cn.getPackageName());
                 if (intent != null) {
                     ComponentName componentInfo = intent.getComponent();
                     if (componentInfo != null) {
                         ComponentKey key = new ComponentKey(componentInfo, Process.myUserHandle());
-                        predictionSet.add(key.toString());
+                        mScores.add(key.toString(), 1);
                     }
                 }
             }
         }
-
-        edit.putStringSet(PREDICTION_SET, predictionSet);
-        edit.apply();
     }
 
     private Set<String> getStringSetCopy() {
@@ -273,6 +289,58 @@ public class CustomAppPredictor extends UserEventDispatcher implements SharedPre
         return mUiManager;
     }
 
+    /**
+     * Reloads the predictions when apps are removed, which drops them from the launch scores.
+     */
+    private static class PackageCallback
+            implements LauncherAppsCompat.OnAppsChangedCallbackCompat {
+
+        private final Set<CustomAppPredictor> mPredictors =
+                Collections.newSetFromMap(new WeakHashMap<>());
+
+        private void invalidatePredictions() {
+            for (CustomAppPredictor predictor : new ArrayList<>(mPredictors)) {
+                predictor.invalidatePredictions();
+            }
+        }
+
+        @Override
+        public void onPackageRemoved(String packageName, UserHandle user) {
+            invalidatePredictions();
+        }
+
+        @Override
+        public void onPackageAdded(String packageName, UserHandle user) { }
+
+        @Override
+        public void onPackageChanged(String packageName, UserHandle user) {
+            // Components may have been disabled
+            invalidatePredictions();
+        }
+
+        @Override
+        public void onPackagesAvailable(String[] packageNames, UserHandle user,
+                boolean replacing) { }
+
+        @Override
+        public void onPackagesUnavailable(String[] packageNames, UserHandle user,
+                boolean replacing) {
+            if (!replacing) {
+                invalidatePredictions();
+            }
+        }
+
+        @Override
+        public void onPackagesSuspended(String[] packageNames, UserHandle user) { }
+
+        @Override
+        public void onPackagesUnsuspended(String[] packageNames, UserHandle user) { }
+
+        @Override
+        public void onShortcutsChanged(String packageName, List<ShortcutInfoCompat> shortcuts,
+                UserHandle user) { }
+    }
+
     public static class UiManager {
 
         private final CustomAppPredictor mPredictor;
@@ -8,6 +8,7 @@ import android.os.Handler;
 import android.support.v4.graphics.ColorUtils;
 import android.view.View;
 import ch.deletescape.lawnchair.settings.ui.SettingsActivity;
+import ch.deletescape.lawnchair.globalsearch.providers.web.WebSuggestionManager;
 import com.android.launcher3.*;
 import com.android.launcher3.DeviceProfile.OnDeviceProfileChangeListener;
 import com.android.launcher3.config.FeatureFlags;
@@ -78,6 +79,7 @@ public class NexusLauncher {
 
         public void dump(final String s, final FileDescriptor fileDescriptor, final PrintWriter printWriter, final String[] array) {
             SmartspaceController.get(mLauncher).cX(s, printWriter);
+            WebSuggestionManager.Companion.getInstance(mLauncher).dump(s, printWriter);
         }
 
         public void finishBindingItems(final boolean b) {
@@ -14,10 +14,8 @@ import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
-import ch.deletescape.lawnchair.LawnchairAppFilter;
 import ch.deletescape.lawnchair.allapps.FuzzyAppSearchAlgorithm;
 import com.android.launcher3.AllAppsList;
-import com.android.launcher3.AppFilter;
 import com.android.launcher3.AppInfo;
 import com.android.launcher3.BuildConfig;
 import com.android.launcher3.LauncherAppState;
@@ -41,8 +39,6 @@ public class AppSearchProvider extends ContentProvider
     private LooperExecutor mLooper;
     private LauncherAppState mApp;
 
-    private AppFilter mBaseFilter;
-
     public AppSearchProvider() {
         mPipeDataWriter = new PipeDataWriter<Future>() {
             @Override
@@ -179,11 +175,6 @@ public class AppSearchProvider extends ContentProvider
         throw new UnsupportedOperationException();
     }
 
-    public AppFilter getBaseFilter() {
-        if (mBaseFilter == null) mBaseFilter = new LawnchairAppFilter(getContext());
-        return mBaseFilter;
-    }
-
     class f implements Callable<List<AppInfo>>, LauncherModel.ModelUpdateTask
     {
         private final FutureTask<List<AppInfo>> eN;
@@ -207,7 +198,7 @@ public class AppSearchProvider extends ContentProvider
                 Log.d("AppSearchProvider", "Loading workspace failed");
                 return Collections.emptyList();
             }
-            final List<AppInfo> results = FuzzyAppSearchAlgorithm.query(mApp.getContext(), mQuery, mAllAppsList.data, getBaseFilter());
+            final List<AppInfo> results = FuzzyAppSearchAlgorithm.query(mApp.getContext(), mQuery, mAllAppsList.data);
             for (AppInfo appInfo : results) {
                 if (appInfo.usingLowResIcon) {
                     mApp.getIconCache().getTitleAndIcon(appInfo, false);
@@ -0,0 +1,153 @@
+package ch.deletescape.lawnchair.allapps;
+
+import android.content.ComponentName;
+import android.os.SystemClock;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.android.launcher3.AppInfo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import me.xdrop.fuzzywuzzy.FuzzySearch;
+import me.xdrop.fuzzywuzzy.model.BoundExtractedResult;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link FuzzyAppMatcher}, comparing it against scoring every title with fuzzywuzzy.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class FuzzyAppMatcherTest {
+    private static final String TAG = "FuzzyAppMatcherTest";
+
+    private static final String[] TITLES = {
+            "Amazon Shopping", "Android Auto", "Authenticator", "Calculator", "Calendar",
+            "Camera", "Chrome", "Clock", "Contacts", "Discord", "Docs", "Drive", "Duo",
+            "Facebook", "Files", "Firefox", "Fit", "Gallery", "Gmail", "Google",
+            "Google Pay", "Google Play Store", "Google Play Music", "Google Play Movies & TV",
+            "Home", "Instagram", "Keep Notes", "Lawnchair", "Lens", "LinkedIn", "Maps",
+            "Messages", "Messenger", "Netflix", "News", "Photos", "Phone", "Pocket Casts",
+            "Reddit", "Settings", "Sheets", "Signal", "Slack", "Slides", "Snapchat",
+            "SoundCloud", "Spotify", "Steam", "Telegram", "Termux", "TikTok", "Translate",
+            "Twitter", "Uber", "VLC", "WhatsApp", "Wikipedia", "YouTube", "YouTube Music",
+            "Zoom", "1Password", "2048", "F-Droid", "K-9 Mail", "Über Eats", "Čtečka",
+            "Weather", "Wallpapers", "Recorder", "Podcasts", "Play Games", "Outlook",
+            "Office", "OneDrive", "Nova Launcher", "Firefox Focus", "DuckDuckGo", "Brave",
+            "Authy", "AliExpress", "Airbnb", "Tasker", "Shazam", "Strava", "Waze",
+    };
+
+    private static final String[] QUERIES = {
+            "g", "go", "goo", "goog", "google", "gogle", "map", "mpas", "you", "yt", "play",
+            "play store", "store play", "cal", "clc", "whats", "wahtsapp", "f", "fire",
+            "1", "20", "uber", "über", "mail", "k9", "zz", "&",
+    };
+
+    @Test
+    public void testMatchesFuzzySearchRanking() {
+        List<AppInfo> apps = getApps(TITLES);
+        FuzzyAppMatcher matcher = new FuzzyAppMatcher(
+                FuzzyAppSearchAlgorithm.MIN_SCORE, Integer.MAX_VALUE);
+        matcher.setApps(apps);
+
+        for (String query : QUERIES) {
+            assertEquals(query, queryFuzzySearch(query, apps), matcher.query(query));
+        }
+    }
+
+    @Test
+    public void testBoundedResults() {
+        List<AppInfo> apps = getApps(TITLES);
+        FuzzyAppMatcher matcher = new FuzzyAppMatcher(FuzzyAppSearchAlgorithm.MIN_SCORE, 3);
+        matcher.setApps(apps);
+
+        for (String query : QUERIES) {
+            List<AppInfo> expected = queryFuzzySearch(query, apps);
+            assertEquals(query, expected.subList(0, Math.min(3, expected.size())),
+                    matcher.query(query));
+        }
+    }
+
+    @Test
+    public void testSetAppsUpdatesTitles() {
+        List<AppInfo> apps = getApps(TITLES);
+        FuzzyAppMatcher matcher = new FuzzyAppMatcher(
+                FuzzyAppSearchAlgorithm.MIN_SCORE, Integer.MAX_VALUE);
+        matcher.setApps(apps);
+
+        apps.get(0).title = "Zzyzx";
+        matcher.setApps(apps);
+        assertEquals(queryFuzzySearch("zzyzx", apps), matcher.query("zzyzx"));
+
+        List<AppInfo> subList = new ArrayList<>(apps.subList(1, apps.size()));
+        matcher.setApps(subList);
+        assertEquals(queryFuzzySearch("zzyzx", subList), matcher.query("zzyzx"));
+    }
+
+    @Test
+    public void benchmarkFuzzyAppMatcher() {
+        for (int copies : new int[] {1, 10, 100}) {
+            List<AppInfo> apps = new ArrayList<>();
+            for (int i = 0; i < copies; i++) {
+                apps.addAll(getApps(TITLES));
+            }
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (String query : QUERIES) {
+                queryFuzzySearch(query, apps);
+            }
+            long fuzzySearchTime = SystemClock.elapsedRealtimeNanos() - start;
+
+            FuzzyAppMatcher matcher = new FuzzyAppMatcher(FuzzyAppSearchAlgorithm.MIN_SCORE,
+                    FuzzyAppSearchAlgorithm.MAX_RESULTS);
+            start = SystemClock.elapsedRealtimeNanos();
+            matcher.setApps(apps);
+            long setupTime = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (String query : QUERIES) {
+                matcher.query(query);
+            }
+            long matcherTime = SystemClock.elapsedRealtimeNanos() - start;
+
+            Log.d(TAG, String.format("%d apps, %d queries: FuzzySearch %.2fms, "
+                            + "matcher setup %.2fms, matcher %.2fms", apps.size(), QUERIES.length,
+                    fuzzySearchTime / 1e6, setupTime / 1e6, matcherTime / 1e6));
+        }
+    }
+
+    /**
+     * The previous implementation of {@link FuzzyAppSearchAlgorithm#query}.
+     */
+    private static List<AppInfo> queryFuzzySearch(String query, List<AppInfo> apps) {
+        List<BoundExtractedResult<AppInfo>> results = FuzzySearch.extractAll(query, apps,
+                item -> item.title.toString(), new WinklerWeightedRatio(),
+                FuzzyAppSearchAlgorithm.MIN_SCORE);
+        Collections.sort(results, (a, b) -> a.getReferent().title.toString()
+                .compareTo(b.getReferent().title.toString()));
+        Collections.sort(results, (a, b) -> Integer.compare(b.getScore(), a.getScore()));
+        List<AppInfo> ranked = new ArrayList<>(results.size());
+        for (BoundExtractedResult<AppInfo> result : results) {
+            ranked.add(result.getReferent());
+        }
+        return ranked;
+    }
+
+    private static List<AppInfo> getApps(String... titles) {
+        List<AppInfo> apps = new ArrayList<>(titles.length);
+        for (String title : titles) {
+            AppInfo info = new AppInfo();
+            info.title = title;
+            info.componentName = new ComponentName("Test", title);
+            apps.add(info);
+        }
+        return apps;
+    }
+}
@@ -0,0 +1,170 @@
+package ch.deletescape.lawnchair.blur;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import android.os.SystemClock;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link StackBlur}, comparing it against a direct convolution with the stack blur
+ * kernel.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class StackBlurTest {
+    private static final String TAG = "StackBlurTest";
+
+    private static final int THREADS = 4;
+
+    @Test
+    public void testMatchesDirectConvolution() {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int radius : new int[] {1, 3, 8, 25}) {
+                int width = 67;
+                int height = 41;
+                int[] pixels = getRandomPixels(width, height, radius);
+                int[] expected = blurDirectly(pixels, width, height, radius);
+
+                new StackBlur(executor, THREADS).blur(pixels, width, height, radius, 1f);
+                assertArrayEquals("radius " + radius, expected, pixels);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStripingDoesNotChangeResult() {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            int width = 300;
+            int height = 200;
+            int[] single = getRandomPixels(width, height, 0);
+            int[] striped = single.clone();
+
+            new StackBlur(executor, 1).blur(single, width, height, 12, 1.25f);
+            new StackBlur(executor, THREADS).blur(striped, width, height, 12, 1.25f);
+            assertArrayEquals(single, striped);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSaturationMatchesColorMatrix() {
+        int width = 16;
+        int height = 16;
+        // A uniform image isn't changed by the blur, so only the saturation is applied
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, 0xff3a7bd5);
+
+        Bitmap source = Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+        Bitmap saturated = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        ColorMatrix matrix = new ColorMatrix();
+        matrix.setSaturation(BlurWallpaperProvider.VIBRANCY_SATURATION);
+        Paint paint = new Paint();
+        paint.setColorFilter(new ColorMatrixColorFilter(matrix));
+        new Canvas(saturated).drawBitmap(source, 0, 0, paint);
+        int expected = saturated.getPixel(0, 0);
+
+        new StackBlur(Runnable::run, 1).blur(pixels, width, height, 4,
+                BlurWallpaperProvider.VIBRANCY_SATURATION);
+        for (int shift = 0; shift < 24; shift += 8) {
+            int difference = ((pixels[0] >> shift) & 0xff) - ((expected >> shift) & 0xff);
+            assertTrue("channel differs by " + difference, Math.abs(difference) <= 1);
+        }
+        assertEquals(pixels[0], pixels[pixels.length - 1]);
+    }
+
+    @Test
+    public void benchmarkStackBlur() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            int width = 1440;
+            int height = 2960;
+            for (int downsample : new int[] {4, 8, 16}) {
+                for (int radius : new int[] {5, 12, 25}) {
+                    int w = width / downsample;
+                    int h = height / downsample;
+                    int[] pixels = getRandomPixels(w, h, 0);
+
+                    long start = SystemClock.elapsedRealtimeNanos();
+                    new StackBlur(executor, 1).blur(pixels, w, h, radius, 1.25f);
+                    long singleTime = SystemClock.elapsedRealtimeNanos() - start;
+
+                    start = SystemClock.elapsedRealtimeNanos();
+                    new StackBlur(executor, threads).blur(pixels, w, h, radius, 1.25f);
+                    long stripedTime = SystemClock.elapsedRealtimeNanos() - start;
+
+                    Log.d(TAG, String.format("%dx%d, downsample %d, radius %d: "
+                                    + "1 thread %.2fms, %d threads %.2fms", w, h, downsample,
+                            radius, singleTime / 1e6, threads, stripedTime / 1e6));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static int[] getRandomPixels(int width, int height, int seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    /**
+     * Applies the triangular stack blur kernel horizontally, then vertically, with clamped edges.
+     */
+    private static int[] blurDirectly(int[] pixels, int width, int height, int radius) {
+        int[] temp = new int[pixels.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                temp[y * width + x] = convolve(pixels, y * width, 1, width, x, radius);
+            }
+        }
+        int[] result = new int[pixels.length];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                result[y * width + x] = convolve(temp, x, width, height, y, radius);
+            }
+        }
+        return result;
+    }
+
+    private static int convolve(int[] line, int offset, int stride, int length, int center,
+            int radius) {
+        int weightSum = (radius + 1) * (radius + 1);
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int sum = 0;
+            for (int i = -radius; i <= radius; i++) {
+                int index = Math.min(length - 1, Math.max(0, center + i));
+                sum += ((line[offset + index * stride] >>> shift) & 0xff) * (radius + 1 - Math.abs(i));
+            }
+            result |= (sum / weightSum) << shift;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,121 @@
+package ch.deletescape.lawnchair.blur;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import ch.deletescape.lawnchair.LawnchairPreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kotlin.Unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link WallpaperFilterRunner}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class WallpaperFilterRunnerTest {
+
+    private Bitmap mWallpaper;
+    private int mUpdates;
+    private int mResults;
+    private WallpaperFilterRunner mRunner;
+
+    @Before
+    public void setUp() {
+        mWallpaper = Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888);
+        mRunner = new WallpaperFilterRunner(() -> {
+            mUpdates++;
+            return Unit.INSTANCE;
+        });
+    }
+
+    @Test
+    public void testSynchronousFilterAllowsNextUpdate() {
+        SynchronousFilter filter = new SynchronousFilter();
+
+        assertTrue(mRunner.requestUpdate());
+        mRunner.apply(filter, mWallpaper, this::onResult);
+        assertEquals(1, mResults);
+        assertFalse(mRunner.isRunning());
+
+        // The second update runs right away instead of waiting for a filter which is done
+        assertTrue(mRunner.requestUpdate());
+        mRunner.apply(filter, mWallpaper, this::onResult);
+        assertEquals(2, mResults);
+        assertEquals(0, mUpdates);
+    }
+
+    @Test
+    public void testUpdateDuringFilterRunsAfterIt() {
+        AsynchronousFilter filter = new AsynchronousFilter();
+
+        assertTrue(mRunner.requestUpdate());
+        mRunner.apply(filter, mWallpaper, this::onResult);
+        assertTrue(mRunner.isRunning());
+        assertFalse(mRunner.requestUpdate());
+        assertFalse(mRunner.requestUpdate());
+
+        filter.tasks.get(0).getEmitter().onSuccess(mWallpaper);
+        assertEquals(1, mResults);
+        assertFalse(mRunner.isRunning());
+        // Both requests are merged into one update
+        assertEquals(1, mUpdates);
+    }
+
+    private Unit onResult(Bitmap result, Throwable error) {
+        mResults++;
+        return Unit.INSTANCE;
+    }
+
+    private static class SynchronousFilter implements WallpaperFilter {
+
+        @Override
+        public boolean getAppliesVibrancy() {
+            return false;
+        }
+
+        @Override
+        public void applyPrefs(@NonNull LawnchairPreferences prefs) { }
+
+        @NonNull
+        @Override
+        public ApplyTask apply(@NonNull Bitmap wallpaper) {
+            ApplyTask task = new ApplyTask();
+            task.getEmitter().onSuccess(wallpaper);
+            return task;
+        }
+    }
+
+    private static class AsynchronousFilter implements WallpaperFilter {
+
+        final List<ApplyTask> tasks = new ArrayList<>();
+
+        @Override
+        public boolean getAppliesVibrancy() {
+            return false;
+        }
+
+        @Override
+        public void applyPrefs(@NonNull LawnchairPreferences prefs) { }
+
+        @NonNull
+        @Override
+        public ApplyTask apply(@NonNull Bitmap wallpaper) {
+            ApplyTask task = new ApplyTask();
+            tasks.add(task);
+            return task;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.android.launcher3;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.SystemClock;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.IntBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link IconBlobFormat}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class IconBlobFormatTest {
+    private static final String TAG = "IconBlobFormatTest";
+
+    private static final int ICON_SIZE = 192;
+
+    @Test
+    public void testRoundTrip() {
+        Bitmap icon = createIcon(ICON_SIZE, 0);
+        Bitmap decoded = IconBlobFormat.decode(IconBlobFormat.encode(icon), null);
+        assertEquals(Bitmap.Config.ARGB_8888, decoded.getConfig());
+        assertTrue(decoded.hasAlpha());
+        assertArrayEquals(getPixels(icon), getPixels(decoded));
+    }
+
+    @Test
+    public void testRoundTripRgb565() {
+        Bitmap icon = createIcon(ICON_SIZE, 1).copy(Bitmap.Config.RGB_565, false);
+        Bitmap decoded = IconBlobFormat.decode(IconBlobFormat.encode(icon), null);
+        assertEquals(Bitmap.Config.RGB_565, decoded.getConfig());
+        assertFalse(decoded.hasAlpha());
+        assertTrue(icon.sameAs(decoded));
+    }
+
+    @Test
+    public void testPreferredRgb565() {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+
+        Bitmap opaque = Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888);
+        opaque.eraseColor(0xFF3366CC);
+        opaque.setHasAlpha(false);
+        Bitmap decoded = IconBlobFormat.decode(IconBlobFormat.encode(opaque), options);
+        assertEquals(Bitmap.Config.RGB_565, decoded.getConfig());
+
+        // Icons with alpha keep it
+        Bitmap icon = createIcon(ICON_SIZE, 4);
+        decoded = IconBlobFormat.decode(IconBlobFormat.encode(icon), options);
+        assertEquals(Bitmap.Config.ARGB_8888, decoded.getConfig());
+        assertArrayEquals(getPixels(icon), getPixels(decoded));
+    }
+
+    @Test
+    public void testRunsRoundTrip() {
+        Random random = new Random(2);
+        for (int i = 0; i < 100; i++) {
+            int[] pixels = new int[random.nextInt(300) + 1];
+            for (int j = 0; j < pixels.length; j++) {
+                // Few distinct values, to get runs of all lengths
+                pixels[j] = random.nextInt(3);
+            }
+            int[] tokens = new int[pixels.length + 1];
+            int tokenCount = IconBlobFormat.compressRuns(pixels, tokens);
+            int[] expanded = new int[pixels.length];
+            IconBlobFormat.expandRuns(IntBuffer.wrap(tokens, 0, tokenCount), expanded,
+                    expanded.length);
+            assertArrayEquals(pixels, expanded);
+        }
+    }
+
+    @Test
+    public void testDecodesPng() {
+        Bitmap icon = createIcon(ICON_SIZE, 3);
+        Bitmap decoded = IconBlobFormat.decode(Utilities.flattenBitmap(icon), null);
+        assertEquals(icon.getWidth(), decoded.getWidth());
+        assertEquals(icon.getHeight(), decoded.getHeight());
+    }
+
+    @Test
+    public void benchmarkAgainstPng() {
+        int count = 50;
+        Bitmap[] icons = new Bitmap[count];
+        for (int i = 0; i < count; i++) {
+            icons[i] = createIcon(ICON_SIZE, i);
+        }
+
+        byte[][] png = new byte[count][];
+        long pngSize = 0;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < count; i++) {
+            png[i] = Utilities.flattenBitmap(icons[i]);
+            pngSize += png[i].length;
+        }
+        long pngEncode = SystemClock.elapsedRealtimeNanos() - start;
+
+        byte[][] raw = new byte[count][];
+        long rawSize = 0;
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < count; i++) {
+            raw[i] = IconBlobFormat.encode(icons[i]);
+            rawSize += raw[i].length;
+        }
+        long rawEncode = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < count; i++) {
+            BitmapFactory.decodeByteArray(png[i], 0, png[i].length);
+        }
+        long pngDecode = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < count; i++) {
+            IconBlobFormat.decode(raw[i], null);
+        }
+        long rawDecode = SystemClock.elapsedRealtimeNanos() - start;
+
+        Log.d(TAG, String.format("%d icons of %dpx, PNG: encode %.2fms, decode %.2fms, %d bytes; "
+                        + "raw: encode %.2fms, decode %.2fms, %d bytes", count, ICON_SIZE,
+                pngEncode / 1e6, pngDecode / 1e6, pngSize,
+                rawEncode / 1e6, rawDecode / 1e6, rawSize));
+    }
+
+    /**
+     * Draws a noisy circle on a transparent background, roughly like an adaptive icon.
+     */
+    private static Bitmap createIcon(int size, int seed) {
+        Random random = new Random(seed);
+        Bitmap icon = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(icon);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(0xff000000 | random.nextInt());
+        canvas.drawCircle(size / 2f, size / 2f, size * 0.45f, paint);
+        for (int i = 0; i < 20; i++) {
+            paint.setColor(random.nextInt());
+            canvas.drawCircle(size / 2f + random.nextInt(size / 4), size / 2f,
+                    random.nextInt(size / 8) + 1, paint);
+        }
+        return icon;
+    }
+
+    private static int[] getPixels(Bitmap bitmap) {
+        int[] pixels = new int[bitmap.getWidth() * bitmap.getHeight()];
+        bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(),
+                bitmap.getHeight());
+        return pixels;
+    }
+}
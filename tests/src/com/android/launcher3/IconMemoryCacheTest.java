@@ -0,0 +1,94 @@
+package com.android.launcher3;
+
+import android.content.ComponentName;
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.IconCache.CacheEntry;
+import com.android.launcher3.util.ComponentKey;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link IconMemoryCache}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class IconMemoryCacheTest {
+
+    // 16x16 ARGB_8888
+    private static final int ICON_BYTES = 16 * 16 * 4;
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        // Every segment fits two icons
+        IconMemoryCache cache = new IconMemoryCache(16 * 2 * ICON_BYTES, 16 * 2 * ICON_BYTES);
+        ComponentKey[] keys = new ComponentKey[200];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = getKey("com.test.app" + i);
+            cache.put(keys[i], getEntry(false));
+        }
+
+        // The cache can't hold more than 32 icons
+        int present = 0;
+        for (ComponentKey key : keys) {
+            if (cache.get(key) != null) {
+                present++;
+            }
+        }
+        assertTrue(present <= 32);
+        // The most recently put icon is never evicted
+        assertNotNull(cache.get(keys[keys.length - 1]));
+    }
+
+    @Test
+    public void testLowResDoesNotEvictHighRes() {
+        IconMemoryCache cache = new IconMemoryCache(16 * ICON_BYTES, 16 * ICON_BYTES);
+        ComponentKey highResKey = getKey("com.test.highres");
+        CacheEntry highRes = getEntry(false);
+        cache.put(highResKey, highRes);
+
+        for (int i = 0; i < 200; i++) {
+            cache.put(getKey("com.test.lowres" + i), getEntry(true));
+        }
+        assertSame(highRes, cache.get(highResKey));
+    }
+
+    @Test
+    public void testRemovePackage() {
+        IconMemoryCache cache = new IconMemoryCache(Long.MAX_VALUE, Long.MAX_VALUE);
+        ComponentKey first = new ComponentKey(
+                new ComponentName("com.test", "com.test.First"), Process.myUserHandle());
+        ComponentKey second = new ComponentKey(
+                new ComponentName("com.test", "com.test.Second"), Process.myUserHandle());
+        ComponentKey other = getKey("com.other");
+        cache.put(first, getEntry(false));
+        cache.put(second, getEntry(true));
+        cache.put(other, getEntry(false));
+
+        cache.removePackage("com.test", Process.myUserHandle());
+        assertNull(cache.get(first));
+        assertNull(cache.get(second));
+        assertNotNull(cache.get(other));
+    }
+
+    private static ComponentKey getKey(String packageName) {
+        return new ComponentKey(new ComponentName(packageName, packageName + ".Main"),
+                Process.myUserHandle());
+    }
+
+    private static CacheEntry getEntry(boolean lowRes) {
+        CacheEntry entry = new CacheEntry();
+        entry.icon = Bitmap.createBitmap(16, 16, Bitmap.Config.ARGB_8888);
+        entry.isLowResIcon = lowRes;
+        return entry;
+    }
+}
@@ -0,0 +1,188 @@
+package com.android.launcher3;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.filters.MediumTest;
+import android.support.test.rule.provider.ProviderTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.util.TestLauncherProvider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LauncherDao}
+ */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class LauncherDaoTest {
+    private static final String TAG = "LauncherDaoTest";
+
+    private static final int FAVORITES_COUNT = 500;
+
+    private static final String VALID_INTENT =
+            new Intent(Intent.ACTION_MAIN).setPackage("com.android.launcher3.validpackage")
+                    .toUri(0);
+
+    @Rule
+    public ProviderTestRule mProviderRule =
+            new ProviderTestRule.Builder(TestLauncherProvider.class, LauncherProvider.AUTHORITY)
+                    .build();
+
+    private ContentResolver mResolver;
+    private LauncherDao mDao;
+
+    @Before
+    public void setUp() {
+        mResolver = mProviderRule.getResolver();
+        ContentProviderClient client =
+                mResolver.acquireContentProviderClient(LauncherProvider.AUTHORITY);
+        try {
+            mDao = new LauncherDao((LauncherProvider) client.getLocalContentProvider());
+        } finally {
+            client.release();
+        }
+    }
+
+    @Test
+    public void testInsertUpdateDelete() {
+        long id = mDao.generateNewItemId();
+        assertTrue(mDao.insert(createFavorite(id, 0)));
+
+        ContentValues position = new ContentValues();
+        position.put(Favorites.CONTAINER, Favorites.CONTAINER_DESKTOP);
+        position.put(Favorites.SCREEN, 2L);
+        position.put(Favorites.CELLX, 3);
+        position.put(Favorites.CELLY, 4);
+        position.put(Favorites.RANK, 0);
+        ContentValues title = new ContentValues();
+        title.put(Favorites.TITLE, "Renamed");
+        mDao.update(new long[] {id, id}, Arrays.asList(position, title));
+
+        try (Cursor c = mDao.queryFavorites(
+                new String[] {Favorites.SCREEN, Favorites.CELLX, Favorites.CELLY, Favorites.TITLE},
+                Favorites._ID + " = " + id, null)) {
+            assertTrue(c.moveToNext());
+            assertEquals(2, c.getLong(0));
+            assertEquals(3, c.getInt(1));
+            assertEquals(4, c.getInt(2));
+            assertEquals("Renamed", c.getString(3));
+        }
+
+        mDao.delete(Collections.singletonList(id));
+        try (Cursor c = mDao.queryFavorites(null, Favorites._ID + " = " + id, null)) {
+            assertEquals(0, c.getCount());
+        }
+    }
+
+    @Test
+    public void testGeneratesIncreasingIds() {
+        long first = mDao.generateNewItemId();
+        assertTrue(mDao.generateNewItemId() > first);
+        long screen = mDao.generateNewScreenId();
+        assertTrue(mDao.generateNewScreenId() > screen);
+    }
+
+    @Test
+    public void benchmarkAgainstContentResolver() throws Exception {
+        ContentValues[] favorites = new ContentValues[FAVORITES_COUNT];
+        long[] ids = new long[FAVORITES_COUNT];
+        for (int i = 0; i < FAVORITES_COUNT; i++) {
+            ids[i] = mDao.generateNewItemId();
+            favorites[i] = createFavorite(ids[i], i);
+        }
+        mResolver.bulkInsert(Favorites.CONTENT_URI, favorites);
+
+        int runs = 10;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < runs; i++) {
+            try (Cursor c = mResolver.query(Favorites.CONTENT_URI, null, null, null, null)) {
+                readAll(c);
+            }
+        }
+        long resolverLoad = (SystemClock.elapsedRealtimeNanos() - start) / runs;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < runs; i++) {
+            try (Cursor c = mDao.queryFavorites(null, null, null)) {
+                readAll(c);
+            }
+        }
+        long daoLoad = (SystemClock.elapsedRealtimeNanos() - start) / runs;
+
+        ArrayList<ContentProviderOperation> ops = new ArrayList<>();
+        ArrayList<ContentValues> positions = new ArrayList<>();
+        for (int i = 0; i < FAVORITES_COUNT; i++) {
+            ContentValues values = createPosition(i + 1);
+            ops.add(ContentProviderOperation.newUpdate(Favorites.getContentUri(ids[i]))
+                    .withValues(values).build());
+            positions.add(createPosition(i + 2));
+        }
+        start = SystemClock.elapsedRealtimeNanos();
+        mResolver.applyBatch(LauncherProvider.AUTHORITY, ops);
+        long resolverUpdate = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        mDao.update(ids, positions);
+        long daoUpdate = SystemClock.elapsedRealtimeNanos() - start;
+
+        Log.d(TAG, String.format("%d favorites, load: resolver %.2fms, dao %.2fms; "
+                        + "position update: resolver %.2fms, dao %.2fms", FAVORITES_COUNT,
+                resolverLoad / 1e6, daoLoad / 1e6, resolverUpdate / 1e6, daoUpdate / 1e6));
+    }
+
+    private static void readAll(Cursor c) {
+        int columns = c.getColumnCount();
+        while (c.moveToNext()) {
+            for (int i = 0; i < columns; i++) {
+                if (c.getType(i) == Cursor.FIELD_TYPE_BLOB) {
+                    c.getBlob(i);
+                } else {
+                    c.getString(i);
+                }
+            }
+        }
+    }
+
+    private static ContentValues createFavorite(long id, int index) {
+        ContentValues values = new ContentValues();
+        values.put(Favorites._ID, id);
+        values.put(Favorites.ITEM_TYPE, Favorites.ITEM_TYPE_APPLICATION);
+        values.put(Favorites.INTENT, VALID_INTENT);
+        values.put(Favorites.TITLE, "Item " + index);
+        values.put(Favorites.CONTAINER, Favorites.CONTAINER_DESKTOP);
+        values.put(Favorites.SCREEN, index / 20);
+        values.put(Favorites.CELLX, index % 5);
+        values.put(Favorites.CELLY, (index / 5) % 4);
+        values.put(Favorites.SPANX, 1);
+        values.put(Favorites.SPANY, 1);
+        return values;
+    }
+
+    private static ContentValues createPosition(int seed) {
+        ContentValues values = new ContentValues();
+        values.put(Favorites.CONTAINER, Favorites.CONTAINER_DESKTOP);
+        values.put(Favorites.SCREEN, (long) seed % 25);
+        values.put(Favorites.CELLX, seed % 5);
+        values.put(Favorites.CELLY, seed % 4);
+        values.put(Favorites.RANK, 0);
+        return values;
+    }
+}
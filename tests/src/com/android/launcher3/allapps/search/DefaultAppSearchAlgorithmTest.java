@@ -16,7 +16,9 @@
 package com.android.launcher3.allapps.search;
 
 import android.content.ComponentName;
+import android.os.SystemClock;
 import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
 
 import com.android.launcher3.AppInfo;
 import com.android.launcher3.Utilities;
@@ -24,6 +26,12 @@ import com.android.launcher3.Utilities;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -32,6 +40,8 @@ import static org.junit.Assert.assertTrue;
  */
 @RunWith(AndroidJUnit4.class)
 public class DefaultAppSearchAlgorithmTest {
+    private static final String TAG = "DefaultAppSearchAlgorithmTest";
+
     private static final DefaultAppSearchAlgorithm.StringMatcher MATCHER =
             DefaultAppSearchAlgorithm.StringMatcher.getInstance();
 
@@ -90,6 +100,100 @@ public class DefaultAppSearchAlgorithmTest {
         assertFalse(DefaultAppSearchAlgorithm.matches(getInfo("abc"), "åç", MATCHER));
     }
 
+    @Test
+    public void testTitleIndexMatchesStringMatcher() {
+        List<AppInfo> apps = new ArrayList<>();
+        for (String title : Arrays.asList("white cow", "whiteCow", "whiteCOW", "whitecowCOW",
+                "white2cow", "whitecow", "whitEcow", "whitecow cow", "whit ecowcow", "cats&dogs",
+                "cats&Dogs", "2+43", "Q", "  Q", "elephant", "Bot", "abc", "Alpha")) {
+            apps.add(getInfo(title));
+        }
+        AppTitleIndex index = new AppTitleIndex();
+        index.setApps(apps);
+
+        for (String query : Arrays.asList("cow", "dog", "&", "43", "3", "q", "e", "ba", "åbç",
+                "ål", "åç")) {
+            List<AppInfo> expected = new ArrayList<>();
+            for (AppInfo info : apps) {
+                if (DefaultAppSearchAlgorithm.matches(info, query, MATCHER)) {
+                    expected.add(info);
+                }
+            }
+            List<AppInfo> actual = new ArrayList<>();
+            index.search(query, actual);
+            assertEquals(query, expected, actual);
+        }
+    }
+
+    @Test
+    public void testTitleIndexUpdatesIncrementally() {
+        AppInfo cow = getInfo("white cow");
+        AppInfo dog = getInfo("brown dog");
+        AppTitleIndex index = new AppTitleIndex();
+        index.setApps(Arrays.asList(cow, dog));
+
+        List<AppInfo> result = new ArrayList<>();
+        index.search("dog", result);
+        assertEquals(Arrays.asList(dog), result);
+
+        dog.title = "brown cat";
+        index.setApps(Arrays.asList(cow, dog));
+        result.clear();
+        index.search("dog", result);
+        assertTrue(result.isEmpty());
+
+        index.setApps(Arrays.asList(dog));
+        result.clear();
+        index.search("cow", result);
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void benchmarkTitleIndex() {
+        for (int count : new int[] {100, 1000, 10000}) {
+            List<AppInfo> apps = getSyntheticApps(count);
+            String[] queries = {"a", "ca", "cal", "calc", "m", "ma", "map", "maps"};
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (String query : queries) {
+                for (AppInfo info : apps) {
+                    DefaultAppSearchAlgorithm.matches(info, query, MATCHER);
+                }
+            }
+            long matcherTime = SystemClock.elapsedRealtimeNanos() - start;
+
+            AppTitleIndex index = new AppTitleIndex();
+            start = SystemClock.elapsedRealtimeNanos();
+            index.setApps(apps);
+            long indexBuildTime = SystemClock.elapsedRealtimeNanos() - start;
+
+            List<AppInfo> result = new ArrayList<>(count);
+            start = SystemClock.elapsedRealtimeNanos();
+            for (String query : queries) {
+                result.clear();
+                index.search(query, result);
+            }
+            long indexTime = SystemClock.elapsedRealtimeNanos() - start;
+
+            Log.d(TAG, String.format("%d apps, %d queries: StringMatcher %.2fms, "
+                            + "index build %.2fms, index search %.2fms", count, queries.length,
+                    matcherTime / 1e6, indexBuildTime / 1e6, indexTime / 1e6));
+        }
+    }
+
+    private List<AppInfo> getSyntheticApps(int count) {
+        String[] words = {"Calculator", "Maps", "camera", "Mail", "Music", "Play", "Store",
+                "Calendar", "Photos", "Clock", "Files", "Settings", "Notes", "2048", "Weather"};
+        Random random = new Random(count);
+        List<AppInfo> apps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String title = words[random.nextInt(words.length)] + " "
+                    + words[random.nextInt(words.length)] + i;
+            apps.add(getInfo(title));
+        }
+        return apps;
+    }
+
     private AppInfo getInfo(String title) {
         AppInfo info = new AppInfo();
         info.title = title;
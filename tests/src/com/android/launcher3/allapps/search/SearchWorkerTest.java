@@ -0,0 +1,256 @@
+package com.android.launcher3.allapps.search;
+
+import android.content.Context;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.HandlerThread;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import ch.deletescape.lawnchair.globalsearch.providers.web.WebSearchProvider;
+import ch.deletescape.lawnchair.globalsearch.providers.web.WebSuggestionManager;
+import com.android.launcher3.util.ComponentKey;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link SearchWorker}, using a local server with artificial latency as the
+ * suggestions backend.
+ */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class SearchWorkerTest {
+
+    private static final long SUGGESTIONS_DELAY_MS = 500;
+    private static final long TIMEOUT_MS = 5000;
+
+    private MockWebServer mServer;
+    private HandlerThread mSearchThread;
+    private HandlerThread mSuggestionsThread;
+    private HandlerThread mResultThread;
+
+    private SearchWorker mWorker;
+    private TestWebSearchProvider mProvider;
+    private RecordingCallbacks mCallbacks;
+
+    @Before
+    public void setUp() throws Exception {
+        // Suggestions cached by other tests would skip the server
+        WebSuggestionManager.Companion.getInstance(InstrumentationRegistry.getTargetContext())
+                .clearCache();
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @NonNull
+            @Override
+            public MockResponse dispatch(@NonNull RecordedRequest request) {
+                String query = request.getRequestUrl().queryParameter("q");
+                return new MockResponse()
+                        .setBody("[\"" + query + "\",[\"" + query + " one\",\"" + query
+                                + " two\"]]")
+                        .setHeadersDelay(SUGGESTIONS_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        });
+        mServer.start();
+
+        mSearchThread = startThread("search");
+        mSuggestionsThread = startThread("suggestions");
+        mResultThread = startThread("results");
+        mWorker = new SearchWorker(mSearchThread.getLooper(), mSuggestionsThread.getLooper(),
+                mResultThread.getLooper());
+
+        mProvider = new TestWebSearchProvider(InstrumentationRegistry.getTargetContext(),
+                mServer.url("/complete").toString() + "?q=%s");
+        mCallbacks = new RecordingCallbacks();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mWorker.cancel();
+        mSearchThread.quitSafely();
+        mSuggestionsThread.quitSafely();
+        mResultThread.quitSafely();
+        mServer.shutdown();
+        WebSuggestionManager.Companion.getInstance(InstrumentationRegistry.getTargetContext())
+                .clearCache();
+    }
+
+    @Test
+    public void testAppsDeliveredBeforeSuggestions() throws Exception {
+        long start = System.currentTimeMillis();
+        mWorker.doSearch("cow", q -> new ArrayList<>(), mProvider::getSuggestions, mCallbacks);
+
+        Result apps = mCallbacks.poll();
+        assertNotNull(apps);
+        assertEquals("cow", apps.query);
+        assertNotNull(apps.apps);
+        assertNull(apps.suggestions);
+        assertTrue(System.currentTimeMillis() - start < SUGGESTIONS_DELAY_MS);
+
+        Result suggestions = mCallbacks.poll();
+        assertNotNull(suggestions);
+        assertEquals("cow", suggestions.query);
+        assertNull(suggestions.apps);
+        assertEquals(Arrays.asList("cow one", "cow two"), suggestions.suggestions);
+    }
+
+    @Test
+    public void testNoSuggestionSource() throws Exception {
+        mWorker.doSearch("cow", q -> new ArrayList<>(), null, mCallbacks);
+
+        Result result = mCallbacks.poll();
+        assertNotNull(result);
+        assertNotNull(result.apps);
+        assertEquals(Collections.emptyList(), result.suggestions);
+        assertNull(mCallbacks.poll(SUGGESTIONS_DELAY_MS * 2));
+    }
+
+    @Test
+    public void testSupersededSuggestionsAreDropped() throws Exception {
+        mWorker.doSearch("c", q -> new ArrayList<>(), mProvider::getSuggestions, mCallbacks);
+        assertEquals("c", mCallbacks.poll().query);
+        // Wait for the request of the first query to be in flight.
+        assertNotNull(mServer.takeRequest(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        mWorker.doSearch("co", q -> new ArrayList<>(), mProvider::getSuggestions, mCallbacks);
+
+        Result apps = mCallbacks.poll();
+        assertEquals("co", apps.query);
+        assertNotNull(apps.apps);
+        Result suggestions = mCallbacks.poll();
+        assertEquals("co", suggestions.query);
+        assertEquals(Arrays.asList("co one", "co two"), suggestions.suggestions);
+        assertNull(mCallbacks.poll(SUGGESTIONS_DELAY_MS * 2));
+    }
+
+    @Test
+    public void testInFlightAppSearchIsAbandoned() throws Exception {
+        CountDownLatch searchStarted = new CountDownLatch(1);
+        CountDownLatch releaseSearch = new CountDownLatch(1);
+        mWorker.doSearch("c", q -> {
+            searchStarted.countDown();
+            try {
+                releaseSearch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return new ArrayList<>();
+        }, mProvider::getSuggestions, mCallbacks);
+        assertTrue(searchStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        mWorker.doSearch("co", q -> new ArrayList<>(), null, mCallbacks);
+        releaseSearch.countDown();
+
+        Result result = mCallbacks.poll();
+        assertEquals("co", result.query);
+        assertNull(mCallbacks.poll(SUGGESTIONS_DELAY_MS * 2));
+        assertEquals(0, mServer.getRequestCount());
+    }
+
+    @Test
+    public void testCancelDropsPendingResults() throws Exception {
+        mWorker.doSearch("cow", q -> new ArrayList<>(), mProvider::getSuggestions, mCallbacks);
+        assertNotNull(mCallbacks.poll());
+        assertNotNull(mServer.takeRequest(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        mWorker.cancel();
+        assertNull(mCallbacks.poll(SUGGESTIONS_DELAY_MS * 2));
+    }
+
+    private static HandlerThread startThread(String name) {
+        HandlerThread thread = new HandlerThread(name);
+        thread.start();
+        return thread;
+    }
+
+    private static class Result {
+        final String query;
+        final ArrayList<ComponentKey> apps;
+        final List<String> suggestions;
+
+        Result(String query, ArrayList<ComponentKey> apps, List<String> suggestions) {
+            this.query = query;
+            this.apps = apps;
+            this.suggestions = suggestions;
+        }
+    }
+
+    private static class RecordingCallbacks implements AllAppsSearchBarController.Callbacks {
+
+        private final LinkedBlockingQueue<Result> mResults = new LinkedBlockingQueue<>();
+
+        Result poll() throws InterruptedException {
+            return poll(TIMEOUT_MS);
+        }
+
+        Result poll(long timeoutMs) throws InterruptedException {
+            return mResults.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void onSearchResult(String query, ArrayList<ComponentKey> apps,
+                List<String> suggestions) {
+            mResults.add(new Result(query, apps, suggestions));
+        }
+
+        @Override
+        public void clearSearchResult() { }
+
+        @Override
+        public boolean onSubmitSearch() {
+            return false;
+        }
+    }
+
+    private static class TestWebSearchProvider extends WebSearchProvider {
+
+        private final String mSuggestionsUrl;
+
+        TestWebSearchProvider(Context context, String suggestionsUrl) {
+            super(context);
+            mSuggestionsUrl = suggestionsUrl;
+        }
+
+        @Override
+        protected String getSearchUrl() {
+            return mSuggestionsUrl;
+        }
+
+        @Override
+        protected String getSuggestionsUrl() {
+            return mSuggestionsUrl;
+        }
+
+        @Override
+        public String getName() {
+            return "Test";
+        }
+
+        @Override
+        public Drawable getIcon() {
+            return new ColorDrawable();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.android.launcher3.graphics;
+
+import android.content.Context;
+import android.content.pm.LauncherActivityInfo;
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import com.android.launcher3.LauncherAppState;
+import com.android.launcher3.Utilities;
+import com.android.launcher3.compat.LauncherAppsCompat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link IconPixelAnalyzer}, comparing it against drawing the icon to a bitmap and
+ * scanning it like the icon processing did before.
+ */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class IconPixelAnalyzerTest {
+    private static final String TAG = "IconPixelAnalyzerTest";
+
+    private static final int MIN_VISIBLE_ALPHA = 0xEF;
+
+    private Context mContext;
+    private int mIconBitmapSize;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mIconBitmapSize = LauncherAppState.getIDP(mContext).iconBitmapSize;
+    }
+
+    @Test
+    public void testMatchesDirectScan() {
+        try (LauncherIcons li = LauncherIcons.obtain(mContext)) {
+            IconPixelAnalyzer analyzer = li.getPixelAnalyzer();
+            for (int seed = 0; seed < 10; seed++) {
+                Drawable icon = createIcon(mIconBitmapSize, seed);
+                analyzer.analyze(icon, MIN_VISIBLE_ALPHA);
+                Result expected = scanDirectly(Utilities.drawableToBitmap(icon));
+
+                assertEquals(expected.transparentCount, analyzer.getTransparentCount());
+                assertEquals(expected.colorCount, analyzer.getColorCount());
+                assertEquals(expected.highScore, analyzer.getHighScore());
+                assertEquals(expected.bestColor, analyzer.getBestColor());
+            }
+        }
+    }
+
+    @Test
+    public void testScaleMatchesNormalizer() {
+        try (LauncherIcons li = LauncherIcons.obtain(mContext)) {
+            IconPixelAnalyzer analyzer = li.getPixelAnalyzer();
+            IconNormalizer normalizer = li.getNormalizer();
+            RectF expectedBounds = new RectF();
+            RectF bounds = new RectF();
+            for (Drawable icon : getCorpus()) {
+                float expected = normalizer.getScale(icon, expectedBounds, null, null,
+                        MIN_VISIBLE_ALPHA);
+                analyzer.analyze(icon, MIN_VISIBLE_ALPHA);
+                float scale = normalizer.getScale(analyzer, bounds, null, null,
+                        MIN_VISIBLE_ALPHA);
+                assertEquals(expected, scale, 0);
+                assertEquals(expectedBounds, bounds);
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkIconAnalysis() {
+        List<Drawable> corpus = getCorpus();
+        try (LauncherIcons li = LauncherIcons.obtain(mContext)) {
+            IconPixelAnalyzer analyzer = li.getPixelAnalyzer();
+            IconNormalizer normalizer = li.getNormalizer();
+            RectF bounds = new RectF();
+
+            // Warm up both paths, the first icons also load their resources
+            for (Drawable icon : corpus) {
+                normalizer.getScale(icon, bounds, null, null, MIN_VISIBLE_ALPHA);
+                analyzer.analyze(icon, MIN_VISIBLE_ALPHA);
+            }
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (Drawable icon : corpus) {
+                normalizer.getScale(icon, bounds, null, null, MIN_VISIBLE_ALPHA);
+                Bitmap bitmap = Utilities.drawableToBitmap(icon);
+                if (bitmap != null) {
+                    scanDirectly(bitmap);
+                }
+            }
+            long separateTime = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (Drawable icon : corpus) {
+                analyzer.analyze(icon, MIN_VISIBLE_ALPHA);
+                normalizer.getScale(analyzer, bounds, null, null, MIN_VISIBLE_ALPHA);
+            }
+            long singlePassTime = SystemClock.elapsedRealtimeNanos() - start;
+
+            Log.d(TAG, String.format("%d icons: separate passes %.2fms, single pass %.2fms",
+                    corpus.size(), separateTime / 1e6, singlePassTime / 1e6));
+        }
+    }
+
+    /**
+     * Returns the icons of the installed apps.
+     */
+    private List<Drawable> getCorpus() {
+        List<Drawable> corpus = new ArrayList<>();
+        for (LauncherActivityInfo info : LauncherAppsCompat.getInstance(mContext)
+                .getActivityList(null, Process.myUserHandle())) {
+            corpus.add(info.getIcon(LauncherAppState.getIDP(mContext).fillResIconDpi));
+        }
+        return corpus;
+    }
+
+    private Drawable createIcon(int size, int seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[size * size];
+        for (int i = 0; i < pixels.length; i++) {
+            // Few alpha values around the threshold, to get transparent and visible pixels
+            int alpha = MIN_VISIBLE_ALPHA - 2 + random.nextInt(4);
+            pixels[i] = alpha << 24 | random.nextInt(0x1000000);
+        }
+        Bitmap bitmap = Bitmap.createBitmap(pixels, size, size, Bitmap.Config.ARGB_8888);
+        BitmapDrawable drawable = new BitmapDrawable(mContext.getResources(), bitmap);
+        drawable.setTargetDensity(bitmap.getDensity());
+        return drawable;
+    }
+
+    /**
+     * Scans {@param bitmap} the way the icon processing did before the analyzer.
+     */
+    private static Result scanDirectly(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        Result result = new Result();
+        SparseIntArray histogram = new SparseIntArray();
+        int bestRGB = 0;
+        for (int pixel : pixels) {
+            int alpha = 0xFF & (pixel >> 24);
+            if (alpha < MIN_VISIBLE_ALPHA) {
+                result.transparentCount++;
+                continue;
+            }
+            int rgb = ColorExtractor.posterize(pixel);
+            int score = histogram.get(rgb) + 1;
+            histogram.put(rgb, score);
+            if (score > result.highScore) {
+                result.highScore = score;
+                bestRGB = rgb;
+            }
+        }
+        result.colorCount = histogram.size();
+        result.bestColor = bestRGB | 0xFF << 24;
+        return result;
+    }
+
+    private static class Result {
+        int transparentCount;
+        int colorCount;
+        int highScore;
+        int bestColor;
+    }
+}
@@ -0,0 +1,72 @@
+package com.android.launcher3.graphics;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link IconRenderExecutor}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class IconRenderExecutorTest {
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+    }
+
+    @Test
+    public void testResultsInOrder() {
+        ArrayList<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            final int value = i;
+            tasks.add(() -> {
+                // Finish the first tasks last
+                SystemClock.sleep(50 - value);
+                return value;
+            });
+        }
+        List<Integer> results = IconRenderExecutor.getInstance().renderAll(tasks);
+        assertEquals(tasks.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, (int) results.get(i));
+        }
+    }
+
+    @Test
+    public void testThreadOwnsLauncherIcons() {
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            LauncherIcons owned;
+            try (LauncherIcons li = LauncherIcons.obtain(mContext)) {
+                owned = li;
+                // Nested users get a pooled instance
+                try (LauncherIcons nested = LauncherIcons.obtain(mContext)) {
+                    assertNotSame(owned, nested);
+                }
+            }
+            try (LauncherIcons li = LauncherIcons.obtain(mContext)) {
+                assertSame(owned, li);
+            }
+            return null;
+        });
+        IconRenderExecutor.getInstance().renderAll(tasks);
+    }
+}
@@ -0,0 +1,126 @@
+package com.android.launcher3.graphics;
+
+import android.content.Context;
+import android.content.pm.LauncherActivityInfo;
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.android.launcher3.LauncherAppState;
+import com.android.launcher3.compat.LauncherAppsCompat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for drawing the shadows of adaptive icons from a {@link ShadowGenerator.Template}.
+ */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class ShadowTemplateTest {
+    private static final String TAG = "ShadowTemplateTest";
+
+    // Compositing the shadows before drawing them may round differently
+    private static final int MAX_CHANNEL_DIFF = 2;
+
+    private Context mContext;
+    private UserHandle mUser;
+    private List<LauncherActivityInfo> mApps;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mUser = Process.myUserHandle();
+        mApps = LauncherAppsCompat.getInstance(mContext).getActivityList(null, mUser);
+    }
+
+    @After
+    public void tearDown() {
+        LauncherIcons.sUseShadowTemplates = true;
+    }
+
+    @Test
+    public void testMatchesBlurredShadow() {
+        try (LauncherIcons li = LauncherIcons.obtain(mContext)) {
+            for (LauncherActivityInfo app : mApps) {
+                LauncherIcons.sUseShadowTemplates = false;
+                Bitmap expected = render(li, app);
+                LauncherIcons.sUseShadowTemplates = true;
+                Bitmap actual = render(li, app);
+
+                assertEquals(expected.getWidth(), actual.getWidth());
+                assertEquals(expected.getHeight(), actual.getHeight());
+                assertTrue(app.getComponentName().flattenToShortString(),
+                        maxChannelDiff(expected, actual) <= MAX_CHANNEL_DIFF);
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkIconRendering() {
+        try (LauncherIcons li = LauncherIcons.obtain(mContext)) {
+            // Warm up both paths, the first icons also load their resources
+            LauncherIcons.sUseShadowTemplates = false;
+            renderAll(li);
+            LauncherIcons.sUseShadowTemplates = true;
+            renderAll(li);
+
+            LauncherIcons.sUseShadowTemplates = false;
+            long blurredTime = renderAll(li);
+            LauncherIcons.sUseShadowTemplates = true;
+            long templateTime = renderAll(li);
+
+            Log.d(TAG, String.format("%d icons: blurred shadows %.1f icons/s, "
+                            + "template shadows %.1f icons/s", mApps.size(),
+                    mApps.size() * 1e9 / blurredTime, mApps.size() * 1e9 / templateTime));
+        }
+    }
+
+    /**
+     * Renders the icons of all apps and returns the time it took in nanoseconds.
+     */
+    private long renderAll(LauncherIcons li) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (LauncherActivityInfo app : mApps) {
+            render(li, app);
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    private Bitmap render(LauncherIcons li, LauncherActivityInfo app) {
+        return li.createBadgedIconBitmap(
+                app.getIcon(LauncherAppState.getIDP(mContext).fillResIconDpi), mUser,
+                app.getApplicationInfo().targetSdkVersion).icon;
+    }
+
+    private static int maxChannelDiff(Bitmap expected, Bitmap actual) {
+        int width = expected.getWidth();
+        int height = expected.getHeight();
+        int[] expectedPixels = new int[width * height];
+        int[] actualPixels = new int[width * height];
+        expected.getPixels(expectedPixels, 0, width, 0, 0, width, height);
+        actual.getPixels(actualPixels, 0, width, 0, 0, width, height);
+
+        int maxDiff = 0;
+        for (int i = 0; i < expectedPixels.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int diff = Math.abs(((expectedPixels[i] >>> shift) & 0xFF)
+                        - ((actualPixels[i] >>> shift) & 0xFF));
+                maxDiff = Math.max(maxDiff, diff);
+            }
+        }
+        return maxDiff;
+    }
+}